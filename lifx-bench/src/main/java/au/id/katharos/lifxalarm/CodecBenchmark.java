@@ -0,0 +1,69 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encode and decode throughput for every packet type. Run with -prof gc to
+ * see the bytes allocated per packet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+
+	private static final byte[] MAC = {(byte) 0xd0, 0x73, (byte) 0xd5, 0, 0, 1};
+
+	// No values given, so JMH runs every packet type.
+	@Param
+	public LIFXPacket.Type type;
+
+	private LIFXPacket packet;
+	private byte[] encoded;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(512);
+	private final LIFXPacketView view = new LIFXPacketView();
+
+	@Setup
+	public void setUp() {
+		LIFXPacket.Builder builder = new LIFXPacket.Builder(type).setGlobeMac(MAC);
+		Payload.Type payloadType = type.getPayloadType();
+		if (payloadType != Payload.Type.NONE) {
+			// A zeroed payload is a valid example of every payload type.
+			builder.setPayload(payloadType.decode(ByteBuffer.wrap(new byte[64]), 0, 64));
+		}
+		packet = builder.build();
+		encoded = packet.getBytes();
+	}
+
+	@Benchmark
+	public int encodeToBuffer() {
+		buffer.clear();
+		packet.encodeTo(buffer);
+		return buffer.position();
+	}
+
+	@Benchmark
+	public byte[] getBytes() {
+		return packet.getBytes();
+	}
+
+	@Benchmark
+	public LIFXPacket decodePacket() {
+		return new LIFXPacket(encoded);
+	}
+
+	@Benchmark
+	public Payload decodeView() {
+		view.wrap(encoded, 0, encoded.length);
+		return view.decodePayload();
+	}
+}
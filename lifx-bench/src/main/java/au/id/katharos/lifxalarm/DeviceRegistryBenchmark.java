@@ -0,0 +1,90 @@
+package au.id.katharos.lifxalarm;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Looking up a globe by MAC, as the send path does for every packet, next to
+ * the same lookup in a map keyed by boxed Longs. Also taking in a state reply
+ * that turns the globe on or off, with a listener waiting on the changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DeviceRegistryBenchmark {
+
+	private static final long FIRST_MAC = 0xd073d5000000L;
+	private static final InetSocketAddress FROM =
+			new InetSocketAddress(InetAddress.getLoopbackAddress(), 56700);
+
+	@Param({"10", "5000"})
+	public int devices;
+
+	private final DeviceRegistry registry = new DeviceRegistry();
+	private final ConcurrentHashMap<Long, Device> boxed = new ConcurrentHashMap<Long, Device>();
+	private final LIFXPacketView view = new LIFXPacketView();
+	// The first globe's state reply, off and then on.
+	private final byte[][] states = new byte[2][];
+	private ExecutorScheduler scheduler;
+	private long next;
+	private int flips;
+
+	@Setup
+	public void setUp() {
+		for (int i = 0; i < devices; i++) {
+			boxed.put(FIRST_MAC + i, registry.getOrAdd(FIRST_MAC + i));
+		}
+		for (int i = 0; i < states.length; i++) {
+			states[i] = new LIFXPacket.Builder(LIFXPacket.Type.LIGHT_STATE)
+				.setTargetMac(LIFXPacket.longToMac(FIRST_MAC))
+				.setGatewayMac(LIFXPacket.longToMac(FIRST_MAC))
+				.setPayload(new LightStatePayload(120, 50, 75, 3500, 0, i == 1, "Bedroom", 0))
+				.build()
+				.getBytes();
+		}
+		scheduler = new ExecutorScheduler("Registry events");
+		registry.setEventScheduler(scheduler);
+		registry.addListener(new DeviceRegistry.Listener() {
+			@Override
+			public void onDeviceChanged(Device device, int changes) {
+			}
+		});
+	}
+
+	@TearDown
+	public void tearDown() {
+		scheduler.shutdown();
+	}
+
+	@Benchmark
+	public Device lookup() {
+		next = (next + 7) % devices;
+		return registry.get(FIRST_MAC + next);
+	}
+
+	@Benchmark
+	public Device lookupBoxed() {
+		next = (next + 7) % devices;
+		return boxed.get(FIRST_MAC + next);
+	}
+
+	@Benchmark
+	public int onPacket() {
+		byte[] state = states[flips++ & 1];
+		view.wrap(state, 0, state.length);
+		registry.onPacket(view, FROM);
+		return flips;
+	}
+}
@@ -0,0 +1,40 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The colour payload on its own, since the sunrise sends nothing else.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SetLightColorBenchmark {
+
+	private final SetLightColorPayload payload = new SetLightColorPayload(40, 60, 75, 200000);
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+
+	@Benchmark
+	public byte[] getBytes() {
+		return payload.getBytes();
+	}
+
+	@Benchmark
+	public int encodeToBuffer() {
+		buffer.clear();
+		payload.encodeTo(buffer);
+		return buffer.position();
+	}
+
+	@Benchmark
+	public SetLightColorPayload construct() {
+		return new SetLightColorPayload(40, 60, 75, 200000);
+	}
+}
@@ -0,0 +1,13 @@
+package au.id.katharos.lifxalarm;
+
+/**
+ * Throws log messages away, so benchmarks don't measure the console.
+ */
+class SilentLogSink implements LogSink {
+
+	static final SilentLogSink INSTANCE = new SilentLogSink();
+
+	@Override
+	public void log(int priority, String tag, String message, Throwable throwable) {
+	}
+}
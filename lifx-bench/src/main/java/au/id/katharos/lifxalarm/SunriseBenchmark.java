@@ -0,0 +1,54 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Time to build the whole sunrise sequence, and to look one colour up from a
+ * compiled transition. The sequence's logging is still formatted, it just
+ * doesn't get printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SunriseBenchmark {
+
+	private static final byte[] MAC = {(byte) 0xd0, 0x73, (byte) 0xd5, 0, 0, 1};
+
+	private final TransitionTable table = TransitionProfile.SUNRISE.compile(1000);
+
+	private LogSink previousSink;
+	private long elapsedMs;
+
+	@Setup
+	public void setUp() {
+		previousSink = LIFXLog.getSink();
+		LIFXLog.setSink(SilentLogSink.INSTANCE);
+	}
+
+	@TearDown
+	public void tearDown() {
+		LIFXLog.setSink(previousSink);
+	}
+
+	@Benchmark
+	public SunriseCounter buildSequence() {
+		return new SunriseCounter(MAC);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public int lookupColor() {
+		elapsedMs = (elapsedMs + 7919) % table.getDurationMs();
+		long entry = table.lookup(elapsedMs);
+		return TransitionTable.getHue(entry) + TransitionTable.getBrightness(entry);
+	}
+}
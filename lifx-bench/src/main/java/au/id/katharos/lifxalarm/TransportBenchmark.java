@@ -0,0 +1,78 @@
+package au.id.katharos.lifxalarm;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import au.id.katharos.lifxalarm.sim.LIFXSimulator;
+
+/**
+ * End to end latency of a request over TCP to the simulator on loopback,
+ * from queueing the packet to having the decoded reply.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransportBenchmark {
+
+	private static final int TIMEOUT_MS = 1000;
+
+	private LIFXSimulator simulator;
+	private LIFXTransport transport;
+	private GatewayConnection connection;
+	private LIFXPacket getPower;
+	private LIFXPacket setColor;
+	private LogSink previousSink;
+
+	@Setup
+	public void setUp() throws IOException {
+		previousSink = LIFXLog.getSink();
+		LIFXLog.setSink(SilentLogSink.INSTANCE);
+		simulator = new LIFXSimulator(0, 0, 1);
+		simulator.start();
+		transport = new LIFXTransport(0);
+		transport.start();
+		connection = transport.openGateway(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), simulator.getTcpPort()));
+		byte[] mac = simulator.getBulbs().get(0).getMac();
+		getPower = new LIFXPacket.Builder(LIFXPacket.Type.GET_POWER_STATE).setGlobeMac(mac).build();
+		setColor = new LIFXPacket.Builder(LIFXPacket.Type.SET_LIGHT_COLOR)
+			.setGlobeMac(mac)
+			.setPayload(new SetLightColorPayload(40, 60, 75, 0))
+			.build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		transport.shutdown();
+		simulator.stop();
+		LIFXLog.setSink(previousSink);
+	}
+
+	@Benchmark
+	public LIFXPacket getPowerRoundTrip() throws IOException {
+		return checked(connection.sendAndWait(getPower, TIMEOUT_MS));
+	}
+
+	@Benchmark
+	public LIFXPacket setColorRoundTrip() throws IOException {
+		return checked(connection.sendAndWait(setColor, TIMEOUT_MS));
+	}
+
+	private static LIFXPacket checked(LIFXPacket reply) throws IOException {
+		if (reply == null) {
+			throw new IOException("No reply from the simulator");
+		}
+		return reply;
+	}
+}
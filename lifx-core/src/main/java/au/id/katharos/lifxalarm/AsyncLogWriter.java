@@ -0,0 +1,133 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formats queued log messages and hands them to the {@link LogSink} on its
+ * own thread, for {@link LIFXLog#setAsync(boolean)}.
+ *
+ * Logging threads never block: once the queue is full, or more than the
+ * allowed number of messages have come in this second, messages are dropped
+ * and a count of them is logged later instead.
+ */
+class AsyncLogWriter implements Runnable {
+
+	static final int DEFAULT_MAX_PER_SECOND = 200;
+	private static final int QUEUE_SIZE = 1024;
+	private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private static class Entry {
+		final int priority;
+		final String tag;
+		final String format;
+		final Object[] args;
+		final Throwable throwable;
+
+		Entry(int priority, String tag, String format, Object[] args, Throwable throwable) {
+			this.priority = priority;
+			this.tag = tag;
+			this.format = format;
+			this.args = args;
+			this.throwable = throwable;
+		}
+	}
+
+	// Tells the thread to finish up.
+	private static final Entry STOP = new Entry(0, null, null, null, null);
+
+	private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(QUEUE_SIZE);
+	private final int maxPerSecond;
+	private Thread thread;
+
+	// Rate limit window, guarded by this.
+	private long windowStartNanos;
+	private int windowCount;
+	private int dropped;
+
+	AsyncLogWriter(int maxPerSecond) {
+		this.maxPerSecond = maxPerSecond;
+	}
+
+	void start() {
+		thread = new Thread(this, "LIFX log");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Write everything queued so far, then stop the thread.
+	 */
+	void stop() {
+		try {
+			queue.put(STOP);
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queue a message without blocking. The arguments are formatted later, so
+	 * they shouldn't be changed afterwards.
+	 */
+	void enqueue(int priority, String tag, String format, Object[] args, Throwable throwable) {
+		synchronized (this) {
+			long now = System.nanoTime();
+			if (now - windowStartNanos >= WINDOW_NANOS) {
+				windowStartNanos = now;
+				windowCount = 0;
+			}
+			if (windowCount >= maxPerSecond) {
+				dropped++;
+				return;
+			}
+			windowCount++;
+		}
+		if (!queue.offer(new Entry(priority, tag, format, args, throwable))) {
+			synchronized (this) {
+				dropped++;
+			}
+		}
+	}
+
+	private synchronized int takeDropped() {
+		int count = dropped;
+		dropped = 0;
+		return count;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Entry entry;
+			try {
+				entry = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (entry == STOP) {
+				reportDropped();
+				return;
+			}
+			LogSink sink = LIFXLog.getSink();
+			try {
+				sink.log(entry.priority, entry.tag, LIFXLog.format(entry.format, entry.args), entry.throwable);
+			} catch (RuntimeException e) {
+				// A bad format string shouldn't stop the logging thread.
+				sink.log(LIFXLog.ERROR, "LIFXLog", "Couldn't log \"" + entry.format + "\"", e);
+			}
+			if (queue.isEmpty()) {
+				reportDropped();
+			}
+		}
+	}
+
+	private void reportDropped() {
+		int count = takeDropped();
+		if (count > 0) {
+			LIFXLog.getSink().log(LIFXLog.WARN, "LIFXLog", "Dropped " + count + " log messages", null);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package au.id.katharos.lifxalarm;
+
+/**
+ * The shape of a transition: how far from its start value to its end value a
+ * channel is at each point in time. Both are fractions, 0 to 1.
+ *
+ * Curves are only evaluated when a {@link TransitionProfile} is compiled, so
+ * they can be as expensive as they like.
+ */
+public abstract class Curve {
+
+	public static final Curve LINEAR = new Curve() {
+		@Override
+		public double valueAt(double t) {
+			return t;
+		}
+	};
+
+	/**
+	 * Slow to start and slow to finish (smoothstep).
+	 */
+	public static final Curve EASE_IN_OUT = new Curve() {
+		@Override
+		public double valueAt(double t) {
+			return t * t * (3 - 2 * t);
+		}
+	};
+
+	public static final Curve EASE_IN = new Curve() {
+		@Override
+		public double valueAt(double t) {
+			return t * t;
+		}
+	};
+
+	public static final Curve EASE_OUT = new Curve() {
+		@Override
+		public double valueAt(double t) {
+			return t * (2 - t);
+		}
+	};
+
+	/**
+	 * @param t Fraction of the way through the transition, 0 to 1.
+	 * @return Fraction of the way from the start value to the end value.
+	 */
+	public abstract double valueAt(double t);
+
+	/**
+	 * A logistic curve, like dawn light. Scaled to start at exactly 0 and end
+	 * at exactly 1.
+	 *
+	 * @param steepness How sharp the middle is. At 10 the unscaled curve runs
+	 *     from 1/(1+e^5) to 1/(1+e^-5).
+	 */
+	public static Curve sigmoid(final double steepness) {
+		final double low = logistic(steepness, 0);
+		final double range = logistic(steepness, 1) - low;
+		return new Curve() {
+			@Override
+			public double valueAt(double t) {
+				return (logistic(steepness, t) - low) / range;
+			}
+		};
+	}
+
+	private static double logistic(double steepness, double t) {
+		return 1 / (1 + Math.exp(-steepness * (t - 0.5)));
+	}
+
+	/**
+	 * Straight lines between the given points.
+	 *
+	 * @param times Increasing, from 0 to 1.
+	 * @param values The curve's value at each time.
+	 */
+	public static Curve keyframes(double[] times, double[] values) {
+		if (times.length != values.length || times.length < 2) {
+			throw new IllegalArgumentException("Need matching times and values, at least two of each");
+		}
+		final double[] t = times.clone();
+		final double[] v = values.clone();
+		return new Curve() {
+			@Override
+			public double valueAt(double at) {
+				if (at <= t[0]) {
+					return v[0];
+				}
+				int i = 1;
+				while (i < t.length - 1 && at > t[i]) {
+					i++;
+				}
+				if (at >= t[i]) {
+					return v[i];
+				}
+				return v[i - 1] + (v[i] - v[i - 1]) * (at - t[i - 1]) / (t[i] - t[i - 1]);
+			}
+		};
+	}
+
+	/**
+	 * This curve until it reaches the limit, then held there. Stretched so it
+	 * still ends at 1, i.e. the channel reaches its end value early.
+	 */
+	public Curve upTo(final double limit) {
+		final Curve curve = this;
+		return new Curve() {
+			@Override
+			public double valueAt(double t) {
+				return Math.min(curve.valueAt(t), limit) / limit;
+			}
+		};
+	}
+}
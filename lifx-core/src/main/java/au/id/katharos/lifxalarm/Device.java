@@ -0,0 +1,197 @@
+package au.id.katharos.lifxalarm;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A globe seen on the network, as recorded in a {@link DeviceRegistry}.
+ *
+ * Only the MAC is fixed. Everything else is updated in place as packets
+ * arrive, and each field can be read from any thread without locking.
+ *
+ * The power and colour are a shadow of the globe's state: what it last
+ * reported, or what we last told it if that's newer. They let the UI show
+ * the state without asking, and let writes that wouldn't change anything be
+ * skipped.
+ */
+public class Device {
+
+	public static final int POWER_UNKNOWN = -1;
+	public static final int POWER_OFF = 0;
+	public static final int POWER_ON = 1;
+
+	static final long NO_COLOR = -1;
+
+	private final long mac;
+	private volatile long site;
+	private volatile boolean gateway;
+	private volatile InetSocketAddress address;
+	private volatile String label;
+	private volatile long lastSeenMillis;
+	private volatile LightStatePayload lightState;
+	private volatile int power = POWER_UNKNOWN;
+	// Hue, saturation, brightness and kelvin in one, so they're always read together.
+	private volatile long color = NO_COLOR;
+	private volatile long fadeEndMillis;
+
+	Device(long mac) {
+		this.mac = mac;
+	}
+
+	public long getMac() {
+		return mac;
+	}
+
+	public byte[] getMacBytes() {
+		return LIFXPacket.longToMac(mac);
+	}
+
+	/**
+	 * The mesh the globe is on, named by its gateway's MAC.
+	 */
+	public long getSite() {
+		return site;
+	}
+
+	void setSite(long site) {
+		this.site = site;
+	}
+
+	/**
+	 * Whether this globe answered discovery itself, and so can be connected to.
+	 */
+	public boolean isGateway() {
+		return gateway;
+	}
+
+	void setGateway(boolean gateway) {
+		this.gateway = gateway;
+	}
+
+	/**
+	 * The gateway to send this globe's packets through, or null if unknown.
+	 */
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	void setAddress(InetSocketAddress address) {
+		this.address = address;
+	}
+
+	/**
+	 * @return The label from the last light state, or null.
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	void setLabel(String label) {
+		this.label = label;
+	}
+
+	/**
+	 * @return When we last heard from the globe, as {@link System#currentTimeMillis()}.
+	 */
+	public long getLastSeenMillis() {
+		return lastSeenMillis;
+	}
+
+	void setLastSeenMillis(long lastSeenMillis) {
+		this.lastSeenMillis = lastSeenMillis;
+	}
+
+	/**
+	 * @return The last light state the globe reported, or null.
+	 */
+	public LightStatePayload getLightState() {
+		return lightState;
+	}
+
+	void setLightState(LightStatePayload lightState) {
+		this.lightState = lightState;
+	}
+
+	/**
+	 * @return One of {@link #POWER_ON}, {@link #POWER_OFF} or {@link #POWER_UNKNOWN}.
+	 */
+	public int getPower() {
+		return power;
+	}
+
+	void setPower(int power) {
+		this.power = power;
+	}
+
+	/**
+	 * Whether the shadow knows the globe's colour. If not, the colour getters
+	 * mean nothing.
+	 */
+	public boolean hasColor() {
+		return color != NO_COLOR;
+	}
+
+	/**
+	 * In degrees, the colour the globe shows or is fading to.
+	 */
+	public int getHue() {
+		return (int) (color >>> 48);
+	}
+
+	/**
+	 * In percent.
+	 */
+	public int getSaturation() {
+		return (int) (color >>> 32) & 0xFFFF;
+	}
+
+	/**
+	 * In percent.
+	 */
+	public int getBrightness() {
+		return (int) (color >>> 16) & 0xFFFF;
+	}
+
+	public int getKelvin() {
+		return (int) color & 0xFFFF;
+	}
+
+	/**
+	 * @return When the globe should finish fading to its colour, as
+	 *     {@link System#currentTimeMillis()}. In the past once it has.
+	 */
+	public long getFadeEndMillis() {
+		return fadeEndMillis;
+	}
+
+	long getColor() {
+		return color;
+	}
+
+	void setColor(long color, long fadeEndMillis) {
+		this.color = color;
+		this.fadeEndMillis = fadeEndMillis;
+	}
+
+	/**
+	 * Go back to not knowing the power or colour, e.g. after a write to the
+	 * globe was lost, so the next write isn't skipped.
+	 */
+	void forgetState() {
+		power = POWER_UNKNOWN;
+		color = NO_COLOR;
+		fadeEndMillis = 0;
+	}
+
+	/**
+	 * Pack a colour, in the units {@link SetLightColorPayload} takes, into one long.
+	 */
+	static long packColor(int hue, int saturation, int brightness, int kelvin) {
+		return (long) (hue & 0xFFFF) << 48 | (long) (saturation & 0xFFFF) << 32
+				| (long) (brightness & 0xFFFF) << 16 | (kelvin & 0xFFFF);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%012x%s at %s (%s)", mac, gateway ? " gateway" : "", address, label);
+	}
+}
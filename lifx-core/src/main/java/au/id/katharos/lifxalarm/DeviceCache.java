@@ -0,0 +1,119 @@
+package au.id.katharos.lifxalarm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+
+/**
+ * Saves the devices in a {@link DeviceRegistry} to a small binary file, so a
+ * fresh process can try the gateways it knew about before broadcasting.
+ *
+ * Format: a version int and a count, then for each device its MAC and site
+ * (longs), gateway flag, address length, address bytes, port (short),
+ * last seen time (long) and label (UTF).
+ */
+public class DeviceCache {
+
+	private static final int VERSION = 1;
+
+	private final File file;
+
+	public DeviceCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Write every device with a known address, replacing the file in one go
+	 * so a crash part way through leaves the old one.
+	 */
+	public synchronized void save(Collection<Device> devices) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			int count = 0;
+			for (Device device : devices) {
+				if (device.getAddress() != null) {
+					count++;
+				}
+			}
+			out.writeInt(VERSION);
+			out.writeInt(count);
+			for (Device device : devices) {
+				InetSocketAddress address = device.getAddress();
+				if (address == null) {
+					continue;
+				}
+				byte[] ip = address.getAddress().getAddress();
+				out.writeLong(device.getMac());
+				out.writeLong(device.getSite());
+				out.writeBoolean(device.isGateway());
+				out.writeByte(ip.length);
+				out.write(ip);
+				out.writeShort(address.getPort());
+				out.writeLong(device.getLastSeenMillis());
+				String label = device.getLabel();
+				out.writeUTF(label == null ? "" : label);
+			}
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			// Some platforms won't rename over an existing file.
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException("Couldn't replace " + file);
+			}
+		}
+	}
+
+	/**
+	 * Add the saved devices to the registry. Devices it already has are left
+	 * alone, since what's live beats what's cached.
+	 *
+	 * @return How many devices were added. 0 if there's no file yet.
+	 */
+	public synchronized int load(DeviceRegistry registry) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != VERSION) {
+				return 0;
+			}
+			int count = in.readInt();
+			int added = 0;
+			for (int i = 0; i < count; i++) {
+				long mac = in.readLong();
+				long site = in.readLong();
+				boolean gateway = in.readBoolean();
+				byte[] ip = new byte[in.readUnsignedByte()];
+				in.readFully(ip);
+				int port = in.readUnsignedShort();
+				long lastSeen = in.readLong();
+				String label = in.readUTF();
+				if (registry.get(mac) != null) {
+					continue;
+				}
+				Device device = registry.getOrAdd(mac);
+				device.setSite(site);
+				device.setGateway(gateway);
+				device.setAddress(new InetSocketAddress(InetAddress.getByAddress(ip), port));
+				device.setLastSeenMillis(lastSeen);
+				device.setLabel(label.length() == 0 ? null : label);
+				added++;
+			}
+			return added;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package au.id.katharos.lifxalarm;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Every globe and gateway seen on the network, keyed by MAC.
+ *
+ * Listens to every packet on a transport: a gateway's reply to discovery
+ * registers it, and any packet from a globe behind a gateway registers that
+ * globe, so globes turn up as soon as they say anything. Lookups are lock
+ * free, so the send path can route each packet to its globe's gateway.
+ *
+ * Power and light state replies (including the acks to our own commands)
+ * keep each device's shadow state current, and {@link #applyWrite} checks
+ * writes against it.
+ *
+ * Listeners are told whenever a packet from the network changes a device,
+ * whether it's a reply or a globe announcing a change someone else made. The
+ * transport thread only puts the change on a lock free ring; listeners are
+ * called from the event scheduler's thread, so they can take their time.
+ */
+public class DeviceRegistry implements PacketListener {
+
+	/**
+	 * Told about changes to devices as they're seen on the network.
+	 */
+	public interface Listener {
+		int ADDED = 1;
+		int POWER = 2;
+		int COLOR = 4;
+		int LABEL = 8;
+
+		/**
+		 * Called on the event scheduler's thread. Read the new state from the
+		 * device; it may have changed again since.
+		 *
+		 * @param changes The bits for what changed, e.g. POWER | COLOR.
+		 */
+		void onDeviceChanged(Device device, int changes);
+	}
+
+	private static final int EVENT_CAPACITY = 1024;
+
+	private final LongMap<Device> devices = new LongMap<Device>();
+
+	// Events are the MAC shifted over with the change bits below it. Only the
+	// transport thread adds them, and only the drain task takes them.
+	private final EventRing events = new EventRing(EVENT_CAPACITY);
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private volatile Scheduler eventScheduler;
+
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			do {
+				long event;
+				while ((event = events.poll()) != 0) {
+					Device device = get(event >>> 16);
+					if (device != null) {
+						dispatch(device, (int) event & 0xFFFF);
+					}
+				}
+				draining.set(false);
+				// Something may have arrived after the last poll but before the flag
+				// was cleared, in which case nobody else will have scheduled a drain.
+			} while (!events.isEmpty() && draining.compareAndSet(false, true));
+		}
+	};
+
+	/**
+	 * @return The device, or null if it's never been seen.
+	 */
+	public Device get(long mac) {
+		return devices.get(mac);
+	}
+
+	public Device get(byte[] mac) {
+		return devices.get(LIFXPacket.macToLong(mac));
+	}
+
+	/**
+	 * The device with this MAC, added if it's new.
+	 */
+	public Device getOrAdd(long mac) {
+		Device device = devices.get(mac);
+		if (device == null) {
+			Device added = new Device(mac);
+			device = devices.putIfAbsent(mac, added);
+			if (device == null) {
+				device = added;
+			}
+		}
+		return device;
+	}
+
+	/**
+	 * Record that the globe is on the given site, reachable through the given
+	 * gateway address.
+	 */
+	public Device seen(long mac, long site, InetSocketAddress address) {
+		Device device = getOrAdd(mac);
+		device.setSite(site);
+		device.setAddress(address);
+		device.setLastSeenMillis(System.currentTimeMillis());
+		return device;
+	}
+
+	/**
+	 * @param scheduler Where listeners are called. Until one is set, changes
+	 *     aren't reported.
+	 */
+	public void setEventScheduler(Scheduler scheduler) {
+		eventScheduler = scheduler;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return How many changes weren't reported because listeners were too far behind.
+	 */
+	public long getDroppedEvents() {
+		return events.getDropped();
+	}
+
+	@Override
+	public void onPacket(LIFXPacketView packet, InetSocketAddress from) {
+		long mac = packet.getTargetMac();
+		long site = packet.getGatewayMac();
+		if (packet.getType() == LIFXPacket.Type.PAN_GATEWAY) {
+			// The replying globe is the gateway; older firmware only fills in the site.
+			long gatewayMac = mac != 0 ? mac : site;
+			boolean added = get(gatewayMac) == null;
+			Device gateway = seen(gatewayMac, site, from);
+			gateway.setGateway(true);
+			if (added) {
+				changed(gateway, Listener.ADDED);
+			}
+			return;
+		}
+		// Requests, including ones other controllers broadcast, only say where a
+		// globe was meant to be, not where it is.
+		if (mac == 0 || packet.getType() == null || !packet.getType().isReply()) {
+			return;
+		}
+		boolean added = get(mac) == null;
+		Device device = seen(mac, site, from);
+		int oldPower = device.getPower();
+		long oldColor = device.getColor();
+		String oldLabel = device.getLabel();
+		Payload payload = packet.decodePayload();
+		if (payload instanceof LightStatePayload) {
+			LightStatePayload state = (LightStatePayload) payload;
+			device.setLightState(state);
+			device.setLabel(state.getLabel());
+			device.setPower(state.isOn() ? Device.POWER_ON : Device.POWER_OFF);
+			// Part way through a fade the globe reports where it is, not where it's
+			// going, and it's where it's going that tells whether a write is needed.
+			if (System.currentTimeMillis() >= device.getFadeEndMillis()) {
+				device.setColor(Device.packColor(state.getHue(), state.getSaturation(),
+						state.getBrightness(), state.getKelvin()), 0);
+			}
+		} else if (payload instanceof PowerStatePayload) {
+			PowerStatePayload power = (PowerStatePayload) payload;
+			device.setPower(power.isOn() ? Device.POWER_ON : Device.POWER_OFF);
+		}
+		int changes = added ? Listener.ADDED : 0;
+		if (device.getPower() != oldPower) {
+			changes |= Listener.POWER;
+		}
+		if (device.getColor() != oldColor) {
+			changes |= Listener.COLOR;
+		}
+		String label = device.getLabel();
+		if (label != null && !label.equals(oldLabel)) {
+			changes |= Listener.LABEL;
+		}
+		changed(device, changes);
+	}
+
+	/**
+	 * Queue the change for the listeners without blocking.
+	 */
+	private void changed(Device device, int changes) {
+		Scheduler scheduler = eventScheduler;
+		if (changes == 0 || scheduler == null || listeners.isEmpty()) {
+			return;
+		}
+		events.offer(device.getMac() << 16 | changes);
+		if (draining.compareAndSet(false, true)) {
+			scheduler.submit(drain);
+		}
+	}
+
+	private void dispatch(Device device, int changes) {
+		for (Listener listener : listeners) {
+			try {
+				listener.onDeviceChanged(device, changes);
+			} catch (RuntimeException e) {
+				// One bad listener shouldn't stop the rest hearing about it.
+				LIFXLog.e("DeviceRegistry", "Listener failed on " + device, e);
+			}
+		}
+	}
+
+	/**
+	 * Check a write against its globe's shadow state, and update the shadow
+	 * if it should go ahead.
+	 *
+	 * Colours only count while the globe is known to be on, since a colour
+	 * sent to a globe that's off doesn't always take. If the write is then
+	 * lost, call {@link #forgetState} so the next one isn't skipped.
+	 *
+	 * @return False if the globe is already in (or fading to) the state the
+	 *     packet asks for, so it needn't be sent.
+	 */
+	public boolean applyWrite(LIFXPacket packet) {
+		Device device = get(packet.getTargetMacAddress());
+		if (device == null) {
+			return true;
+		}
+		switch (packet.getType()) {
+			case SET_POWER_STATE:
+				int power = ((PowerStatePayload) packet.getPayload()).isOn()
+						? Device.POWER_ON : Device.POWER_OFF;
+				if (device.getPower() == power) {
+					return false;
+				}
+				device.setPower(power);
+				return true;
+			case SET_LIGHT_COLOR:
+				if (device.getPower() != Device.POWER_ON) {
+					return true;
+				}
+				SetLightColorPayload payload = (SetLightColorPayload) packet.getPayload();
+				long color = Device.packColor(payload.getHue(), payload.getSaturation(),
+						payload.getBrightness(), payload.getKelvin());
+				if (device.getColor() == color) {
+					return false;
+				}
+				device.setColor(color, System.currentTimeMillis() + payload.getFadeTime());
+				return true;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Forget the globe's power and colour, say because a write to it was lost.
+	 */
+	public void forgetState(long mac) {
+		Device device = get(mac);
+		if (device != null) {
+			device.forgetState();
+		}
+	}
+
+	/**
+	 * Forget the power and colour of every globe behind the gateway at this
+	 * address, say because its connection dropped with writes still queued.
+	 */
+	public void forgetStates(InetAddress gateway) {
+		for (Device device : devices.values()) {
+			InetSocketAddress address = device.getAddress();
+			if (address != null && gateway.equals(address.getAddress())) {
+				device.forgetState();
+			}
+		}
+	}
+
+	public int size() {
+		return devices.size();
+	}
+
+	/**
+	 * A copy of every device, in no particular order.
+	 */
+	public List<Device> getDevices() {
+		return devices.values();
+	}
+
+	public List<Device> getGateways() {
+		List<Device> gateways = new ArrayList<Device>();
+		for (Device device : devices.values()) {
+			if (device.isGateway()) {
+				gateways.add(device);
+			}
+		}
+		return gateways;
+	}
+
+	public void clear() {
+		devices.clear();
+	}
+}
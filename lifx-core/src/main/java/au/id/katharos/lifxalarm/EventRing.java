@@ -0,0 +1,74 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size, lock free queue of non-zero longs for one producer thread and
+ * one consumer thread.
+ *
+ * Neither side ever blocks or allocates: the producer drops events when the
+ * ring is full and counts them instead.
+ */
+class EventRing {
+
+	private final long[] events;
+	private final int mask;
+	// Next slot to write, only moved by the producer.
+	private final AtomicLong tail = new AtomicLong();
+	// Next slot to read, only moved by the consumer.
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * @param capacity Rounded up to a power of two.
+	 */
+	EventRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		events = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Producer only.
+	 *
+	 * @return False if the ring was full and the event was dropped.
+	 */
+	boolean offer(long event) {
+		long t = tail.get();
+		if (t - head.get() == events.length) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		events[(int) t & mask] = event;
+		// Publishes the slot along with the new tail.
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Consumer only.
+	 *
+	 * @return The oldest event, or 0 if there are none.
+	 */
+	long poll() {
+		long h = head.get();
+		if (h == tail.get()) {
+			return 0;
+		}
+		long event = events[(int) h & mask];
+		head.lazySet(h + 1);
+		return event;
+	}
+
+	boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+
+	int capacity() {
+		return events.length;
+	}
+
+	long getDropped() {
+		return dropped.get();
+	}
+}
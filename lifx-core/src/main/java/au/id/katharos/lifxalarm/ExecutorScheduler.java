@@ -0,0 +1,46 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Scheduler} running everything on one daemon thread, so tasks from
+ * the same scheduler never run at the same time.
+ */
+public class ExecutorScheduler implements Scheduler {
+
+	private final ScheduledExecutorService executor;
+
+	public ExecutorScheduler(final String threadName) {
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, threadName);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public Future<?> submit(Runnable task) {
+		return executor.submit(task);
+	}
+
+	@Override
+	public Future<?> schedule(Runnable task, long delayMs) {
+		return executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public Future<?> scheduleAtFixedRate(Runnable task, long initialDelayMs, long periodMs) {
+		return executor.scheduleAtFixedRate(task, initialDelayMs, periodMs, TimeUnit.MILLISECONDS);
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,143 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a {@link FadeSequence} in real time, sending each frame at its own
+ * deadline on the scheduler's thread.
+ *
+ * Deadlines are absolute, counted from {@link System#nanoTime()} at the start,
+ * so a late frame doesn't push back the ones after it. If the thread falls
+ * behind (a busy device, or one that dozed) frames that are already over are
+ * skipped, and the current one is sent with just the time it has left, so the
+ * globe catches up in one fade rather than replaying the missed ones.
+ */
+public class FadePlayer {
+
+	/**
+	 * Where the frames go. Called on the scheduler's thread.
+	 */
+	public interface Target {
+		/**
+		 * @param fadeMs How long the globe should take, which is less than the
+		 *     frame's own fade time if the frame is being sent late.
+		 */
+		void fadeTo(FadeSequence sequence, int frame, int fadeMs);
+	}
+
+	private final FadeSequence sequence;
+	private final Scheduler scheduler;
+	private final Target target;
+	private final LatencyHistogram lateness = new LatencyHistogram();
+
+	private long startNanos;
+	private int cursor;
+	private int skipped;
+	private Future<?> pending;
+
+	private final Runnable step = new Runnable() {
+		@Override
+		public void run() {
+			sendDue();
+		}
+	};
+
+	public FadePlayer(FadeSequence sequence, Scheduler scheduler, Target target) {
+		this.sequence = sequence;
+		this.scheduler = scheduler;
+		this.target = target;
+	}
+
+	/**
+	 * Play from the first frame, starting now. Restarts if already playing.
+	 */
+	public void start() {
+		start(System.nanoTime());
+	}
+
+	/**
+	 * Play as if started at the given {@link System#nanoTime()}, which may be
+	 * in the past.
+	 */
+	synchronized void start(long startNanos) {
+		cancel();
+		this.startNanos = startNanos;
+		cursor = 0;
+		skipped = 0;
+		scheduleNext();
+	}
+
+	/**
+	 * Stop sending frames. Whatever the globe is fading to, it carries on.
+	 */
+	public synchronized void cancel() {
+		if (pending != null) {
+			pending.cancel(false);
+			pending = null;
+		}
+	}
+
+	private void scheduleNext() {
+		if (cursor >= sequence.size()) {
+			pending = null;
+			return;
+		}
+		long delayNanos = deadline(cursor) - System.nanoTime();
+		// Round up, so the frame is never sent before it's due.
+		long delayMs = Math.max(0, (delayNanos + 999999) / 1000000);
+		pending = scheduler.schedule(step, delayMs);
+	}
+
+	private long deadline(int frame) {
+		return startNanos + TimeUnit.MILLISECONDS.toNanos(sequence.getStartMs(frame));
+	}
+
+	private synchronized void sendDue() {
+		if (pending == null) {
+			// Cancelled after this step had already started.
+			return;
+		}
+		long now = System.nanoTime();
+		lateness.record(now - deadline(cursor));
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(now - startNanos);
+		while (cursor + 1 < sequence.size() && sequence.getStartMs(cursor + 1) <= elapsedMs) {
+			cursor++;
+			skipped++;
+		}
+		long endMs = sequence.getStartMs(cursor) + sequence.getFadeMs(cursor);
+		int fadeMs = (int) Math.max(0, Math.min(sequence.getFadeMs(cursor), endMs - elapsedMs));
+		if (skipped > 0 && LIFXLog.isLoggable(LIFXLog.DEBUG)) {
+			LIFXLog.d("FadePlayer", "Sending frame %d with %dms left, %d skipped so far",
+					cursor, fadeMs, skipped);
+		}
+		target.fadeTo(sequence, cursor, fadeMs);
+		cursor++;
+		scheduleNext();
+	}
+
+	public synchronized boolean isFinished() {
+		return cursor >= sequence.size();
+	}
+
+	/**
+	 * Frames not yet sent.
+	 */
+	public synchronized int getRemaining() {
+		return sequence.size() - cursor;
+	}
+
+	/**
+	 * Frames skipped because their time was already over.
+	 */
+	public synchronized int getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * How long after its deadline each frame was actually sent.
+	 */
+	public LatencyHistogram getLateness() {
+		return lateness.snapshot();
+	}
+}
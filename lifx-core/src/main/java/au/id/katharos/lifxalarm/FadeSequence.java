@@ -0,0 +1,136 @@
+package au.id.katharos.lifxalarm;
+
+/**
+ * A planned series of fades, each a colour to send at a given time along with
+ * how long the globe should take to reach it.
+ *
+ * Frames are packed into int arrays (the colour as one int) rather than held
+ * as packets, so a long sequence costs a few bytes a frame and one sequence
+ * can be shared by any number of globes, each with its own cursor. Packets
+ * are only built as each frame is sent.
+ */
+public class FadeSequence {
+
+	private final int[] startMs;
+	private final int[] colors;
+	private final int[] kelvins;
+	private final int[] fadeMs;
+
+	private FadeSequence(int[] startMs, int[] colors, int[] kelvins, int[] fadeMs) {
+		this.startMs = startMs;
+		this.colors = colors;
+		this.kelvins = kelvins;
+		this.fadeMs = fadeMs;
+	}
+
+	/**
+	 * Plan the fades for a compiled transition, sampling it every sampleMs.
+	 */
+	public static FadeSequence plan(TransitionTable table, int sampleMs, KeyframePlanner planner) {
+		int samples = (table.getDurationMs() + sampleMs - 1) / sampleMs + 1;
+		int[] times = new int[samples];
+		int[] hues = new int[samples];
+		int[] sats = new int[samples];
+		int[] brights = new int[samples];
+		int[] kelvins = new int[samples];
+		for (int i = 0; i < samples; i++) {
+			times[i] = Math.min(i * sampleMs, table.getDurationMs());
+			long entry = table.lookup(times[i]);
+			hues[i] = TransitionTable.getHue(entry);
+			sats[i] = TransitionTable.getSaturation(entry);
+			brights[i] = TransitionTable.getBrightness(entry);
+			kelvins[i] = TransitionTable.getKelvin(entry);
+		}
+		return plan(times, hues, sats, brights, kelvins, planner);
+	}
+
+	/**
+	 * Plan the fades for a sampled curve. At each keyframe the globe is sent
+	 * the next keyframe's colour, with a fade lasting until that one is due.
+	 *
+	 * @param times Milliseconds from the start of the sequence, in order.
+	 */
+	public static FadeSequence plan(int[] times, int[] hues, int[] saturations, int[] brightnesses,
+			KeyframePlanner planner) {
+		return plan(times, hues, saturations, brightnesses, null, planner);
+	}
+
+	/**
+	 * @param kelvins May be null to leave the colour temperature to the globe.
+	 */
+	public static FadeSequence plan(int[] times, int[] hues, int[] saturations, int[] brightnesses,
+			int[] kelvins, KeyframePlanner planner) {
+		int[] keys = planner.plan(times, hues, saturations, brightnesses, kelvins);
+		int frames = Math.max(0, keys.length - 1);
+		int[] startMs = new int[frames];
+		int[] colors = new int[frames];
+		int[] frameKelvins = new int[frames];
+		int[] fadeMs = new int[frames];
+		for (int k = 0; k < frames; k++) {
+			int from = keys[k];
+			int to = keys[k + 1];
+			startMs[k] = times[from];
+			colors[k] = pack(hues[to], saturations[to], brightnesses[to]);
+			frameKelvins[k] = kelvins == null ? 0 : kelvins[to];
+			fadeMs[k] = times[to] - times[from];
+		}
+		return new FadeSequence(startMs, colors, frameKelvins, fadeMs);
+	}
+
+	// Hue (0-360) in bits 16-24, saturation and brightness (0-100) a byte each below.
+	static int pack(int hue, int saturation, int brightness) {
+		return (hue << 16) | (saturation << 8) | brightness;
+	}
+
+	public int size() {
+		return startMs.length;
+	}
+
+	/**
+	 * When to send the frame, in milliseconds from the start of the sequence.
+	 */
+	public int getStartMs(int frame) {
+		return startMs[frame];
+	}
+
+	public int getHue(int frame) {
+		return colors[frame] >>> 16;
+	}
+
+	public int getSaturation(int frame) {
+		return (colors[frame] >>> 8) & 0xFF;
+	}
+
+	public int getBrightness(int frame) {
+		return colors[frame] & 0xFF;
+	}
+
+	/**
+	 * 0 if the globe picks its own colour temperature.
+	 */
+	public int getKelvin(int frame) {
+		return kelvins[frame];
+	}
+
+	public int getFadeMs(int frame) {
+		return fadeMs[frame];
+	}
+
+	/**
+	 * A packet telling the globe to fade to the frame's colour.
+	 */
+	public LIFXPacket buildPacket(int frame, byte[] mac) {
+		return buildPacket(frame, mac, getFadeMs(frame));
+	}
+
+	/**
+	 * @param fadeMs Overrides the frame's fade time, e.g. when sending it late.
+	 */
+	public LIFXPacket buildPacket(int frame, byte[] mac, int fadeMs) {
+		return new LIFXPacket.Builder(LIFXPacket.Type.SET_LIGHT_COLOR)
+			.setGlobeMac(mac)
+			.setPayload(new SetLightColorPayload(getHue(frame), getSaturation(frame),
+					getBrightness(frame), getKelvin(frame), fadeMs))
+			.build();
+	}
+}
@@ -0,0 +1,62 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Payload for the wifi and mesh firmware replies.
+ *
+ * Format:
+ * uint64 build;       // LE firmware build time
+ * uint64 install;     // LE install time
+ * uint32 version;     // LE
+ */
+public class FirmwareStatePayload extends Payload {
+
+	static final int LENGTH = 20;
+
+	private final long build;
+	private final long install;
+	private final long version;
+
+	public FirmwareStatePayload(long build, long install, long version) {
+		type = Payload.Type.FIRMWARE_STATE;
+		this.build = build;
+		this.install = install;
+		this.version = version;
+	}
+
+	FirmwareStatePayload(ByteBuffer buffer, int offset) {
+		type = Payload.Type.FIRMWARE_STATE;
+		build = getUint64(buffer, offset);
+		install = getUint64(buffer, offset + 8);
+		version = getUint32(buffer, offset + 16);
+	}
+
+	public long getBuild() {
+		return build;
+	}
+
+	public long getInstall() {
+		return install;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public void encodeTo(ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putLong(build);
+		buffer.putLong(install);
+		buffer.putInt((int) version);
+		buffer.order(order);
+	}
+
+	@Override
+	public int getlength() {
+		return LENGTH;
+	}
+}
@@ -0,0 +1,474 @@
+package au.id.katharos.lifxalarm;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-lived TCP session to one gateway globe, shared by every caller.
+ *
+ * All socket I/O happens on the {@link LIFXTransport} thread. Senders encode
+ * packets straight into the session's write queue and return; the transport
+ * connects (with TCP_NODELAY) on {@link #connect()} or the first send, and
+ * again on the next send after the connection drops. Replies complete the
+ * matching {@link ResponseFuture}.
+ */
+public class GatewayConnection {
+
+	/**
+	 * Told when packets that their senders were told had gone out were lost.
+	 */
+	public interface DropListener {
+		/**
+		 * A packet to this globe was lost. Called on whichever thread found out.
+		 */
+		void onDropped(long mac);
+
+		/**
+		 * The connection dropped, so anything queued or in flight on it may have
+		 * been lost. Called on the transport thread.
+		 */
+		void onConnectionLost(GatewayConnection connection);
+	}
+
+	private static final int WRITE_QUEUE_SIZE = 16 * 1024;
+
+	private final LIFXTransport transport;
+	private final TransportMetrics metrics;
+	private final InetSocketAddress address;
+
+	// Encoded packets waiting to be written, in fill mode. Guarded by itself.
+	private final ByteBuffer writeQueue = ByteBuffer.allocateDirect(WRITE_QUEUE_SIZE);
+	// When the oldest packet in the write queue was queued. Guarded by writeQueue.
+	private long queuedSinceNanos;
+
+	// Everything below is only touched on the transport thread.
+	private SocketChannel channel;
+	private SelectionKey key;
+	private long connectStartNanos;
+	private boolean everConnected;
+	private final PacketFramer framer = new PacketFramer();
+	private final PacketFramer.FrameHandler frameHandler = new PacketFramer.FrameHandler() {
+		@Override
+		public void onFrame(LIFXPacketView frame) {
+			dispatch(frame);
+		}
+	};
+
+	private volatile boolean connected;
+
+	private SendScheduler scheduler;
+	private volatile DropListener dropListener;
+
+	// Requests waiting on a reply, oldest first. Guarded by itself.
+	private final List<ResponseFuture> pending = new LinkedList<ResponseFuture>();
+	private final AtomicLong nextSequence = new AtomicLong();
+
+	// How long to hold queued packets before writing, so more can join them.
+	private volatile long flushWindowNanos;
+
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final Runnable flush = new Runnable() {
+		@Override
+		public void run() {
+			flushScheduled.set(false);
+			if (channel == null) {
+				openChannel();
+			} else if (connected && key.isValid()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+	};
+	private final TransportTimer delayedFlush = new TransportTimer() {
+		@Override
+		void onDeadline() {
+			flush.run();
+		}
+	};
+
+	GatewayConnection(LIFXTransport transport, InetSocketAddress address) {
+		this.transport = transport;
+		this.metrics = transport.getMetrics();
+		this.address = address;
+	}
+
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * The rate limited way to send to globes behind this gateway.
+	 */
+	public synchronized SendScheduler getScheduler() {
+		if (scheduler == null) {
+			scheduler = new SendScheduler(this, transport);
+		}
+		return scheduler;
+	}
+
+	/**
+	 * @param listener May be null.
+	 */
+	public void setDropListener(DropListener listener) {
+		dropListener = listener;
+	}
+
+	/**
+	 * Tell the drop listener a packet to this globe didn't go out after all.
+	 */
+	void reportDropped(LIFXPacket packet) {
+		DropListener listener = dropListener;
+		if (listener != null) {
+			listener.onDropped(LIFXPacket.macToLong(packet.getTargetMacAddress()));
+		}
+	}
+
+	/**
+	 * The framer for this connection's replies, for its read statistics.
+	 */
+	public PacketFramer getFramer() {
+		return framer;
+	}
+
+	/**
+	 * Start connecting now rather than on the first send, so that send doesn't
+	 * wait for the TCP handshake. This doesn't block.
+	 */
+	public void connect() {
+		if (!connected && flushScheduled.compareAndSet(false, true)) {
+			transport.execute(flush);
+		}
+	}
+
+	/**
+	 * Queue a packet to go out over the shared connection. This doesn't block.
+	 *
+	 * @throws IOException if the write queue is full.
+	 */
+	public void send(LIFXPacket packet) throws IOException {
+		send(packet, 0);
+	}
+
+	private void send(LIFXPacket packet, long sequence) throws IOException {
+		synchronized (writeQueue) {
+			if (writeQueue.remaining() < packet.getLength()) {
+				throw new IOException("Write queue to " + address + " is full");
+			}
+			markQueued();
+			int start = writeQueue.position();
+			packet.encodeTo(writeQueue, sequence);
+			trace(start);
+		}
+		metrics.packetSent(packet.getType());
+		scheduleFlush();
+	}
+
+	/**
+	 * Queue every packet in the batch so they go out together in one write.
+	 * The batch is all or nothing: if it doesn't fit, none of it is queued.
+	 *
+	 * @throws IOException if the write queue doesn't have room for the batch.
+	 */
+	public void send(PacketBatch batch) throws IOException {
+		send(batch, -1, 0);
+	}
+
+	private void send(PacketBatch batch, int requestIndex, long sequence) throws IOException {
+		synchronized (writeQueue) {
+			if (writeQueue.remaining() < batch.getLength()) {
+				throw new IOException("Write queue to " + address + " is full");
+			}
+			markQueued();
+			for (int i = 0; i < batch.size(); i++) {
+				int start = writeQueue.position();
+				batch.get(i).encodeTo(writeQueue, i == requestIndex ? sequence : 0);
+				trace(start);
+			}
+		}
+		for (int i = 0; i < batch.size(); i++) {
+			metrics.packetSent(batch.get(i).getType());
+		}
+		scheduleFlush();
+	}
+
+	// Must hold writeQueue.
+	private void trace(int start) {
+		PacketTrace trace = transport.getPacketTrace();
+		if (trace != null) {
+			trace.record(true, writeQueue, start, writeQueue.position() - start);
+		}
+	}
+
+	// Must hold writeQueue.
+	private void markQueued() {
+		if (writeQueue.position() == 0) {
+			queuedSinceNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Hold queued packets for up to this long before writing them, so packets
+	 * sent close together share one write. Zero (the default) writes as soon
+	 * as the transport thread gets to it.
+	 */
+	public void setFlushWindow(long windowMs) {
+		flushWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+	}
+
+	private void scheduleFlush() {
+		if (!flushScheduled.compareAndSet(false, true)) {
+			// Already on its way, this packet will go with the others.
+			return;
+		}
+		long window = flushWindowNanos;
+		if (window == 0 || !connected) {
+			transport.execute(flush);
+		} else {
+			delayedFlush.setDeadlineNanos(System.nanoTime() + window);
+			transport.schedule(delayedFlush);
+		}
+	}
+
+	/**
+	 * Send a packet and return straight away with a future for the globe's
+	 * reply. Any number of requests can be in flight at once, each with its
+	 * own deadline.
+	 *
+	 * @param timeoutMs How long to wait for the reply before failing with a
+	 *     {@link java.util.concurrent.TimeoutException}.
+	 * @param callback Told when the request completes, or null.
+	 * @throws IllegalArgumentException if the packet type never gets a reply.
+	 */
+	public ResponseFuture request(LIFXPacket packet, long timeoutMs, ResponseCallback callback)
+			throws IOException {
+		ResponseFuture future = expectReply(packet, timeoutMs, callback);
+		try {
+			send(packet, future.getSequence());
+		} catch (IOException e) {
+			forget(future);
+			throw e;
+		}
+		transport.schedule(future);
+		return future;
+	}
+
+	/**
+	 * Send the batch in one write, like {@link #send(PacketBatch)}, and return
+	 * a future for the reply to one packet in it.
+	 *
+	 * @param index Which packet in the batch the reply is for.
+	 */
+	public ResponseFuture request(PacketBatch batch, int index, long timeoutMs,
+			ResponseCallback callback) throws IOException {
+		ResponseFuture future = expectReply(batch.get(index), timeoutMs, callback);
+		try {
+			send(batch, index, future.getSequence());
+		} catch (IOException e) {
+			forget(future);
+			throw e;
+		}
+		transport.schedule(future);
+		return future;
+	}
+
+	private ResponseFuture expectReply(LIFXPacket packet, long timeoutMs, ResponseCallback callback) {
+		if (packet.getType().getReplyType() == null) {
+			throw new IllegalArgumentException(packet.getType() + " doesn't get a reply");
+		}
+		// Zero means "no sequence" on the wire, so skip it.
+		long sequence = nextSequence.incrementAndGet();
+		ResponseFuture future = new ResponseFuture(this, metrics, packet, sequence, timeoutMs, callback);
+		synchronized (pending) {
+			pending.add(future);
+		}
+		return future;
+	}
+
+	/**
+	 * Send a packet and wait for the globe's reply to it.
+	 *
+	 * @return The reply, or null if none arrived within the timeout.
+	 */
+	public LIFXPacket sendAndWait(LIFXPacket packet, long timeoutMs) throws IOException {
+		if (packet.getType().getReplyType() == null) {
+			send(packet);
+			return null;
+		}
+		return request(packet, timeoutMs, null).awaitReply();
+	}
+
+	void forget(ResponseFuture future) {
+		synchronized (pending) {
+			pending.remove(future);
+		}
+	}
+
+	// Transport thread only from here down.
+
+	private void openChannel() {
+		LIFXLog.i("GatewayConnection", "Connecting to %s", address);
+		connectStartNanos = System.nanoTime();
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.socket().setKeepAlive(true);
+			if (channel.connect(address)) {
+				key = channel.register(transport.getSelector(), SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+				onConnected();
+			} else {
+				key = channel.register(transport.getSelector(), SelectionKey.OP_CONNECT, this);
+			}
+		} catch (IOException e) {
+			fail("Connect failed: " + e.getMessage());
+		}
+	}
+
+	private void onConnected() {
+		connected = true;
+		metrics.recordConnect(System.nanoTime() - connectStartNanos, everConnected);
+		everConnected = true;
+	}
+
+	void handle(SelectionKey key) {
+		try {
+			if (key.isConnectable()) {
+				if (!channel.finishConnect()) {
+					// Still handshaking, stay on OP_CONNECT.
+					return;
+				}
+				onConnected();
+				LIFXLog.i("GatewayConnection", "Connected to %s", address);
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			if (key.isReadable()) {
+				read();
+			}
+			if (key.isValid() && key.isWritable()) {
+				write();
+			}
+		} catch (IOException e) {
+			fail(e.getMessage());
+		}
+	}
+
+	private void write() throws IOException {
+		synchronized (writeQueue) {
+			boolean queued = writeQueue.position() > 0;
+			writeQueue.flip();
+			metrics.bytesSent(channel.write(writeQueue));
+			boolean drained = !writeQueue.hasRemaining();
+			writeQueue.compact();
+			if (drained) {
+				// A connect with nothing queued isn't a write worth timing.
+				if (queued) {
+					metrics.recordWrite(System.nanoTime() - queuedSinceNanos);
+				}
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+	}
+
+	private void read() throws IOException {
+		if (framer.readFrom(channel, frameHandler) < 0) {
+			throw new IOException("Closed by gateway");
+		}
+	}
+
+	private void dispatch(LIFXPacketView packet) {
+		ResponseFuture match = null;
+		synchronized (pending) {
+			// Prefer the request whose sequence number came back, then the oldest
+			// request for the same type from the same globe.
+			Iterator<ResponseFuture> it = pending.iterator();
+			while (it.hasNext()) {
+				ResponseFuture future = it.next();
+				if (future.matchesExactly(packet)) {
+					match = future;
+					break;
+				}
+				if (match == null && future.matches(packet)) {
+					match = future;
+				}
+			}
+			if (match != null) {
+				pending.remove(match);
+			}
+		}
+		metrics.packetReceived(packet.getType());
+		metrics.bytesReceived(packet.getSize());
+		PacketTrace trace = transport.getPacketTrace();
+		if (trace != null) {
+			trace.record(false, packet.getBuffer(), packet.getOffset(), packet.getSize());
+		}
+		// Listeners first, so anything they keep (like the registry's shadow
+		// state) is up to date by the time the caller sees the reply.
+		transport.notifyListeners(packet, address);
+		if (match != null) {
+			metrics.recordResponse(System.nanoTime() - match.getSentNanos());
+			match.complete(new LIFXPacket(packet));
+		}
+	}
+
+	/**
+	 * Drop the connection. Anything not yet written is discarded (and counted),
+	 * since a half written packet would corrupt the next stream, and waiting
+	 * callers are released. The next send reconnects.
+	 */
+	void fail(String reason) {
+		LIFXLog.i("GatewayConnection", "Connection to %s dropped: %s", address, reason);
+		if (connected) {
+			metrics.recordDisconnect();
+		}
+		connected = false;
+		if (key != null) {
+			key.cancel();
+			key = null;
+		}
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			channel = null;
+		}
+		framer.reset();
+		int droppedBytes;
+		synchronized (writeQueue) {
+			droppedBytes = writeQueue.position();
+			writeQueue.clear();
+		}
+		if (droppedBytes > 0) {
+			metrics.recordDroppedWrite(droppedBytes);
+			LIFXLog.w("GatewayConnection", "Dropped %d unsent bytes to %s", droppedBytes, address);
+		}
+		List<ResponseFuture> dropped;
+		synchronized (pending) {
+			dropped = new ArrayList<ResponseFuture>(pending);
+			pending.clear();
+		}
+		IOException cause = new IOException("Connection to " + address + " dropped: " + reason);
+		for (ResponseFuture future : dropped) {
+			future.fail(cause);
+		}
+		DropListener listener = dropListener;
+		if (listener != null) {
+			listener.onConnectionLost(this);
+		}
+	}
+}
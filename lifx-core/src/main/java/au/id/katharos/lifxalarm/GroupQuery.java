@@ -0,0 +1,192 @@
+package au.id.katharos.lifxalarm;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One question, such as GET_LIGHT_STATE, put to many globes at once, with
+ * the first reply from each one gathered up.
+ *
+ * The query listens to every packet on the transport, so replies count
+ * whichever gateway or socket they come back on. It finishes when the
+ * expected number of globes have replied or the deadline passes, whichever
+ * is first. Replies are collected on the transport thread, and can be read
+ * from any thread.
+ */
+public class GroupQuery extends TransportTimer implements PacketListener {
+
+	/**
+	 * Called once, on the transport thread, when the query finishes. It must be
+	 * quick and must not block.
+	 */
+	public interface Callback {
+		void onComplete(GroupQuery query);
+	}
+
+	private final LIFXTransport transport;
+	private final LIFXPacket.Type replyType;
+	// Sorted, or null to take a reply from any globe.
+	private final long[] members;
+	private final int expected;
+	private final Callback callback;
+	private final long startNanos;
+
+	private final LongMap<LIFXPacket> replies = new LongMap<LIFXPacket>();
+	// Released after the callback, so await() sees what the callback did.
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile boolean finished;
+	private volatile boolean timedOut;
+	private volatile long finishedNanos;
+
+	private final Runnable cancelTask = new Runnable() {
+		@Override
+		public void run() {
+			transport.cancel(GroupQuery.this);
+			finish(false);
+		}
+	};
+
+	/**
+	 * @param members MACs of the globes being asked, or null for any globe.
+	 * @param expected Finish once this many globes have replied, or 0 to
+	 *     wait for the deadline.
+	 * @param callback May be null.
+	 */
+	GroupQuery(LIFXTransport transport, LIFXPacket.Type getType, long[] members, int expected,
+			long timeoutMs, Callback callback) {
+		this.transport = transport;
+		this.replyType = getType.getReplyType();
+		if (replyType == null) {
+			throw new IllegalArgumentException(getType + " doesn't get a reply");
+		}
+		if (members != null) {
+			members = members.clone();
+			Arrays.sort(members);
+		}
+		this.members = members;
+		this.expected = expected;
+		this.callback = callback;
+		startNanos = System.nanoTime();
+		setDeadlineNanos(startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+	}
+
+	/**
+	 * Start listening for replies. Call this before sending the question, so
+	 * that no reply is missed.
+	 */
+	void start() {
+		transport.addListener(this);
+		transport.schedule(this);
+	}
+
+	@Override
+	public void onPacket(LIFXPacketView packet, InetSocketAddress from) {
+		if (packet.getType() != replyType || isDone()) {
+			return;
+		}
+		long mac = packet.getTargetMac();
+		if (mac == 0 || (members != null && Arrays.binarySearch(members, mac) < 0)) {
+			return;
+		}
+		// Only the first reply from each globe counts.
+		if (replies.get(mac) != null || replies.putIfAbsent(mac, new LIFXPacket(packet)) != null) {
+			return;
+		}
+		if (expected > 0 && replies.size() >= expected) {
+			finish(false);
+		}
+	}
+
+	/**
+	 * The deadline passed, so finish with whatever has come back.
+	 */
+	@Override
+	void onDeadline() {
+		finish(true);
+	}
+
+	/**
+	 * Stop waiting and finish with whatever has come back so far. Returns
+	 * straight away; like the deadline, the query finishes on the transport
+	 * thread, so the callback never runs on the caller's.
+	 */
+	public void cancel() {
+		if (!isDone()) {
+			transport.execute(cancelTask);
+		}
+	}
+
+	private void finish(boolean deadline) {
+		synchronized (this) {
+			if (isDone()) {
+				return;
+			}
+			timedOut = deadline;
+			finishedNanos = System.nanoTime() - startNanos;
+			finished = true;
+		}
+		transport.removeListener(this);
+		try {
+			if (callback != null) {
+				callback.onComplete(this);
+			}
+		} finally {
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Wait for the query to finish and its callback to return.
+	 *
+	 * @return A reply from each globe that answered, in no particular order.
+	 */
+	public List<LIFXPacket> await() {
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return getReplies();
+	}
+
+	public boolean isDone() {
+		return finished;
+	}
+
+	/**
+	 * @return True if the deadline passed before the expected number of
+	 *     globes replied (always, if no number was given).
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * @return A copy of the replies so far, in no particular order.
+	 */
+	public List<LIFXPacket> getReplies() {
+		return replies.values();
+	}
+
+	/**
+	 * @return The globe's reply, or null if it hasn't replied.
+	 */
+	public LIFXPacket getReply(long mac) {
+		return replies.get(mac);
+	}
+
+	public int size() {
+		return replies.size();
+	}
+
+	/**
+	 * @return Nanoseconds from the start until the query finished, or 0 if it
+	 *     hasn't.
+	 */
+	public long getElapsedNanos() {
+		return finishedNanos;
+	}
+}
@@ -0,0 +1,166 @@
+package au.id.katharos.lifxalarm;
+
+/**
+ * Picks the fewest keyframes from a sampled colour curve such that the globe,
+ * fading linearly from one keyframe to the next by itself, never strays from
+ * the curve by more than the allowed error.
+ *
+ * Globes interpolate a SET_LIGHT_COLOR over its fade time, so rather than
+ * sending every sample we send each keyframe's successor with a fade lasting
+ * until that successor is due. Saturation is held to the same limit as
+ * brightness, since both are percentages.
+ *
+ * Every segment that fits is considered, not only the longest one from each
+ * keyframe: a fade that can't reach one sample may still reach a later one,
+ * and a shorter fade can leave the rest of the curve easier to cover.
+ */
+public class KeyframePlanner {
+
+	public static final int DEFAULT_MAX_BRIGHTNESS_ERROR = 2; // percent
+	public static final int DEFAULT_MAX_HUE_ERROR = 3; // degrees
+	public static final int DEFAULT_MAX_KELVIN_ERROR = 50;
+
+	private final int maxBrightnessError;
+	private final int maxHueError;
+	private final int maxKelvinError;
+
+	public KeyframePlanner() {
+		this(DEFAULT_MAX_BRIGHTNESS_ERROR, DEFAULT_MAX_HUE_ERROR);
+	}
+
+	/**
+	 * @param maxBrightnessError Furthest the fade may be from the curve, in
+	 *     brightness (and saturation) percent.
+	 * @param maxHueError Furthest the fade may be from the curve, in degrees.
+	 */
+	public KeyframePlanner(int maxBrightnessError, int maxHueError) {
+		this(maxBrightnessError, maxHueError, DEFAULT_MAX_KELVIN_ERROR);
+	}
+
+	/**
+	 * @param maxKelvinError Furthest the fade may be from the curve, in kelvin.
+	 */
+	public KeyframePlanner(int maxBrightnessError, int maxHueError, int maxKelvinError) {
+		this.maxBrightnessError = maxBrightnessError;
+		this.maxHueError = maxHueError;
+		this.maxKelvinError = maxKelvinError;
+	}
+
+	/**
+	 * All arrays are the same length, with times in increasing order. Hue
+	 * isn't wrapped around, so a curve crossing red must be given unwrapped.
+	 *
+	 * @return Indices of the samples to keep, in order. Always includes the
+	 *     first and last sample.
+	 */
+	public int[] plan(int[] times, int[] hues, int[] saturations, int[] brightnesses) {
+		return plan(times, hues, saturations, brightnesses, null);
+	}
+
+	/**
+	 * @param kelvins May be null if the curve doesn't change colour temperature.
+	 */
+	public int[] plan(int[] times, int[] hues, int[] saturations, int[] brightnesses, int[] kelvins) {
+		int n = times.length;
+		if (n <= 2) {
+			int[] all = new int[n];
+			for (int i = 0; i < n; i++) {
+				all[i] = i;
+			}
+			return all;
+		}
+		// Fewest keyframes needed to reach each sample, and the keyframe before it.
+		int[] fewest = new int[n];
+		int[] previous = new int[n];
+		for (int i = 1; i < n; i++) {
+			fewest[i] = Integer.MAX_VALUE;
+		}
+		SlopeWindow hue = new SlopeWindow(maxHueError);
+		SlopeWindow saturation = new SlopeWindow(maxBrightnessError);
+		SlopeWindow brightness = new SlopeWindow(maxBrightnessError);
+		SlopeWindow kelvin = new SlopeWindow(maxKelvinError);
+		for (int start = 0; start < n - 1; start++) {
+			if (fewest[start] >= fewest[n - 1] - 1) {
+				// Not reached, or can't beat the best way to the end found so far.
+				continue;
+			}
+			hue.open();
+			saturation.open();
+			brightness.open();
+			kelvin.open();
+			for (int end = start + 1; end < n; end++) {
+				long run = times[end] - times[start];
+				if (hue.allows(hues, start, end, run)
+						&& saturation.allows(saturations, start, end, run)
+						&& brightness.allows(brightnesses, start, end, run)
+						&& (kelvins == null || kelvin.allows(kelvins, start, end, run))
+						&& fewest[start] + 1 < fewest[end]) {
+					fewest[end] = fewest[start] + 1;
+					previous[end] = start;
+				}
+				// Any longer segment from here must also pass within the error of this sample.
+				if (!hue.narrow(hues, start, end, run)
+						|| !saturation.narrow(saturations, start, end, run)
+						|| !brightness.narrow(brightnesses, start, end, run)
+						|| (kelvins != null && !kelvin.narrow(kelvins, start, end, run))) {
+					break;
+				}
+			}
+		}
+		int[] keys = new int[fewest[n - 1] + 1];
+		for (int k = keys.length - 1, i = n - 1; k >= 0; k--, i = previous[i]) {
+			keys[k] = i;
+		}
+		return keys;
+	}
+
+	/**
+	 * The slopes a fade from one sample may take and still pass within the
+	 * error of every sample after it so far. Slopes are kept as fractions of
+	 * whole numbers so a sample exactly at the limit is never lost to rounding.
+	 */
+	private static final class SlopeWindow {
+		private final long maxError;
+		private long lowRise;
+		private long lowRun;
+		private long highRise;
+		private long highRun;
+
+		SlopeWindow(int maxError) {
+			this.maxError = maxError;
+		}
+
+		void open() {
+			lowRise = -1;
+			lowRun = 0;
+			highRise = 1;
+			highRun = 0;
+		}
+
+		/**
+		 * @return True if a fade straight to the end sample stays in the window.
+		 */
+		boolean allows(int[] values, int start, int end, long run) {
+			long rise = values[end] - values[start];
+			return rise * lowRun >= lowRise * run && rise * highRun <= highRise * run;
+		}
+
+		/**
+		 * Narrow the window to the slopes passing within the error of the end sample.
+		 *
+		 * @return False if no slope is left.
+		 */
+		boolean narrow(int[] values, int start, int end, long run) {
+			long rise = values[end] - values[start];
+			if ((rise - maxError) * lowRun > lowRise * run) {
+				lowRise = rise - maxError;
+				lowRun = run;
+			}
+			if ((rise + maxError) * highRun < highRise * run) {
+				highRise = rise + maxError;
+				highRun = run;
+			}
+			return lowRise * highRun <= highRise * lowRun;
+		}
+	}
+}
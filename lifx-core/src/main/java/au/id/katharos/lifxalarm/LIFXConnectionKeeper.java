@@ -0,0 +1,890 @@
+package au.id.katharos.lifxalarm;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Singleton class to manage the connection to the LIFX globes.
+ * 
+ * All network I/O runs on one shared {@link LIFXTransport} thread, with one
+ * {@link GatewayConnection} per gateway. Every globe heard from goes into the
+ * {@link DeviceRegistry}, and packets go out through their globe's own gateway.
+ * 
+ * Note: I only have one globe so this code assume there is only one. In future
+ * I should support multiple globes and show the connection state for each in the UI.
+ */
+public class LIFXConnectionKeeper {
+	
+	private static final int PORT = 56700;
+	private static final int[] FIND_GATEWAY_RETRY_WAITS_MS = {200, 1000, 5000, 10000, 0};
+	
+	private static final String BROADCAST_ADDRESS = "255.255.255.255";
+	private static final int WAIT_FOR_RESPONSE_MS = 600;
+	// Cached gateways answer in a round trip, so don't wait long before broadcasting.
+	private static final int PROBE_WAIT_MS = 250;
+	
+	private static final int RESPONSE_TIMEOUT_MS = 2000;
+	
+	// Address of the gateway globe found by discovery.
+	private volatile InetAddress gatewayAddress;
+	private volatile byte[] gatewayGlobeMacAddress;
+	private volatile boolean connected;
+	
+	private final int localPort;
+	private final int gatewayPort;
+	private LIFXTransport transport;
+	private volatile long flushWindowMs;
+	
+	// One long-lived connection per gateway.
+	private final Map<InetAddress, GatewayConnection> connections = new HashMap<InetAddress, GatewayConnection>();
+	
+	private final DeviceRegistry registry = new DeviceRegistry();
+	private volatile DeviceCache cache;
+	private volatile CountDownLatch gatewayFound = new CountDownLatch(1);
+	// Searches waiting to hear that the gateway listener found one.
+	private final CopyOnWriteArrayList<GatewaySearch> searches = new CopyOnWriteArrayList<GatewaySearch>();
+	
+	private static LIFXConnectionKeeper INSTANCE = new LIFXConnectionKeeper();
+	
+	public static LIFXConnectionKeeper getInstance() {
+		return INSTANCE;
+	}
+	
+	private LIFXConnectionKeeper() {
+		this(PORT, PORT);
+	}
+	
+	/**
+	 * For tests, so the transport and the simulated gateway can use spare ports.
+	 * 
+	 * @param localPort UDP port to listen on, 0 for any.
+	 * @param gatewayPort Port gateways listen on, for both UDP and TCP.
+	 */
+	LIFXConnectionKeeper(int localPort, int gatewayPort) {
+		this.localPort = localPort;
+		this.gatewayPort = gatewayPort;
+	}
+	
+	/**
+	 * Send a broadcast packet to find the mac address of the Gateway globe.
+	 *
+	 * The Gateway globe is the one you talk to to find and send commands to
+	 * all the other globes.
+	 */
+	public void findGateway() {
+		findGateway(Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Like {@link #findGateway()}, but gives up rather than start a retry
+	 * that would end after the timeout.
+	 * 
+	 * Gateways from the cache are asked directly first, which on a known
+	 * network finds one in a round trip. After that every attempt broadcasts
+	 * on every network interface at once.
+	 */
+	public void findGateway(long timeoutMs) {
+		long start = System.nanoTime();
+		int attempts = 0;
+		LIFXTransport transport = getTransport();
+		if (transport == null) {
+			return;
+		}
+		if (!connected) {
+			gatewayFound = new CountDownLatch(1);
+		}
+		try {
+			if (probeKnownGateways(transport)) {
+				attempts++;
+				awaitGateway(PROBE_WAIT_MS);
+			}
+			// Retry 3 times with backoff before giving up and showing a message.
+			for (int retryMS : FIND_GATEWAY_RETRY_WAITS_MS) {
+				if (connected) {
+					break;
+				}
+				attempts++;
+				broadcastDiscovery(transport);
+				if (awaitGateway(WAIT_FOR_RESPONSE_MS)) {
+					break;
+				}
+				long spentMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				if (spentMs + retryMS + WAIT_FOR_RESPONSE_MS > timeoutMs) {
+					break;
+				}
+				if (retryMS > 2000) {
+					// TODO: Toast "Cannot find LIFX globe. Retrying in x seconds..."
+				}
+				// A late reply to the last broadcast ends the wait early.
+				if (awaitGateway(retryMS)) {
+					break;
+				}
+			}
+			if (!connected) {
+				// Show failed connection in the UI
+				// Toast goes here.
+				// TODO: Toast "Failed to find LIFX globe."
+			} else {
+				// TODO: Toast "Connected!"
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		transport.getMetrics().recordDiscovery(System.nanoTime() - start, attempts, connected);
+		if (connected) {
+			saveCache();
+		}
+	}
+	
+	/**
+	 * Told how a {@link GatewaySearch} ended, on the search's scheduler thread.
+	 */
+	public interface GatewaySearchCallback {
+		void onGatewayFound(byte[] mac);
+
+		void onGatewayNotFound();
+	}
+	
+	/**
+	 * A non-blocking {@link #findGateway(long)}, in progress.
+	 * 
+	 * Each step (probing the known gateways, each broadcast, each check for a
+	 * reply) is its own task on the scheduler, so the scheduler's thread is
+	 * free for other work in between. A gateway that answers ends the search
+	 * straight away rather than at the next check.
+	 */
+	public class GatewaySearch {
+		private final Scheduler scheduler;
+		private final long timeoutMs;
+		private final GatewaySearchCallback callback;
+		private final long startNanos = System.nanoTime();
+		private final AtomicBoolean done = new AtomicBoolean();
+		private int attempts;
+		// Index into the retry waits of the last broadcast.
+		private int retry = -1;
+		private Future<?> next;
+		
+		private final Runnable probe = new Runnable() {
+			@Override
+			public void run() {
+				if (finishIfConnected()) {
+					return;
+				}
+				LIFXTransport transport = getTransport();
+				if (transport == null) {
+					finish(false);
+				} else if (probeKnownGateways(transport)) {
+					attempts++;
+					schedule(check, PROBE_WAIT_MS);
+				} else {
+					broadcast.run();
+				}
+			}
+		};
+		
+		private final Runnable broadcast = new Runnable() {
+			@Override
+			public void run() {
+				if (finishIfConnected()) {
+					return;
+				}
+				LIFXTransport transport = getTransport();
+				if (transport == null) {
+					finish(false);
+					return;
+				}
+				retry++;
+				attempts++;
+				broadcastDiscovery(transport);
+				schedule(check, WAIT_FOR_RESPONSE_MS);
+			}
+		};
+		
+		private final Runnable check = new Runnable() {
+			@Override
+			public void run() {
+				if (finishIfConnected()) {
+					return;
+				}
+				long spentMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+				int wait = retry < 0 ? 0 : FIND_GATEWAY_RETRY_WAITS_MS[retry];
+				if (retry + 1 >= FIND_GATEWAY_RETRY_WAITS_MS.length
+						|| spentMs + wait + WAIT_FOR_RESPONSE_MS > timeoutMs) {
+					finish(false);
+				} else {
+					schedule(broadcast, wait);
+				}
+			}
+		};
+		
+		private final Runnable found = new Runnable() {
+			@Override
+			public void run() {
+				finishIfConnected();
+			}
+		};
+		
+		GatewaySearch(Scheduler scheduler, long timeoutMs, GatewaySearchCallback callback) {
+			this.scheduler = scheduler;
+			this.timeoutMs = timeoutMs;
+			this.callback = callback;
+		}
+		
+		private synchronized void schedule(Runnable step, long delayMs) {
+			if (!done.get()) {
+				next = delayMs == 0 ? scheduler.submit(step) : scheduler.schedule(step, delayMs);
+			}
+		}
+		
+		/**
+		 * Called from the gateway listener, on the transport thread.
+		 */
+		void onFound() {
+			scheduler.submit(found);
+		}
+		
+		private boolean finishIfConnected() {
+			if (done.get()) {
+				return true;
+			}
+			if (!connected) {
+				return false;
+			}
+			finish(true);
+			return true;
+		}
+		
+		private void finish(boolean found) {
+			if (!done.compareAndSet(false, true)) {
+				return;
+			}
+			searches.remove(this);
+			LIFXTransport transport = getTransport();
+			if (transport != null) {
+				transport.getMetrics().recordDiscovery(System.nanoTime() - startNanos, attempts, found);
+			}
+			if (found) {
+				saveCache();
+				callback.onGatewayFound(gatewayGlobeMacAddress);
+			} else {
+				callback.onGatewayNotFound();
+			}
+		}
+		
+		/**
+		 * Stop looking. The callback isn't told.
+		 */
+		public synchronized void cancel() {
+			done.set(true);
+			searches.remove(this);
+			if (next != null) {
+				next.cancel(false);
+				next = null;
+			}
+		}
+		
+		public boolean isDone() {
+			return done.get();
+		}
+	}
+	
+	/**
+	 * Like {@link #findGateway(long)}, but returns straight away and runs the
+	 * search on the scheduler, without ever blocking its thread.
+	 * 
+	 * @param callback Told once, on the scheduler's thread, unless the search
+	 *     is cancelled.
+	 */
+	public GatewaySearch findGateway(long timeoutMs, Scheduler scheduler, GatewaySearchCallback callback) {
+		GatewaySearch search = new GatewaySearch(scheduler, timeoutMs, callback);
+		searches.add(search);
+		search.schedule(search.probe, 0);
+		return search;
+	}
+	
+	private boolean awaitGateway(long waitMs) throws InterruptedException {
+		if (connected) {
+			return true;
+		}
+		if (!gatewayFound.await(waitMs, TimeUnit.MILLISECONDS)) {
+			LIFXLog.i("Find Gateway", "Timed out waiting to recieve.");
+		}
+		return connected;
+	}
+	
+	/**
+	 * Ask each gateway we know about, e.g. from the cache, directly.
+	 * 
+	 * @return False if there weren't any to ask.
+	 */
+	private boolean probeKnownGateways(LIFXTransport transport) {
+		boolean sent = false;
+		LIFXPacket packet = new LIFXPacket.Builder(LIFXPacket.Type.GET_PAN_GATEWAY).build();
+		for (Device gateway : registry.getGateways()) {
+			try {
+				transport.sendDatagram(packet, gateway.getAddress());
+				sent = true;
+			} catch (IOException e) {
+				LIFXLog.w("Find Gateway", "Couldn't probe %s: %s", gateway.getAddress(), e.getMessage());
+			}
+		}
+		return sent;
+	}
+	
+	/**
+	 * Broadcast a discovery packet on every interface. Doesn't wait for replies;
+	 * they're picked up by the registry and the gateway listener whenever they come.
+	 */
+	private void broadcastDiscovery(LIFXTransport transport) {
+		LIFXLog.i("Find Gateway", "Sending UDP Broadcast");
+		LIFXPacket packet = new LIFXPacket.Builder(LIFXPacket.Type.GET_PAN_GATEWAY).build();
+		for (InetAddress address : broadcastAddresses()) {
+			try {
+				transport.sendDatagram(packet, new InetSocketAddress(address, gatewayPort));
+			} catch (IOException e) {
+				LIFXLog.e("LIFX Alarm", "Unable to send discovery broadcast to %s.", address);
+			}
+		}
+	}
+	
+	/**
+	 * The broadcast address of every IPv4 network we're on, or just the global
+	 * one if none were found. Not both, since the global one may have no
+	 * route, and every datagram sent to it would fail.
+	 */
+	static Set<InetAddress> broadcastAddresses() {
+		Set<InetAddress> addresses = new LinkedHashSet<InetAddress>();
+		try {
+			Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+			while (interfaces != null && interfaces.hasMoreElements()) {
+				NetworkInterface networkInterface = interfaces.nextElement();
+				if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+					continue;
+				}
+				for (InterfaceAddress address : networkInterface.getInterfaceAddresses()) {
+					if (address.getBroadcast() != null) {
+						addresses.add(address.getBroadcast());
+					}
+				}
+			}
+		} catch (IOException e) {
+			LIFXLog.w("Find Gateway", "Couldn't list network interfaces: %s", e.getMessage());
+		}
+		if (addresses.isEmpty()) {
+			try {
+				addresses.add(InetAddress.getByName(BROADCAST_ADDRESS));
+			} catch (IOException e) {
+				// Can't happen for a literal address.
+			}
+		}
+		return addresses;
+	}
+	
+	/**
+	 * Keep broadcasting discovery every period in the background, so gateways
+	 * that turn up (or move) later are found without anyone asking. Replies
+	 * land in the registry, which is saved to the cache as it grows.
+	 * 
+	 * @return Cancel it to stop.
+	 */
+	public Future<?> startDiscovery(Scheduler scheduler, long periodMs) {
+		return scheduler.scheduleAtFixedRate(new Runnable() {
+			private int savedSize = -1;
+			
+			@Override
+			public void run() {
+				LIFXTransport transport = getTransport();
+				if (transport == null) {
+					return;
+				}
+				if (registry.size() != savedSize) {
+					// Save what the last round found.
+					savedSize = registry.size();
+					saveCache();
+				}
+				broadcastDiscovery(transport);
+			}
+		}, 0, periodMs);
+	}
+	
+	/**
+	 * Remember devices in this file between runs, loading what's already
+	 * there into the registry straight away.
+	 */
+	public void setCacheFile(File file) {
+		DeviceCache cache = new DeviceCache(file);
+		try {
+			int loaded = cache.load(registry);
+			LIFXLog.i("LIFXConnectionKeeper", "Loaded %d devices from the cache.", loaded);
+		} catch (IOException e) {
+			LIFXLog.w("LIFXConnectionKeeper", "Couldn't read the device cache: %s", e.getMessage());
+		}
+		this.cache = cache;
+	}
+	
+	private void saveCache() {
+		DeviceCache cache = this.cache;
+		if (cache == null) {
+			return;
+		}
+		try {
+			cache.save(registry.getDevices());
+		} catch (IOException e) {
+			LIFXLog.w("LIFXConnectionKeeper", "Couldn't save the device cache: %s", e.getMessage());
+		}
+	}
+	
+	/**
+	 * Takes the first gateway to answer discovery, and any gateway that
+	 * answers after the connection has been lost.
+	 */
+	private final PacketListener gatewayListener = new PacketListener() {
+		@Override
+		public void onPacket(LIFXPacketView packet, InetSocketAddress from) {
+			if (packet.getType() != LIFXPacket.Type.PAN_GATEWAY || connected) {
+				return;
+			}
+			LIFXLog.i("Find Gateway", "Found Gateway at: " + from.getAddress().getHostAddress());
+			byte[] mac = new byte[6];
+			packet.copyGatewayMac(mac);
+			gatewayGlobeMacAddress = mac;
+			gatewayAddress = from.getAddress();
+			connected = true;
+			gatewayFound.countDown();
+			for (GatewaySearch search : searches) {
+				search.onFound();
+			}
+		}
+	};
+	
+	/**
+	 * The shared transport, created and started on first use.
+	 * 
+	 * @return The transport, or null if the UDP socket couldn't be opened.
+	 */
+	public synchronized LIFXTransport getTransport() {
+		if (transport == null) {
+			try {
+				transport = new LIFXTransport(localPort);
+				transport.addListener(registry);
+				transport.addListener(gatewayListener);
+				transport.start();
+			} catch (IOException e) {
+				LIFXLog.e("LIFX Alarm", "Unable to open UDP socket.");
+				e.printStackTrace();
+			}
+		}
+		return transport;
+	}
+
+	/**
+	 * Stop the transport, dropping every connection. For tests; the shared
+	 * keeper lives as long as the app.
+	 */
+	synchronized void shutdown() {
+		if (transport != null) {
+			transport.shutdown();
+			transport = null;
+		}
+	}
+
+	/**
+	 * A snapshot of the discovery, connection and traffic counters, to dump or
+	 * scrape. Print it for one "name value" line per metric.
+	 * 
+	 * @return The numbers so far, or null if there's no transport.
+	 */
+	public TransportMetrics getMetrics() {
+		LIFXTransport transport = getTransport();
+		return transport == null ? null : transport.getMetrics().snapshot();
+	}
+
+	/**
+	 * Every globe seen so far.
+	 */
+	public DeviceRegistry getRegistry() {
+		return registry;
+	}
+	
+	public boolean isConnected() {
+		return connected;
+	}
+
+	public byte[] getGatewayMac() {
+		return gatewayGlobeMacAddress;
+	}
+
+	/**
+	 * Start opening the gateway's connection now rather than on the first
+	 * send, so that send doesn't wait for the TCP handshake. Doesn't block.
+	 * 
+	 * @return False if there's no gateway to connect to.
+	 */
+	public boolean openConnection() {
+		if (!connected) {
+			return false;
+		}
+		try {
+			getConnection(gatewayAddress).connect();
+			return true;
+		} catch (IOException e) {
+			connected = false;
+			e.printStackTrace();
+		}
+		return false;
+	}
+	
+	/**
+	 * Send a packet to the gateway over its shared connection.
+	 * 
+	 * @param expectResponse Wait for the globe's reply and return it.
+	 * @return The reply, or null if none was expected or it didn't arrive.
+	 */
+	public LIFXPacket sendPacket(LIFXPacket packet, boolean expectResponse) {
+		try {
+			GatewayConnection connection = getConnection(packet);
+			if (!expectResponse) {
+				if (!isRedundant(packet)) {
+					try {
+						connection.send(packet);
+					} catch (IOException e) {
+						// The shadow already thinks it went, so put that right.
+						dropListener.onDropped(LIFXPacket.macToLong(packet.getTargetMacAddress()));
+						throw e;
+					}
+				}
+				return null;
+			}
+			
+			LIFXPacket response = connection.sendAndWait(packet, RESPONSE_TIMEOUT_MS);
+			if (response == null) {
+				LIFXLog.e("LIFX Alarm", "Timed out waiting for a response.");
+				return null;
+			}
+			LIFXLog.d("LIFX Alarm", "%s", response);
+			
+			return response;
+		} catch (IOException e) {
+			connected = false;
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * Send a packet to its globe as soon as the globe's rate limit allows,
+	 * without blocking. If a colour change for the same globe is still
+	 * waiting, this one replaces it. Nothing is sent if the globe is already
+	 * in the state the packet asks for.
+	 * 
+	 * @return False if the packet was dropped because the globe's queue is full.
+	 */
+	public boolean schedulePacket(LIFXPacket packet) {
+		try {
+			GatewayConnection connection = getConnection(packet);
+			if (isRedundant(packet)) {
+				return true;
+			}
+			if (!connection.getScheduler().submit(packet)) {
+				dropListener.onDropped(LIFXPacket.macToLong(packet.getTargetMacAddress()));
+				return false;
+			}
+			return true;
+		} catch (IOException e) {
+			connected = false;
+			e.printStackTrace();
+		}
+		return false;
+	}
+	
+	/**
+	 * Send the batch with one write per gateway, each globe's packets going to
+	 * its own gateway in the order given. Like {@link #sendPacket}, packets
+	 * that wouldn't change their globe are left out.
+	 * 
+	 * @return False if any of the batch couldn't be sent.
+	 */
+	public boolean sendBatch(PacketBatch batch) {
+		GatewayConnection[] targets = new GatewayConnection[batch.size()];
+		try {
+			for (int i = 0; i < batch.size(); i++) {
+				targets[i] = getConnection(batch.get(i));
+			}
+		} catch (IOException e) {
+			connected = false;
+			e.printStackTrace();
+			return false;
+		}
+		Map<GatewayConnection, PacketBatch> byGateway = new LinkedHashMap<GatewayConnection, PacketBatch>();
+		for (int i = 0; i < batch.size(); i++) {
+			LIFXPacket packet = batch.get(i);
+			if (isRedundant(packet)) {
+				continue;
+			}
+			PacketBatch part = byGateway.get(targets[i]);
+			if (part == null) {
+				part = new PacketBatch();
+				byGateway.put(targets[i], part);
+			}
+			part.add(packet);
+		}
+		boolean sent = true;
+		for (Map.Entry<GatewayConnection, PacketBatch> entry : byGateway.entrySet()) {
+			PacketBatch part = entry.getValue();
+			try {
+				entry.getKey().send(part);
+			} catch (IOException e) {
+				// The shadow already thinks these went, so put that right.
+				for (int i = 0; i < part.size(); i++) {
+					dropListener.onDropped(LIFXPacket.macToLong(part.get(i).getTargetMacAddress()));
+				}
+				connected = false;
+				e.printStackTrace();
+				sent = false;
+			}
+		}
+		return sent;
+	}
+	
+	/**
+	 * Hold outgoing packets for up to this long so that packets sent close
+	 * together (like a scene across a whole room) share one socket write.
+	 */
+	public void setFlushWindow(long windowMs) {
+		flushWindowMs = windowMs;
+		synchronized (connections) {
+			for (GatewayConnection connection : connections.values()) {
+				connection.setFlushWindow(windowMs);
+			}
+		}
+	}
+	
+	/**
+	 * Send a packet to the gateway without waiting for the reply.
+	 * 
+	 * @param callback Told about the reply (or timeout) on the transport thread. May be null.
+	 * @return A future for the reply, or null if the packet couldn't be sent.
+	 */
+	public ResponseFuture request(LIFXPacket packet, ResponseCallback callback) {
+		return request(packet, RESPONSE_TIMEOUT_MS, callback);
+	}
+	
+	/**
+	 * @param timeoutMs How long to wait for the reply before failing the request.
+	 */
+	public ResponseFuture request(LIFXPacket packet, long timeoutMs, ResponseCallback callback) {
+		try {
+			return getConnection(packet).request(packet, timeoutMs, callback);
+		} catch (IOException e) {
+			connected = false;
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * Send the batch in one write, like {@link #sendBatch}, with one packet
+	 * in it a request whose reply comes back through the future. The request
+	 * always goes; the other packets are left out if they wouldn't change
+	 * their globe. The whole batch goes to the requested globe's gateway, so
+	 * it should only hold packets for globes behind that gateway.
+	 * 
+	 * @param index Which packet in the batch is the request.
+	 * @return A future for the reply, or null if the batch couldn't be sent.
+	 */
+	public ResponseFuture request(PacketBatch batch, int index, long timeoutMs,
+			ResponseCallback callback) {
+		try {
+			GatewayConnection connection = getConnection(batch.get(index));
+			PacketBatch toSend = new PacketBatch();
+			int requestIndex = 0;
+			for (int i = 0; i < batch.size(); i++) {
+				if (i == index) {
+					requestIndex = toSend.size();
+					toSend.add(batch.get(i));
+				} else if (!isRedundant(batch.get(i))) {
+					toSend.add(batch.get(i));
+				}
+			}
+			try {
+				return connection.request(toSend, requestIndex, timeoutMs, callback);
+			} catch (IOException e) {
+				for (int i = 0; i < toSend.size(); i++) {
+					if (i != requestIndex) {
+						dropListener.onDropped(LIFXPacket.macToLong(toSend.get(i).getTargetMacAddress()));
+					}
+				}
+				throw e;
+			}
+		} catch (IOException e) {
+			connected = false;
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * Ask every globe the same question at once, e.g. GET_LIGHT_STATE, and
+	 * gather their replies. Doesn't block.
+	 * 
+	 * Each known gateway gets one packet addressed to all of its globes. If no
+	 * gateway is known yet, the question is broadcast over UDP instead.
+	 * 
+	 * @param expected Finish as soon as this many globes have replied, or 0 to
+	 *     wait out the timeout.
+	 * @param callback Told when the query finishes, on the transport thread. May be null.
+	 * @return The query, or null if nothing could be sent.
+	 */
+	public GroupQuery queryAll(LIFXPacket.Type getType, int expected, long timeoutMs,
+			GroupQuery.Callback callback) {
+		LIFXTransport transport = getTransport();
+		if (transport == null) {
+			return null;
+		}
+		GroupQuery query = new GroupQuery(transport, getType, null, expected, timeoutMs, callback);
+		query.start();
+		boolean sent = false;
+		for (Device gateway : registry.getGateways()) {
+			// An all zero target reaches every globe on the gateway's site.
+			LIFXPacket packet = new LIFXPacket.Builder(getType)
+				.setGatewayMac(LIFXPacket.longToMac(gateway.getSite()))
+				.build();
+			try {
+				getConnection(gateway.getAddress().getAddress()).send(packet);
+				sent = true;
+			} catch (IOException e) {
+				LIFXLog.w("Group Query", "Couldn't ask %s: %s", gateway, e.getMessage());
+			}
+		}
+		if (!sent) {
+			LIFXPacket packet = new LIFXPacket.Builder(getType).build();
+			for (InetAddress address : broadcastAddresses()) {
+				try {
+					transport.sendDatagram(packet, new InetSocketAddress(address, gatewayPort));
+					sent = true;
+				} catch (IOException e) {
+					LIFXLog.w("Group Query", "Couldn't broadcast to %s: %s", address, e.getMessage());
+				}
+			}
+		}
+		if (!sent) {
+			query.cancel();
+			return null;
+		}
+		return query;
+	}
+	
+	/**
+	 * Ask just these globes the same question, all at once, and gather their
+	 * replies. Each globe gets its own packet through its own gateway, and
+	 * the query finishes as soon as every one has replied.
+	 * 
+	 * @return The query, or null if there was nothing to ask or nothing could be sent.
+	 */
+	public GroupQuery query(Collection<Device> devices, LIFXPacket.Type getType, long timeoutMs,
+			GroupQuery.Callback callback) {
+		LIFXTransport transport = getTransport();
+		if (transport == null || devices.isEmpty()) {
+			return null;
+		}
+		long[] members = new long[devices.size()];
+		int count = 0;
+		for (Device device : devices) {
+			members[count++] = device.getMac();
+		}
+		GroupQuery query = new GroupQuery(transport, getType, members, count, timeoutMs, callback);
+		query.start();
+		boolean sent = false;
+		for (Device device : devices) {
+			LIFXPacket packet = new LIFXPacket.Builder(getType)
+				.setTargetMac(device.getMacBytes())
+				.setGatewayMac(LIFXPacket.longToMac(device.getSite()))
+				.build();
+			try {
+				getConnection(packet).send(packet);
+				sent = true;
+			} catch (IOException e) {
+				LIFXLog.w("Group Query", "Couldn't ask %s: %s", device, e.getMessage());
+			}
+		}
+		if (!sent) {
+			query.cancel();
+			return null;
+		}
+		return query;
+	}
+	
+	/**
+	 * Keeps the shadow state honest when writes it has already counted are lost.
+	 */
+	private final GatewayConnection.DropListener dropListener = new GatewayConnection.DropListener() {
+		@Override
+		public void onDropped(long mac) {
+			registry.forgetState(mac);
+		}
+		
+		@Override
+		public void onConnectionLost(GatewayConnection connection) {
+			registry.forgetStates(connection.getAddress().getAddress());
+		}
+	};
+	
+	/**
+	 * Whether the globe's shadow state says the packet wouldn't change it.
+	 * Only for packets whose reply nobody waits on; a request always goes out.
+	 */
+	private boolean isRedundant(LIFXPacket packet) {
+		if (registry.applyWrite(packet)) {
+			return false;
+		}
+		transport.getMetrics().recordSuppressed();
+		LIFXLog.d("LIFX Alarm", "Skipped %s, the globe is already there.", packet.getType());
+		return true;
+	}
+	
+	/**
+	 * The connection to the packet's globe's gateway if it's known, otherwise
+	 * to the gateway found by discovery.
+	 */
+	private GatewayConnection getConnection(LIFXPacket packet) throws IOException {
+		Device device = registry.get(packet.getTargetMacAddress());
+		InetSocketAddress address = device == null ? null : device.getAddress();
+		return getConnection(address != null ? address.getAddress() : gatewayAddress);
+	}
+	
+	private GatewayConnection getConnection(InetAddress gateway) throws IOException {
+		LIFXTransport transport = getTransport();
+		if (transport == null) {
+			throw new IOException("No transport available");
+		}
+		synchronized (connections) {
+			if (gateway == null) {
+				throw new IOException("No gateway found");
+			}
+			GatewayConnection connection = connections.get(gateway);
+			if (connection == null) {
+				connection = transport.openGateway(new InetSocketAddress(gateway, gatewayPort));
+				connection.setDropListener(dropListener);
+				connection.setFlushWindow(flushWindowMs);
+				connections.put(gateway, connection);
+			}
+			return connection;
+		}
+	}
+}
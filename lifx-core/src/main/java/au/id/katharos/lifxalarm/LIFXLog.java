@@ -0,0 +1,158 @@
+package au.id.katharos.lifxalarm;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Logging for the protocol library, so it doesn't depend on android.util.Log.
+ *
+ * Same calls as android.util.Log; where the messages end up is decided by the
+ * {@link LogSink}, which the app swaps for one that writes to logcat.
+ *
+ * Messages below the level set with {@link #setLevel(int)} cost one volatile
+ * read. The format variants only build their string once the level check has
+ * passed, and with {@link #setAsync(boolean)} that happens on a background
+ * thread, so callers on the send path never format anything. Hot paths that
+ * would need to box or concatenate their arguments should still check
+ * {@link #isLoggable(int)} first.
+ */
+public final class LIFXLog {
+
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+	public static final int ASSERT = 7;
+
+	private static final char[] LEVEL_LETTERS = {'?', '?', 'V', 'D', 'I', 'W', 'E', 'A'};
+
+	/**
+	 * Writes "I/Tag: message" lines to standard error.
+	 */
+	public static final LogSink CONSOLE = new LogSink() {
+		@Override
+		public void log(int priority, String tag, String message, Throwable throwable) {
+			PrintStream out = System.err;
+			synchronized (out) {
+				out.println(LEVEL_LETTERS[priority] + "/" + tag + ": " + message);
+				if (throwable != null) {
+					throwable.printStackTrace(out);
+				}
+			}
+		}
+	};
+
+	private static volatile LogSink sink = CONSOLE;
+	private static volatile int level = INFO;
+	private static volatile AsyncLogWriter writer;
+
+	private LIFXLog() {
+		// Prevent construction.
+	}
+
+	public static void setSink(LogSink newSink) {
+		sink = newSink == null ? CONSOLE : newSink;
+	}
+
+	public static LogSink getSink() {
+		return sink;
+	}
+
+	/**
+	 * Drop anything less important than this. INFO by default.
+	 */
+	public static void setLevel(int newLevel) {
+		level = newLevel;
+	}
+
+	public static boolean isLoggable(int priority) {
+		return priority >= level;
+	}
+
+	/**
+	 * Format and write messages on a background thread, at no more than
+	 * {@link AsyncLogWriter#DEFAULT_MAX_PER_SECOND} a second. Turning it off
+	 * waits for everything already queued to be written.
+	 */
+	public static synchronized void setAsync(boolean async) {
+		if (async && writer == null) {
+			writer = new AsyncLogWriter(AsyncLogWriter.DEFAULT_MAX_PER_SECOND);
+			writer.start();
+		} else if (!async && writer != null) {
+			AsyncLogWriter old = writer;
+			writer = null;
+			old.stop();
+		}
+	}
+
+	public static void v(String tag, String message) {
+		log(VERBOSE, tag, message, null, null);
+	}
+
+	public static void v(String tag, String format, Object... args) {
+		log(VERBOSE, tag, format, args, null);
+	}
+
+	public static void d(String tag, String message) {
+		log(DEBUG, tag, message, null, null);
+	}
+
+	public static void d(String tag, String format, Object... args) {
+		log(DEBUG, tag, format, args, null);
+	}
+
+	public static void i(String tag, String message) {
+		log(INFO, tag, message, null, null);
+	}
+
+	public static void i(String tag, String format, Object... args) {
+		log(INFO, tag, format, args, null);
+	}
+
+	public static void w(String tag, String message) {
+		log(WARN, tag, message, null, null);
+	}
+
+	public static void w(String tag, String format, Object... args) {
+		log(WARN, tag, format, args, null);
+	}
+
+	public static void e(String tag, String message) {
+		log(ERROR, tag, message, null, null);
+	}
+
+	public static void e(String tag, String message, Throwable throwable) {
+		log(ERROR, tag, message, null, throwable);
+	}
+
+	public static void e(String tag, String format, Object... args) {
+		log(ERROR, tag, format, args, null);
+	}
+
+	/**
+	 * Something that should never happen.
+	 */
+	public static void wtf(String tag, String message) {
+		log(ASSERT, tag, message, null, null);
+	}
+
+	private static void log(int priority, String tag, String format, Object[] args, Throwable throwable) {
+		if (priority < level) {
+			return;
+		}
+		AsyncLogWriter async = writer;
+		if (async != null) {
+			async.enqueue(priority, tag, format, args, throwable);
+		} else {
+			sink.log(priority, tag, format(format, args), throwable);
+		}
+	}
+
+	static String format(String format, Object[] args) {
+		if (args == null || args.length == 0) {
+			return format;
+		}
+		return String.format(Locale.US, format, args);
+	}
+}
@@ -0,0 +1,437 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An LIFX packet to send.
+ * Thanks to the protocol spec here: https://github.com/magicmonkey/lifxjs/blob/master/Protocol.md
+ * 
+ * Rough structure of a packet: 
+ * uint16 size;              // Little Endian
+ * uint16 protocol;
+ * uint32 reserved1;         // Always 0x0000
+ * byte   target_mac_address[6];
+ * 
+ * uint16 reserved2;         // Always 0x00
+ * byte   site[6];           // MAC address of gateway PAN controller bulb
+ * uint16 reserved3;         // Always 0x00
+ * uint64 timestamp;
+ * uint16 packet_type;       // Little Endian
+ * uint16 reserved4;         // Always 0x0000
+ * 
+ * varies payload;           // Documented separately per packet type.
+ */
+public class LIFXPacket {
+	
+	public static final int HEADER_LENGTH = 36;
+	
+	// Bytes 00 34 on the wire.
+	private static final short PROTOCOL = 0x3400;
+
+	/**
+	 * Every packet type in the protocol, with the shape of its payload.
+	 * 
+	 * Types are looked up by their 16-bit code with a plain array index, so
+	 * dispatching a received packet is constant time and doesn't box anything.
+	 */
+	public enum Type {
+		GET_PAN_GATEWAY(0x02),
+		PAN_GATEWAY(0x03, Payload.Type.PAN_GATEWAY),
+		
+		GET_TIME(0x04),
+		SET_TIME(0x05, Payload.Type.RAW),
+		TIME_STATE(0x06, Payload.Type.RAW),
+		
+		GET_RESET_SWITCH(0x07),
+		RESET_SWITCH_STATE(0x08, Payload.Type.RAW),
+		
+		GET_MESH_INFO(0x0c),
+		MESH_INFO(0x0d, Payload.Type.WIFI_INFO),
+		GET_MESH_FIRMWARE(0x0e),
+		MESH_FIRMWARE_STATE(0x0f, Payload.Type.FIRMWARE_STATE),
+		
+		GET_WIFI_INFO(0x10),
+		WIFI_INFO(0x11, Payload.Type.WIFI_INFO),
+		GET_WIFI_FIRMWARE_STATE(0x12),
+		WIFI_FIRMWARE_STATE(0x13, Payload.Type.FIRMWARE_STATE),
+		
+		GET_POWER_STATE(0x14),
+		SET_POWER_STATE(0x15, Payload.Type.POWER_STATE),
+		POWER_STATE(0x16, Payload.Type.POWER_STATE),
+		
+		GET_BULB_LABEL(0x17),
+		SET_BULB_LABEL(0x18, Payload.Type.LABEL),
+		BULB_LABEL(0x19, Payload.Type.LABEL),
+		
+		GET_TAGS(0x1a),
+		SET_TAGS(0x1b, Payload.Type.TAGS),
+		TAGS(0x1c, Payload.Type.TAGS),
+		
+		GET_TAG_LABELS(0x1d, Payload.Type.TAGS),
+		SET_TAG_LABELS(0x1e, Payload.Type.TAG_LABELS),
+		TAG_LABELS(0x1f, Payload.Type.TAG_LABELS),
+		
+		GET_VERSION(0x20),
+		VERSION_STATE(0x21, Payload.Type.RAW),
+		
+		GET_INFO(0x22),
+		INFO(0x23, Payload.Type.RAW),
+		
+		GET_MCU_RAIL_VOLTAGE(0x24),
+		MCU_RAIL_VOLTAGE(0x25, Payload.Type.RAW),
+		
+		REBOOT(0x26),
+		SET_FACTORY_TEST_MODE(0x27, Payload.Type.RAW),
+		DISABLE_FACTORY_TEST_MODE(0x28),
+		
+		GET_LIGHT_STATE(0x65),
+		SET_LIGHT_COLOR(0x66, Payload.Type.SET_LIGHT_COLOR),
+		SET_WAVEFORM(0x67, Payload.Type.RAW),
+		SET_DIM_ABSOLUTE(0x68, Payload.Type.SET_LIGHT_DIM),
+		SET_DIM_RELATIVE(0x69, Payload.Type.SET_LIGHT_DIM_RELATIVE),
+		LIGHT_STATE(0x6b, Payload.Type.LIGHT_STATE),
+		
+		GET_WIFI_STATE(0x12d),
+		SET_WIFI_STATE(0x12e, Payload.Type.RAW),
+		WIFI_STATE(0x12f, Payload.Type.RAW),
+		
+		GET_ACCESS_POINTS(0x130),
+		SET_ACCESS_POINT(0x131, Payload.Type.RAW),
+		ACCESS_POINT(0x132, Payload.Type.RAW);
+		
+		
+		private final int code;
+		private final Payload.Type payloadType;
+		
+		private static final Type[] lookup;
+		private static final boolean[] replies;
+		static {
+			int maxCode = 0;
+			for (Type t : Type.values()) {
+				maxCode = Math.max(maxCode, t.code);
+			}
+			lookup = new Type[maxCode + 1];
+			replies = new boolean[Type.values().length];
+			for (Type t : Type.values()) {
+				lookup[t.code] = t;
+				if (t.getReplyType() != null) {
+					replies[t.getReplyType().ordinal()] = true;
+				}
+			}
+		}
+		
+		/**
+		 * @param code The 16-bit packet type field.
+		 * @return The matching type, or null if there isn't one.
+		 */
+		public static Type get(int code) {
+			if (code < 0 || code >= lookup.length) {
+				return null;
+			}
+			return lookup[code];
+		}
+		
+		public int getCode() {
+			return code;
+		}
+		
+		public Payload.Type getPayloadType() {
+			return payloadType;
+		}
+		
+		/**
+		 * @return The type a globe sends back in reply to this one, or null if
+		 *     it doesn't reply.
+		 */
+		public Type getReplyType() {
+			switch (this) {
+				case GET_PAN_GATEWAY: return PAN_GATEWAY;
+				case GET_TIME: return TIME_STATE;
+				case SET_TIME: return TIME_STATE;
+				case GET_RESET_SWITCH: return RESET_SWITCH_STATE;
+				case GET_MESH_INFO: return MESH_INFO;
+				case GET_MESH_FIRMWARE: return MESH_FIRMWARE_STATE;
+				case GET_WIFI_INFO: return WIFI_INFO;
+				case GET_WIFI_FIRMWARE_STATE: return WIFI_FIRMWARE_STATE;
+				case GET_POWER_STATE: return POWER_STATE;
+				case SET_POWER_STATE: return POWER_STATE;
+				case GET_BULB_LABEL: return BULB_LABEL;
+				case SET_BULB_LABEL: return BULB_LABEL;
+				case GET_TAGS: return TAGS;
+				case SET_TAGS: return TAGS;
+				case GET_TAG_LABELS: return TAG_LABELS;
+				case SET_TAG_LABELS: return TAG_LABELS;
+				case GET_VERSION: return VERSION_STATE;
+				case GET_INFO: return INFO;
+				case GET_MCU_RAIL_VOLTAGE: return MCU_RAIL_VOLTAGE;
+				case GET_LIGHT_STATE: return LIGHT_STATE;
+				case SET_LIGHT_COLOR: return LIGHT_STATE;
+				case SET_WAVEFORM: return LIGHT_STATE;
+				case SET_DIM_ABSOLUTE: return LIGHT_STATE;
+				case SET_DIM_RELATIVE: return LIGHT_STATE;
+				case GET_WIFI_STATE: return WIFI_STATE;
+				case SET_WIFI_STATE: return WIFI_STATE;
+				case GET_ACCESS_POINTS: return ACCESS_POINT;
+				default: return null;
+			}
+		}
+		
+		/**
+		 * @return True if only a globe sends this, in reply to some request.
+		 */
+		public boolean isReply() {
+			return replies[ordinal()];
+		}
+		
+		private Type(int code) {
+			this.code = code;
+			this.payloadType = Payload.Type.NONE;
+		}
+		
+		private Type(int code, Payload.Type payloadType) {
+			this.code = code;
+			this.payloadType = payloadType;
+		}
+	}
+	
+	private Type type;
+	private int protocol;
+	private byte[] targetGlobeMac;
+	private byte[] gatewayGlobeMac;
+	
+	private Payload payload;
+
+	
+	private LIFXPacket(Type type) {
+		this.type = type;
+	}
+	
+	public Type getType() {
+		return type;
+	}
+	
+	public Payload getPayload() {
+		return payload;
+	}
+
+	/**
+	 * Construct from a received packet.
+	 * 
+	 * This copies everything out of the bytes, so prefer a {@link LIFXPacketView}
+	 * on hot paths and only build an LIFXPacket for the replies you keep.
+	 * 
+	 * @throws IllegalArgumentException if the bytes aren't a whole packet.
+	 */
+	public LIFXPacket(byte[] bytes) {
+		this(wrapReceived(bytes));
+	}
+	
+	/**
+	 * Construct from a received packet that's already been wrapped and checked.
+	 * Unknown packet types keep a null type and an empty payload.
+	 */
+	public LIFXPacket(LIFXPacketView view) {
+		if (!view.isValid()) {
+			throw new IllegalArgumentException("Invalid packet, status: " + view.getStatus());
+		}
+		type = view.getType();
+		protocol = view.getProtocol();
+		targetGlobeMac = new byte[6];
+		view.copyTargetMac(targetGlobeMac);
+		gatewayGlobeMac = new byte[6];
+		view.copyGatewayMac(gatewayGlobeMac);
+		payload = view.decodePayload();
+	}
+	
+	private static LIFXPacketView wrapReceived(byte[] bytes) {
+		LIFXPacketView view = new LIFXPacketView();
+		view.wrap(bytes, 0, bytes.length);
+		return view;
+	}
+	
+	public int getLength() {
+		return HEADER_LENGTH + payload.getlength();
+	}
+	
+	/**
+	 * Write the packet (header and payload) into the given buffer, starting at
+	 * its current position. The buffer's position is advanced past the packet
+	 * and its byte order is left unchanged.
+	 * 
+	 * Nothing is allocated here, so a single buffer can be reused for every send.
+	 */
+	public void encodeTo(ByteBuffer buffer) {
+		encodeTo(buffer, 0);
+	}
+	
+	/**
+	 * Same as {@link #encodeTo(ByteBuffer)}, but with a value for the header's
+	 * timestamp field, which we use as a sequence number to match up replies.
+	 */
+	public void encodeTo(ByteBuffer buffer, long timestamp) {
+		// 2400 0034 00000000 000000000000 0000 000000000000 0000 4b15125300000000 0200 0000 (36 bytes)
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		int start = buffer.position();
+		
+		// LE uint16 size
+		buffer.putShort((short) getLength());
+		
+		// unit16 protocol // wtf is this anyway?
+		buffer.putShort(PROTOCOL);
+		
+		// reserved1
+		buffer.putInt(0);
+		
+		// byte[6] target mac address
+		buffer.put(targetGlobeMac, 0, 6);
+		
+		// reserved 2
+		buffer.putShort((short) 0);
+		
+		// byte[6] gateway mac address
+		buffer.put(gatewayGlobeMac, 0, 6);
+		
+		// reserved 3
+		buffer.putShort((short) 0);
+		
+		// timestamp (the globes don't care, so it's ours to use)
+		buffer.putLong(timestamp);
+		
+		// LE packet type 
+		buffer.putShort((short) type.code);
+		
+		// reserved 4
+		buffer.putShort((short) 0);
+
+		// payload
+		payload.encodeTo(buffer);
+		
+		if (buffer.position() - start != getLength()) {
+			LIFXLog.wtf("LIFXPacket builder", "Something's wrong with the bytes...");
+		}
+		buffer.order(order);
+	}
+	
+	public byte[] getBytes() {
+		ByteBuffer buffer = ByteBuffer.allocate(getLength());
+		encodeTo(buffer);
+		return buffer.array();
+	}
+	
+	final protected static char[] hexArray = "0123456789ABCDEF".toCharArray();
+	public static String bytesToHex(byte[] bytes) {
+	    char[] hexChars = new char[bytes.length * 2];
+	    for ( int j = 0; j < bytes.length; j++ ) {
+	        int v = bytes[j] & 0xFF;
+	        hexChars[j * 2] = hexArray[v >>> 4];
+	        hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+	    }
+	    return new String(hexChars);
+	}
+	
+	public static String byteToHex(byte b) {
+		int v = b & 0xFF;
+		char[] hexChars = new char[2];
+		hexChars[0] = hexArray[v >>> 4];
+		hexChars[1] = hexArray[v & 0x0F];
+		
+		return String.valueOf(hexChars);
+	}
+	
+	/**
+	 * Pack a 6 byte MAC address into the low 48 bits of a long, first byte most
+	 * significant. Matches {@link LIFXPacketView#getTargetMac()}.
+	 */
+	public static long macToLong(byte[] mac) {
+		long packed = 0;
+		for (int i = 0; i < 6; i++) {
+			packed = (packed << 8) | (mac[i] & 0xFF);
+		}
+		return packed;
+	}
+
+	/**
+	 * The reverse of {@link #macToLong(byte[])}.
+	 */
+	public static byte[] longToMac(long packed) {
+		byte[] mac = new byte[6];
+		for (int i = 5; i >= 0; i--) {
+			mac[i] = (byte) packed;
+			packed >>>= 8;
+		}
+		return mac;
+	}
+
+	private String formatMac(byte[] mac) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < mac.length; i++) {
+			builder.append(byteToHex(mac[i]));
+			if (i < mac.length -1 ) {
+				builder.append(':');
+			}
+		}
+		return builder.toString();
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(128);
+		builder.append("Type: ").append(type).append('\n');
+		builder.append("Protocol: ").append(protocol).append('\n');
+		builder.append("Target Globe: ").append(formatMac(targetGlobeMac)).append('\n');
+		builder.append("Gateway Globe: ").append(formatMac(gatewayGlobeMac)).append('\n');
+		builder.append("Payload: ").append(bytesToHex(payload.getBytes()));
+		
+		return builder.toString();
+	}
+	
+	public static class Builder {
+		
+		LIFXPacket packet;
+		
+		public Builder(Type type) {
+			packet = new LIFXPacket(type);
+			packet.payload = Payload.EMPTY;
+			packet.gatewayGlobeMac = new byte[6];
+			packet.targetGlobeMac = new byte[6];
+		}
+		
+		public Builder setGlobeMac(byte[] mac) {
+			packet.gatewayGlobeMac = mac;
+			packet.targetGlobeMac = mac;
+			return this;
+		}
+		
+		/**
+		 * Set the target globe on its own, for globes other than the gateway.
+		 */
+		public Builder setTargetMac(byte[] mac) {
+			packet.targetGlobeMac = mac;
+			return this;
+		}
+		
+		public Builder setGatewayMac(byte[] mac) {
+			packet.gatewayGlobeMac = mac;
+			return this;
+		}
+		
+		public Builder setPayload(Payload payload) {
+			packet.payload = payload;
+			return this;
+		}
+		
+		public LIFXPacket build() {
+			return packet;
+		}
+	}
+
+	public byte[] getGatewayMacAddress() {
+		return gatewayGlobeMac;
+	}
+
+	public byte[] getTargetMacAddress() {
+		return targetGlobeMac;
+	}
+}
@@ -0,0 +1,229 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only view over a received packet, for parsing replies without copying.
+ *
+ * Wrap the view around a receive buffer, check the returned status and then read
+ * whichever fields are needed. Nothing is decoded until it's asked for and
+ * nothing is allocated, so one view can be reused for every incoming datagram.
+ * The view is only valid until the underlying buffer is overwritten.
+ *
+ * See {@link LIFXPacket} for the header layout.
+ */
+public class LIFXPacketView {
+
+	// Status codes returned by wrap().
+	public static final int OK = 0;
+	// Fewer bytes than the header, or than the header's size field claims.
+	public static final int TRUNCATED = 1;
+	// The size field is smaller than a header.
+	public static final int BAD_SIZE = 2;
+	// The frame is intact but the packet type isn't one we know.
+	public static final int UNKNOWN_TYPE = 3;
+
+	private static final int SIZE_OFFSET = 0;
+	private static final int PROTOCOL_OFFSET = 2;
+	private static final int TARGET_MAC_OFFSET = 8;
+	private static final int GATEWAY_MAC_OFFSET = 16;
+	private static final int TIMESTAMP_OFFSET = 24;
+	private static final int TYPE_OFFSET = 32;
+
+	private ByteBuffer buffer;
+	// Cached wrapper for the last array passed to wrap(byte[], int, int).
+	private byte[] wrappedArray;
+	private ByteBuffer arrayBuffer;
+	private int start;
+	private int size;
+	private int status = TRUNCATED;
+
+	/**
+	 * Point the view at a packet in the given array.
+	 *
+	 * @return One of the status codes. Fields may only be read if this is
+	 *     {@link #OK} or {@link #UNKNOWN_TYPE}.
+	 */
+	public int wrap(byte[] bytes, int offset, int length) {
+		if (bytes != wrappedArray) {
+			wrappedArray = bytes;
+			arrayBuffer = ByteBuffer.wrap(bytes);
+		}
+		return wrap(arrayBuffer, offset, length);
+	}
+
+	/**
+	 * Point the view at the packet between the buffer's position and limit.
+	 * The buffer's position, limit and byte order are not changed.
+	 */
+	public int wrap(ByteBuffer buffer) {
+		return wrap(buffer, buffer.position(), buffer.remaining());
+	}
+
+	/**
+	 * Point the view at a packet starting at an absolute offset in the buffer.
+	 * Any bytes after the length given by the header's size field are ignored.
+	 */
+	public int wrap(ByteBuffer buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.start = offset;
+		this.size = 0;
+		status = check(length);
+		return status;
+	}
+
+	private int check(int length) {
+		if (length < LIFXPacket.HEADER_LENGTH) {
+			return TRUNCATED;
+		}
+		size = getUint16(SIZE_OFFSET);
+		if (size < LIFXPacket.HEADER_LENGTH) {
+			return BAD_SIZE;
+		}
+		if (size > length) {
+			return TRUNCATED;
+		}
+		if (LIFXPacket.Type.get(getTypeCode()) == null) {
+			return UNKNOWN_TYPE;
+		}
+		return OK;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public boolean isValid() {
+		return status == OK || status == UNKNOWN_TYPE;
+	}
+
+	/**
+	 * Total length of the packet in bytes, from the header's size field.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	public int getProtocol() {
+		return getUint16(PROTOCOL_OFFSET);
+	}
+
+	public int getTypeCode() {
+		return getUint16(TYPE_OFFSET);
+	}
+
+	/**
+	 * @return The packet type, or null if the type isn't known.
+	 */
+	public LIFXPacket.Type getType() {
+		if (status != OK) {
+			return null;
+		}
+		return LIFXPacket.Type.get(getTypeCode());
+	}
+
+	public long getTimestamp() {
+		return getUint32(TIMESTAMP_OFFSET) | (getUint32(TIMESTAMP_OFFSET + 4) << 32);
+	}
+
+	/**
+	 * The target MAC address packed into the low 48 bits of a long, first byte
+	 * most significant. Handy as a map key without allocating an array.
+	 */
+	public long getTargetMac() {
+		return getMac(TARGET_MAC_OFFSET);
+	}
+
+	public long getGatewayMac() {
+		return getMac(GATEWAY_MAC_OFFSET);
+	}
+
+	public void copyTargetMac(byte[] dest) {
+		copyBytes(TARGET_MAC_OFFSET, dest, 0, 6);
+	}
+
+	public void copyGatewayMac(byte[] dest) {
+		copyBytes(GATEWAY_MAC_OFFSET, dest, 0, 6);
+	}
+
+	/**
+	 * Absolute offset of the start of the packet within the wrapped buffer.
+	 */
+	public int getOffset() {
+		return start;
+	}
+
+	/**
+	 * Absolute offset of the payload within the wrapped buffer.
+	 */
+	public int getPayloadOffset() {
+		return start + LIFXPacket.HEADER_LENGTH;
+	}
+
+	public int getPayloadLength() {
+		return size - LIFXPacket.HEADER_LENGTH;
+	}
+
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	// Payload accessors take an offset relative to the start of the payload.
+
+	public int getPayloadUint8(int index) {
+		return buffer.get(getPayloadOffset() + checkPayloadIndex(index, 1)) & 0xFF;
+	}
+
+	public int getPayloadUint16(int index) {
+		return getUint16(LIFXPacket.HEADER_LENGTH + checkPayloadIndex(index, 2));
+	}
+
+	public long getPayloadUint32(int index) {
+		return getUint32(LIFXPacket.HEADER_LENGTH + checkPayloadIndex(index, 4));
+	}
+
+	public void copyPayload(int index, byte[] dest, int destOffset, int length) {
+		copyBytes(LIFXPacket.HEADER_LENGTH + checkPayloadIndex(index, length), dest, destOffset, length);
+	}
+
+	/**
+	 * Decode the payload into a new {@link Payload} object, straight from the
+	 * wrapped buffer. Only call this for the packets you actually keep.
+	 */
+	public Payload decodePayload() {
+		LIFXPacket.Type type = getType();
+		if (type == null) {
+			return Payload.EMPTY;
+		}
+		return type.getPayloadType().decode(buffer, getPayloadOffset(), getPayloadLength());
+	}
+
+	private int checkPayloadIndex(int index, int width) {
+		if (index < 0 || index + width > getPayloadLength()) {
+			throw new IndexOutOfBoundsException("Payload index " + index + " out of range");
+		}
+		return index;
+	}
+
+	private int getUint16(int offset) {
+		return Payload.getUint16(buffer, start + offset);
+	}
+
+	private long getUint32(int offset) {
+		return Payload.getUint32(buffer, start + offset);
+	}
+
+	private long getMac(int offset) {
+		long mac = 0;
+		for (int i = 0; i < 6; i++) {
+			mac = (mac << 8) | (buffer.get(start + offset + i) & 0xFF);
+		}
+		return mac;
+	}
+
+	private void copyBytes(int offset, byte[] dest, int destOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			dest[destOffset + i] = buffer.get(start + offset + i);
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package au.id.katharos.lifxalarm;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking network engine for talking to LIFX globes.
+ *
+ * A single thread runs a {@link Selector} over one UDP socket (used for
+ * discovery broadcasts and UDP commands) and the TCP sessions of every
+ * {@link GatewayConnection} opened on it, so any number of gateways share
+ * one I/O thread. Callers never block on the network: sends are encoded into
+ * a per-channel write queue and flushed by the I/O thread when the socket is
+ * writable.
+ */
+public class LIFXTransport implements Runnable {
+
+	private static final int DATAGRAM_BUFFER_SIZE = 512;
+	private static final int MAX_QUEUED_DATAGRAMS = 256;
+
+	private final Selector selector;
+	private final DatagramChannel udp;
+	private final SelectionKey udpKey;
+
+	// Only used on the transport thread.
+	private final ByteBuffer udpReadBuffer = ByteBuffer.allocateDirect(DATAGRAM_BUFFER_SIZE);
+	private final LIFXPacketView udpView = new LIFXPacketView();
+
+	// Datagrams waiting to go out, and spare ones to reuse. Both guarded by udpQueue.
+	private final ArrayDeque<Datagram> udpQueue = new ArrayDeque<Datagram>();
+	private final ArrayDeque<Datagram> datagramPool = new ArrayDeque<Datagram>();
+	private int datagramCount;
+	private final AtomicBoolean udpFlushScheduled = new AtomicBoolean();
+	private final Runnable udpFlush = new Runnable() {
+		@Override
+		public void run() {
+			udpFlushScheduled.set(false);
+			if (udpKey.isValid()) {
+				udpKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+	};
+
+	// Timers waiting for their deadline. The first is handed over by other
+	// threads, the second is only touched on the transport thread.
+	private final ConcurrentLinkedQueue<TransportTimer> newTimers = new ConcurrentLinkedQueue<TransportTimer>();
+	private final PriorityQueue<TransportTimer> timers = new PriorityQueue<TransportTimer>();
+
+	// Work handed to the transport thread by other threads.
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final CopyOnWriteArrayList<PacketListener> listeners = new CopyOnWriteArrayList<PacketListener>();
+	private final TransportMetrics metrics = new TransportMetrics();
+	private volatile PacketTrace trace;
+
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * A datagram waiting in the UDP write queue.
+	 */
+	private static class Datagram {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(DATAGRAM_BUFFER_SIZE);
+		SocketAddress target;
+	}
+
+	/**
+	 * Open the UDP socket on the given port. Call {@link #start()} to begin I/O.
+	 */
+	public LIFXTransport(int udpPort) throws IOException {
+		selector = Selector.open();
+		udp = DatagramChannel.open();
+		udp.configureBlocking(false);
+		udp.socket().setReuseAddress(true);
+		udp.socket().setBroadcast(true);
+		udp.socket().bind(new InetSocketAddress(udpPort));
+		udpKey = udp.register(selector, SelectionKey.OP_READ);
+	}
+
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "LIFX transport");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	public void addListener(PacketListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(PacketListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Record every packet sent or received on this transport (and its
+	 * gateway connections) in the trace, or stop tracing if it's null.
+	 */
+	public void setPacketTrace(PacketTrace trace) {
+		this.trace = trace;
+	}
+
+	public PacketTrace getPacketTrace() {
+		return trace;
+	}
+
+	/**
+	 * Live counters for this transport and its gateway connections.
+	 */
+	public TransportMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Open a TCP session to a gateway on this transport. The connection itself
+	 * is made on the first send.
+	 */
+	public GatewayConnection openGateway(InetSocketAddress address) {
+		return new GatewayConnection(this, address);
+	}
+
+	/**
+	 * Queue a packet to go out over UDP, for example a discovery broadcast.
+	 * This doesn't block; the packet is sent when the socket is writable.
+	 *
+	 * @throws IOException if too many datagrams are already waiting.
+	 */
+	public void sendDatagram(LIFXPacket packet, SocketAddress target) throws IOException {
+		synchronized (udpQueue) {
+			queueDatagram(packet, target);
+		}
+		scheduleUdpFlush();
+	}
+
+	/**
+	 * Queue every packet in the batch to go out over UDP, one datagram each,
+	 * with a single wake up of the transport thread.
+	 *
+	 * @throws IOException if the queue fills part way through. Packets before
+	 *     that point are still sent.
+	 */
+	public void sendDatagrams(PacketBatch batch, SocketAddress target) throws IOException {
+		try {
+			synchronized (udpQueue) {
+				for (int i = 0; i < batch.size(); i++) {
+					queueDatagram(batch.get(i), target);
+				}
+			}
+		} finally {
+			scheduleUdpFlush();
+		}
+	}
+
+	// Must hold udpQueue.
+	private void queueDatagram(LIFXPacket packet, SocketAddress target) throws IOException {
+		if (packet.getLength() > DATAGRAM_BUFFER_SIZE) {
+			throw new IOException("Packet too long for a datagram: " + packet.getLength());
+		}
+		Datagram datagram = datagramPool.poll();
+		if (datagram == null) {
+			if (datagramCount >= MAX_QUEUED_DATAGRAMS) {
+				throw new IOException("UDP write queue full");
+			}
+			datagram = new Datagram();
+			datagramCount++;
+		}
+		datagram.buffer.clear();
+		packet.encodeTo(datagram.buffer);
+		datagram.buffer.flip();
+		PacketTrace trace = this.trace;
+		if (trace != null) {
+			trace.record(true, datagram.buffer, 0, datagram.buffer.limit());
+		}
+		datagram.target = target;
+		udpQueue.add(datagram);
+		metrics.packetSent(packet.getType());
+	}
+
+	private void scheduleUdpFlush() {
+		if (udpFlushScheduled.compareAndSet(false, true)) {
+			execute(udpFlush);
+		}
+	}
+
+	/**
+	 * Run a task on the transport thread.
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Run the timer on the transport thread once its deadline passes.
+	 */
+	void schedule(TransportTimer timer) {
+		newTimers.add(timer);
+		selector.wakeup();
+	}
+
+	/**
+	 * Take back a timer that hasn't fired, so it can be scheduled again with a
+	 * new deadline. Transport thread only.
+	 *
+	 * @return False if the timer wasn't waiting.
+	 */
+	boolean cancel(TransportTimer timer) {
+		return timers.remove(timer) || newTimers.remove(timer);
+	}
+
+	Selector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * Pass a received packet to every listener. Transport thread only.
+	 */
+	void notifyListeners(LIFXPacketView packet, InetSocketAddress from) {
+		for (PacketListener listener : listeners) {
+			try {
+				listener.onPacket(packet, from);
+			} catch (RuntimeException e) {
+				LIFXLog.e("LIFXTransport", "Packet listener failed", e);
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				selector.select(fireTimers());
+			} catch (IOException e) {
+				LIFXLog.e("LIFXTransport", "Selector failed", e);
+				continue;
+			}
+			runTasks();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (!key.isValid()) {
+					continue;
+				}
+				// One bad key shouldn't keep the rest waiting until the next pass.
+				try {
+					if (key == udpKey) {
+						handleUdp();
+					} else {
+						((GatewayConnection) key.attachment()).handle(key);
+					}
+				} catch (IOException e) {
+					LIFXLog.e("LIFXTransport", "I/O failed", e);
+				}
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Fire any timers that are due.
+	 *
+	 * @return Milliseconds until the next deadline, or 0 if there isn't one
+	 *     (which is what select() takes to mean forever).
+	 */
+	private long fireTimers() {
+		TransportTimer timer;
+		while ((timer = newTimers.poll()) != null) {
+			timers.add(timer);
+		}
+		long now = System.nanoTime();
+		while ((timer = timers.peek()) != null && now - timer.getDeadlineNanos() >= 0) {
+			timers.poll();
+			try {
+				timer.onDeadline();
+			} catch (RuntimeException e) {
+				LIFXLog.e("LIFXTransport", "Timer failed", e);
+			}
+		}
+		if (timer == null) {
+			return 0;
+		}
+		// Round up so we don't wake just before the deadline and spin.
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(timer.getDeadlineNanos() - now) + 1);
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				LIFXLog.e("LIFXTransport", "Transport task failed", e);
+			}
+		}
+	}
+
+	private void handleUdp() throws IOException {
+		if (udpKey.isReadable()) {
+			// Drain everything that's arrived before going back to select.
+			while (true) {
+				udpReadBuffer.clear();
+				InetSocketAddress from = (InetSocketAddress) udp.receive(udpReadBuffer);
+				if (from == null) {
+					break;
+				}
+				udpReadBuffer.flip();
+				metrics.bytesReceived(udpReadBuffer.remaining());
+				if (udpView.wrap(udpReadBuffer) == LIFXPacketView.OK) {
+					metrics.packetReceived(udpView.getType());
+					PacketTrace trace = this.trace;
+					if (trace != null) {
+						trace.record(false, udpReadBuffer, udpView.getOffset(), udpView.getSize());
+					}
+					notifyListeners(udpView, from);
+				}
+			}
+		}
+		if (udpKey.isValid() && udpKey.isWritable()) {
+			synchronized (udpQueue) {
+				Datagram datagram;
+				while ((datagram = udpQueue.peek()) != null) {
+					try {
+						int sent = udp.send(datagram.buffer, datagram.target);
+						if (sent == 0) {
+							// Socket buffer is full, wait to be writable again.
+							return;
+						}
+						metrics.bytesSent(sent);
+					} catch (IOException e) {
+						// Say no route to a broadcast address. Retrying won't help, and
+						// leaving it at the head of the queue would block everything behind it.
+						metrics.recordSendError();
+						LIFXLog.w("LIFXTransport", "Dropped datagram to %s: %s", datagram.target, e.getMessage());
+					}
+					udpQueue.poll();
+					datagram.target = null;
+					datagramPool.add(datagram);
+				}
+				udpKey.interestOps(SelectionKey.OP_READ);
+			}
+		}
+	}
+
+	private void close() {
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof GatewayConnection) {
+				((GatewayConnection) key.attachment()).fail("Transport shut down");
+			}
+		}
+		try {
+			udp.close();
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
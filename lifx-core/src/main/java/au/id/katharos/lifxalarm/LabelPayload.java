@@ -0,0 +1,40 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Payload for getting or setting a bulb's label.
+ *
+ * Format:
+ * char label[32];     // UTF-8, zero padded
+ */
+public class LabelPayload extends Payload {
+
+	static final int LENGTH = 32;
+
+	private final String label;
+
+	public LabelPayload(String label) {
+		type = Payload.Type.LABEL;
+		this.label = label;
+	}
+
+	LabelPayload(ByteBuffer buffer, int offset) {
+		type = Payload.Type.LABEL;
+		label = getString(buffer, offset, LENGTH);
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	@Override
+	public void encodeTo(ByteBuffer buffer) {
+		putString(buffer, label.getBytes(UTF8), LENGTH);
+	}
+
+	@Override
+	public int getlength() {
+		return LENGTH;
+	}
+}
@@ -0,0 +1,116 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in fixed power-of-two buckets of microseconds.
+ *
+ * Recording is a few atomic increments with no allocation or locking, so it
+ * can go on the transport thread's hot path. Bucket i holds durations from
+ * 2^i up to 2^(i+1) microseconds (bucket 0 also has anything under 1us) and
+ * the last bucket holds everything longer, about 8 seconds and up.
+ */
+public class LatencyHistogram {
+
+	public static final int BUCKETS = 24;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		counts.incrementAndGet(bucketFor(micros));
+		count.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		long max;
+		while ((max = maxMicros.get()) < micros && !maxMicros.compareAndSet(max, micros)) {
+			// Lost a race with another thread, try again.
+		}
+	}
+
+	static int bucketFor(long micros) {
+		if (micros <= 1) {
+			return 0;
+		}
+		return Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+	}
+
+	/**
+	 * @return The largest duration that falls in the bucket, or
+	 *     Long.MAX_VALUE for the last one.
+	 */
+	public static long getBucketLimitMicros(int bucket) {
+		return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (2L << bucket) - 1;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getTotalMicros() {
+		return totalMicros.get();
+	}
+
+	public long getMaxMicros() {
+		return maxMicros.get();
+	}
+
+	public long getMeanMicros() {
+		long n = count.get();
+		return n == 0 ? 0 : totalMicros.get() / n;
+	}
+
+	public long getBucketCount(int bucket) {
+		return counts.get(bucket);
+	}
+
+	/**
+	 * An upper bound on the given percentile: the top of the bucket it falls
+	 * in, but never more than the largest duration recorded.
+	 *
+	 * @param percentile From 0 to 100.
+	 */
+	public long getPercentileMicros(double percentile) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(n * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(getBucketLimitMicros(i), maxMicros.get());
+			}
+		}
+		return maxMicros.get();
+	}
+
+	/**
+	 * @return A copy that doesn't change as more durations are recorded.
+	 */
+	public LatencyHistogram snapshot() {
+		LatencyHistogram copy = new LatencyHistogram();
+		copy.copyFrom(this);
+		return copy;
+	}
+
+	void copyFrom(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, other.counts.get(i));
+		}
+		count.set(other.count.get());
+		totalMicros.set(other.totalMicros.get());
+		maxMicros.set(other.maxMicros.get());
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + " mean_us=" + getMeanMicros()
+				+ " p50_us=" + getPercentileMicros(50) + " p90_us=" + getPercentileMicros(90)
+				+ " p99_us=" + getPercentileMicros(99) + " max_us=" + getMaxMicros();
+	}
+}
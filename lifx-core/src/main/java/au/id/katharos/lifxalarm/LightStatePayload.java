@@ -0,0 +1,112 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Payload for a light state reply, the full state of a bulb in one packet.
+ *
+ * Format:
+ * uint16 hue;         // LE
+ * uint16 saturation;  // LE
+ * uint16 brightness;  // LE
+ * uint16 kelvin;      // LE
+ * uint16 dim;         // LE
+ * uint16 power;       // 0xFFFF on, 0 off
+ * char label[32];     // UTF-8, zero padded
+ * uint64 tags;        // LE
+ *
+ * Hue, saturation and brightness are converted to the same units that
+ * {@link SetLightColorPayload} takes.
+ */
+public class LightStatePayload extends Payload {
+
+	static final int LENGTH = 52;
+	private static final int MAX_SHORT = (1 << 16) - 1;
+
+	private final int hue;
+	private final int saturation;
+	private final int brightness;
+	private final int kelvin;
+	private final int dim;
+	private final boolean on;
+	private final String label;
+	private final long tags;
+
+	public LightStatePayload(int hue, int saturation, int brightness, int kelvin,
+			int dim, boolean on, String label, long tags) {
+		type = Payload.Type.LIGHT_STATE;
+		this.hue = hue;
+		this.saturation = saturation;
+		this.brightness = brightness;
+		this.kelvin = kelvin;
+		this.dim = dim;
+		this.on = on;
+		this.label = label;
+		this.tags = tags;
+	}
+
+	LightStatePayload(ByteBuffer buffer, int offset) {
+		type = Payload.Type.LIGHT_STATE;
+		hue = (int) Math.round(getUint16(buffer, offset) * 360.0 / MAX_SHORT);
+		saturation = (int) Math.round(getUint16(buffer, offset + 2) * 100.0 / MAX_SHORT);
+		brightness = (int) Math.round(getUint16(buffer, offset + 4) * 100.0 / MAX_SHORT);
+		kelvin = getUint16(buffer, offset + 6);
+		dim = getUint16(buffer, offset + 8);
+		on = getUint16(buffer, offset + 10) != 0;
+		label = getString(buffer, offset + 12, LabelPayload.LENGTH);
+		tags = getUint64(buffer, offset + 44);
+	}
+
+	public int getHue() {
+		return hue;
+	}
+
+	public int getSaturation() {
+		return saturation;
+	}
+
+	public int getBrightness() {
+		return brightness;
+	}
+
+	public int getKelvin() {
+		return kelvin;
+	}
+
+	public int getDim() {
+		return dim;
+	}
+
+	public boolean isOn() {
+		return on;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public long getTags() {
+		return tags;
+	}
+
+	@Override
+	public void encodeTo(ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putShort((short) (hue / 360.0 * MAX_SHORT));
+		buffer.putShort((short) (saturation / 100.0 * MAX_SHORT));
+		buffer.putShort((short) (brightness / 100.0 * MAX_SHORT));
+		buffer.putShort((short) kelvin);
+		buffer.putShort((short) dim);
+		buffer.putShort((short) (on ? 0xFFFF : 0));
+		putString(buffer, label.getBytes(UTF8), LabelPayload.LENGTH);
+		buffer.putLong(tags);
+		buffer.order(order);
+	}
+
+	@Override
+	public int getlength() {
+		return LENGTH;
+	}
+}
@@ -0,0 +1,15 @@
+package au.id.katharos.lifxalarm;
+
+/**
+ * Where {@link LIFXLog} sends its messages. On Android this writes to logcat,
+ * anywhere else the default writes to standard error.
+ */
+public interface LogSink {
+
+	/**
+	 * @param priority One of the {@link LIFXLog} levels, which use the same
+	 *     numbers as android.util.Log.
+	 * @param throwable May be null.
+	 */
+	void log(int priority, String tag, String message, Throwable throwable);
+}
@@ -0,0 +1,138 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map from long keys (like packed MAC addresses) to values, with lock-free
+ * reads and no boxing.
+ *
+ * Open addressing with linear probing. Writers take a lock; readers don't, so
+ * lookups from the transport thread or the send path never wait. A slot's key
+ * is written before its value, so a reader seeing a value also sees its key,
+ * and a slot with no value yet reads as empty. The table is replaced whole
+ * when it grows, so readers on the old table still get a right answer.
+ *
+ * Entries can't be removed, only replaced. Null values aren't allowed.
+ */
+public class LongMap<V> {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private static class Table<V> {
+		final AtomicLongArray keys;
+		final AtomicReferenceArray<V> values;
+		final int mask;
+
+		Table(int capacity) {
+			keys = new AtomicLongArray(capacity);
+			values = new AtomicReferenceArray<V>(capacity);
+			mask = capacity - 1;
+		}
+	}
+
+	private volatile Table<V> table = new Table<V>(MIN_CAPACITY);
+	private volatile int size;
+
+	public V get(long key) {
+		Table<V> t = table;
+		for (int i = index(key, t.mask); ; i = (i + 1) & t.mask) {
+			V value = t.values.get(i);
+			if (value == null) {
+				return null;
+			}
+			if (t.keys.get(i) == key) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * @return The value it replaced, or null.
+	 */
+	public synchronized V put(long key, V value) {
+		if (value == null) {
+			throw new NullPointerException("Null values aren't allowed");
+		}
+		// Keep at most half full, so probes stay short.
+		if ((size + 1) * 2 > table.keys.length()) {
+			resize();
+		}
+		V previous = insert(table, key, value);
+		if (previous == null) {
+			size++;
+		}
+		return previous;
+	}
+
+	/**
+	 * @return The value already there, or null if this one was added.
+	 */
+	public synchronized V putIfAbsent(long key, V value) {
+		V existing = get(key);
+		if (existing != null) {
+			return existing;
+		}
+		put(key, value);
+		return null;
+	}
+
+	private static <V> V insert(Table<V> t, long key, V value) {
+		for (int i = index(key, t.mask); ; i = (i + 1) & t.mask) {
+			V existing = t.values.get(i);
+			if (existing == null) {
+				t.keys.set(i, key);
+				t.values.set(i, value);
+				return null;
+			}
+			if (t.keys.get(i) == key) {
+				t.values.set(i, value);
+				return existing;
+			}
+		}
+	}
+
+	private void resize() {
+		Table<V> old = table;
+		Table<V> bigger = new Table<V>(old.keys.length() * 2);
+		for (int i = 0; i < old.keys.length(); i++) {
+			V value = old.values.get(i);
+			if (value != null) {
+				insert(bigger, old.keys.get(i), value);
+			}
+		}
+		table = bigger;
+	}
+
+	private static int index(long key, int mask) {
+		// Mix the bits, since MAC addresses differ mostly in their low bytes.
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * A copy of the values, in no particular order.
+	 */
+	public List<V> values() {
+		Table<V> t = table;
+		List<V> values = new ArrayList<V>(size);
+		for (int i = 0; i < t.values.length(); i++) {
+			V value = t.values.get(i);
+			if (value != null) {
+				values.add(value);
+			}
+		}
+		return values;
+	}
+
+	public synchronized void clear() {
+		table = new Table<V>(MIN_CAPACITY);
+		size = 0;
+	}
+}
@@ -0,0 +1,48 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of packets to send together, for example a colour change for every
+ * globe in a room.
+ *
+ * Sending a batch takes the write queue lock once and wakes the transport
+ * once, so the whole batch goes out in a single socket write. Batches can be
+ * cleared and reused.
+ */
+public class PacketBatch {
+
+	private final List<LIFXPacket> packets = new ArrayList<LIFXPacket>();
+	private int length;
+
+	public PacketBatch add(LIFXPacket packet) {
+		packets.add(packet);
+		length += packet.getLength();
+		return this;
+	}
+
+	public void clear() {
+		packets.clear();
+		length = 0;
+	}
+
+	public int size() {
+		return packets.size();
+	}
+
+	public boolean isEmpty() {
+		return packets.isEmpty();
+	}
+
+	/**
+	 * @return The total encoded length of every packet in the batch.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	public LIFXPacket get(int i) {
+		return packets.get(i);
+	}
+}
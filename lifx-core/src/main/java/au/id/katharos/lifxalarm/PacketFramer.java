@@ -0,0 +1,139 @@
+package au.id.katharos.lifxalarm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Splits a TCP byte stream into whole packets using the 16-bit size field at
+ * the start of every header.
+ *
+ * A read can end part way through a packet or hold several packets; partial
+ * packets are kept until the rest arrives. One buffer is reused for every read
+ * and only grows (up to the largest possible packet) when a packet won't fit.
+ *
+ * Also counts how many packets each read delivers, to show how much batching
+ * we get under load. Not thread safe: use it from one thread only, although
+ * the counters can be read (approximately) from anywhere.
+ */
+public class PacketFramer {
+
+	public interface FrameHandler {
+		/**
+		 * Called for each whole, well formed packet. The view is only valid
+		 * during the call.
+		 */
+		void onFrame(LIFXPacketView frame);
+	}
+
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+	private static final int MAX_PACKET_SIZE = 0xFFFF;
+
+	// Reads yielding this many frames or more share the last histogram bucket.
+	public static final int HISTOGRAM_BUCKETS = 9;
+
+	// In fill mode between reads.
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+	private final LIFXPacketView view = new LIFXPacketView();
+
+	private volatile long readCount;
+	private volatile long frameCount;
+	private volatile long malformedCount;
+	private final long[] framesPerRead = new long[HISTOGRAM_BUCKETS];
+
+	/**
+	 * Do one read from the channel and hand every complete packet to the handler.
+	 *
+	 * @return The number of packets delivered, or -1 at end of stream.
+	 * @throws IOException if the read fails or the stream can't be framed.
+	 */
+	public int readFrom(ReadableByteChannel channel, FrameHandler handler) throws IOException {
+		if (channel.read(buffer) < 0) {
+			return -1;
+		}
+		int frames = drain(handler);
+		readCount++;
+		frameCount += frames;
+		framesPerRead[Math.min(frames, HISTOGRAM_BUCKETS - 1)]++;
+		return frames;
+	}
+
+	private int drain(FrameHandler handler) throws IOException {
+		int frames = 0;
+		buffer.flip();
+		while (buffer.remaining() >= 2) {
+			int start = buffer.position();
+			int size = Payload.getUint16(buffer, start);
+			if (size < LIFXPacket.HEADER_LENGTH) {
+				// There's no way to find the next packet boundary after this.
+				throw new IOException("Bad packet size " + size);
+			}
+			if (buffer.remaining() < size) {
+				break;
+			}
+			if (view.wrap(buffer, start, size) == LIFXPacketView.OK) {
+				frames++;
+				handler.onFrame(view);
+			} else {
+				malformedCount++;
+			}
+			buffer.position(start + size);
+		}
+		ensureRoomForNextPacket();
+		buffer.compact();
+		return frames;
+	}
+
+	/**
+	 * If a partial packet is bigger than the buffer, grow it (in read mode,
+	 * before compacting) so the rest of the packet fits.
+	 */
+	private void ensureRoomForNextPacket() {
+		if (buffer.remaining() < 2) {
+			return;
+		}
+		int size = Payload.getUint16(buffer, buffer.position());
+		if (size <= buffer.capacity()) {
+			return;
+		}
+		int capacity = buffer.capacity();
+		while (capacity < size) {
+			capacity *= 2;
+		}
+		ByteBuffer bigger = ByteBuffer.allocateDirect(Math.min(capacity, MAX_PACKET_SIZE));
+		bigger.put(buffer);
+		bigger.flip();
+		buffer = bigger;
+	}
+
+	/**
+	 * Throw away any buffered partial packet, for example after a reconnect.
+	 */
+	public void reset() {
+		buffer.clear();
+	}
+
+	public long getReadCount() {
+		return readCount;
+	}
+
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	public long getMalformedCount() {
+		return malformedCount;
+	}
+
+	/**
+	 * @return How many reads delivered 0, 1, 2... packets. The last bucket counts
+	 *     every read with {@link #HISTOGRAM_BUCKETS} - 1 or more.
+	 */
+	public long[] getFramesPerReadHistogram() {
+		return framesPerRead.clone();
+	}
+
+	public int getBufferCapacity() {
+		return buffer.capacity();
+	}
+}
@@ -0,0 +1,18 @@
+package au.id.katharos.lifxalarm;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Receives every well formed packet that arrives on an {@link LIFXTransport}.
+ */
+public interface PacketListener {
+
+	/**
+	 * Called on the transport thread, so this must be quick and must not block.
+	 * The view is only valid for the duration of the call.
+	 *
+	 * @param packet The received packet, already checked by {@link LIFXPacketView#wrap}.
+	 * @param from The address it came from.
+	 */
+	void onPacket(LIFXPacketView packet, InetSocketAddress from);
+}
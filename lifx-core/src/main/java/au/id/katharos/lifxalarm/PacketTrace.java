@@ -0,0 +1,95 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ring buffer of the most recent packets sent and received, kept as raw
+ * bytes and only turned into hex when someone calls {@link #dump()}.
+ *
+ * Each slot holds the first {@link #SLOT_SIZE} bytes of a packet, which is
+ * the whole of every packet the app sends. Recording is a copy into the
+ * preallocated ring, but it does take a lock, so only turn tracing on (with
+ * {@link LIFXTransport#setPacketTrace}) while chasing a problem.
+ */
+public class PacketTrace {
+
+	public static final int SLOT_SIZE = 128;
+
+	private final int capacity;
+	private final byte[] data;
+	private final long[] times;
+	private final int[] lengths;
+	private final boolean[] outgoing;
+
+	// Guarded by this.
+	private int next;
+	private long total;
+
+	public PacketTrace(int capacity) {
+		this.capacity = capacity;
+		data = new byte[capacity * SLOT_SIZE];
+		times = new long[capacity];
+		lengths = new int[capacity];
+		outgoing = new boolean[capacity];
+	}
+
+	/**
+	 * Copy a packet into the ring, overwriting the oldest one if it's full.
+	 * The buffer's position and limit aren't changed.
+	 *
+	 * @param sent True for a packet we sent, false for one we received.
+	 */
+	public synchronized void record(boolean sent, ByteBuffer buffer, int offset, int length) {
+		int slot = next;
+		times[slot] = System.nanoTime();
+		lengths[slot] = length;
+		outgoing[slot] = sent;
+		int copy = Math.min(length, SLOT_SIZE);
+		for (int i = 0; i < copy; i++) {
+			data[slot * SLOT_SIZE + i] = buffer.get(offset + i);
+		}
+		next = (slot + 1) % capacity;
+		total++;
+	}
+
+	/**
+	 * @return How many packets have been recorded, including ones since overwritten.
+	 */
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	public synchronized void clear() {
+		next = 0;
+		total = 0;
+	}
+
+	/**
+	 * The packets still in the ring, oldest first, one per line: milliseconds
+	 * before the newest packet, direction, length and hex bytes. Truncated
+	 * packets end with "..".
+	 */
+	public synchronized String dump() {
+		int count = (int) Math.min(total, capacity);
+		StringBuilder out = new StringBuilder(count * (SLOT_SIZE * 2 + 32));
+		int newest = (next + capacity - 1) % capacity;
+		for (int n = 0; n < count; n++) {
+			int slot = (next - count + n + capacity) % capacity;
+			long ago = TimeUnit.NANOSECONDS.toMillis(times[newest] - times[slot]);
+			out.append('-').append(ago).append("ms ")
+				.append(outgoing[slot] ? "> " : "< ")
+				.append(lengths[slot]).append(' ');
+			int copy = Math.min(lengths[slot], SLOT_SIZE);
+			for (int i = 0; i < copy; i++) {
+				int v = data[slot * SLOT_SIZE + i] & 0xFF;
+				out.append(LIFXPacket.hexArray[v >>> 4]).append(LIFXPacket.hexArray[v & 0x0F]);
+			}
+			if (copy < lengths[slot]) {
+				out.append("..");
+			}
+			out.append('\n');
+		}
+		return out.toString();
+	}
+}
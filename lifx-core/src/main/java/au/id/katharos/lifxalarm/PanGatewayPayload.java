@@ -0,0 +1,56 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Payload for a PAN gateway reply, telling us how to talk to the gateway globe.
+ *
+ * Format:
+ * uint8 service;      // 1 = UDP, 2 = TCP
+ * uint32 port;        // LE
+ */
+public class PanGatewayPayload extends Payload {
+
+	static final int LENGTH = 5;
+
+	public static final int SERVICE_UDP = 1;
+	public static final int SERVICE_TCP = 2;
+
+	private final int service;
+	private final long port;
+
+	public PanGatewayPayload(int service, long port) {
+		type = Payload.Type.PAN_GATEWAY;
+		this.service = service;
+		this.port = port;
+	}
+
+	PanGatewayPayload(ByteBuffer buffer, int offset) {
+		type = Payload.Type.PAN_GATEWAY;
+		service = buffer.get(offset) & 0xFF;
+		port = getUint32(buffer, offset + 1);
+	}
+
+	public int getService() {
+		return service;
+	}
+
+	public long getPort() {
+		return port;
+	}
+
+	@Override
+	public void encodeTo(ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put((byte) service);
+		buffer.putInt((int) port);
+		buffer.order(order);
+	}
+
+	@Override
+	public int getlength() {
+		return LENGTH;
+	}
+}
@@ -0,0 +1,211 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Payload to attach to an {@link LIFXPacket}
+ *
+ * Types of Payloads:
+ * 	power state (on/off) (set and get same)
+ * 	Bulb label (char[]) (set and get same)
+ * 	Tags (unit64) (set and get same)
+ * 	Tag labels (uint64, char[]) (set and get same)
+ * 	SET light color (multi)
+ * 	SET dim
+ * 	Light status (response)
+ * 	Wifi/mesh info and firmware state (response)
+ */
+public abstract class Payload {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static final Payload EMPTY = new Payload() {
+		@Override
+		public int getlength() {
+			return 0;
+		}
+
+		@Override
+		public void encodeTo(ByteBuffer buffer) {
+			// Nothing to write.
+		}
+	};
+
+	/**
+	 * The shape of a payload, along with the codec to decode it.
+	 *
+	 * Each type knows the minimum number of bytes it needs, so a short payload
+	 * is turned into {@link Payload#EMPTY} rather than read out of bounds.
+	 */
+	public enum Type {
+		NONE(0) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return EMPTY;
+			}
+		},
+		// Any payload we don't model, kept as plain bytes.
+		RAW(0) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return new RawPayload(buffer, offset, length);
+			}
+		},
+		PAN_GATEWAY(PanGatewayPayload.LENGTH) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return new PanGatewayPayload(buffer, offset);
+			}
+		},
+		POWER_STATE(PowerStatePayload.LENGTH) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return new PowerStatePayload(buffer, offset);
+			}
+		},
+		LABEL(LabelPayload.LENGTH) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return new LabelPayload(buffer, offset);
+			}
+		},
+		TAGS(TagsPayload.LENGTH) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return new TagsPayload(buffer, offset);
+			}
+		},
+		TAG_LABELS(TagLabelsPayload.LENGTH) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return new TagLabelsPayload(buffer, offset);
+			}
+		},
+		SET_LIGHT_COLOR(SetLightColorPayload.LENGTH) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return new SetLightColorPayload(buffer, offset);
+			}
+		},
+		SET_LIGHT_DIM(SetLightDimPayload.ABSOLUTE_LENGTH) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return new SetLightDimPayload(buffer, offset, false);
+			}
+		},
+		SET_LIGHT_DIM_RELATIVE(SetLightDimPayload.RELATIVE_LENGTH) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return new SetLightDimPayload(buffer, offset, true);
+			}
+		},
+		LIGHT_STATE(LightStatePayload.LENGTH) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return new LightStatePayload(buffer, offset);
+			}
+		},
+		WIFI_INFO(WifiInfoPayload.LENGTH) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return new WifiInfoPayload(buffer, offset);
+			}
+		},
+		FIRMWARE_STATE(FirmwareStatePayload.LENGTH) {
+			@Override
+			Payload read(ByteBuffer buffer, int offset, int length) {
+				return new FirmwareStatePayload(buffer, offset);
+			}
+		};
+
+		private final int minLength;
+
+		private Type(int minLength) {
+			this.minLength = minLength;
+		}
+
+		/**
+		 * Decode a payload of this type from an absolute offset in the buffer.
+		 * The buffer's position and byte order are not used or changed.
+		 */
+		public Payload decode(ByteBuffer buffer, int offset, int length) {
+			if (length < minLength) {
+				return EMPTY;
+			}
+			return read(buffer, offset, length);
+		}
+
+		abstract Payload read(ByteBuffer buffer, int offset, int length);
+	}
+	protected Type type = Type.NONE;
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Write the payload at the buffer's current position. Multi-byte fields
+	 * are written little endian regardless of the buffer's byte order.
+	 */
+	public abstract void encodeTo(ByteBuffer buffer);
+	public abstract int getlength();
+
+	public byte[] getBytes() {
+		ByteBuffer buffer = ByteBuffer.allocate(getlength());
+		encodeTo(buffer);
+		return buffer.array();
+	}
+
+	// Construct a Payload object from an incoming packet.
+	public static Payload construct(Type payloadType, byte[] payloadBytes) {
+		return payloadType.decode(ByteBuffer.wrap(payloadBytes), 0, payloadBytes.length);
+	}
+
+	public static short swap (short value)
+	{
+		int b1 = value & 0xff;
+		int b2 = (value >> 8) & 0xff;
+		return (short) (b1 << 8 | b2 << 0);
+	}
+
+	// Little endian reads at an absolute offset, whatever the buffer's byte order.
+
+	static int getUint16(ByteBuffer buffer, int offset) {
+		return (buffer.get(offset) & 0xFF) | (buffer.get(offset + 1) & 0xFF) << 8;
+	}
+
+	static long getUint32(ByteBuffer buffer, int offset) {
+		return (getUint16(buffer, offset) | (long) getUint16(buffer, offset + 2) << 16) & 0xFFFFFFFFL;
+	}
+
+	static long getUint64(ByteBuffer buffer, int offset) {
+		return getUint32(buffer, offset) | getUint32(buffer, offset + 4) << 32;
+	}
+
+	/**
+	 * Read a fixed width, zero padded UTF-8 string.
+	 */
+	static String getString(ByteBuffer buffer, int offset, int width) {
+		int length = 0;
+		while (length < width && buffer.get(offset + length) != 0) {
+			length++;
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(offset + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Write a string as fixed width, zero padded UTF-8, truncating if it's too long.
+	 */
+	static void putString(ByteBuffer buffer, byte[] utf8, int width) {
+		int length = Math.min(utf8.length, width);
+		buffer.put(utf8, 0, length);
+		for (int i = length; i < width; i++) {
+			buffer.put((byte) 0);
+		}
+	}
+}
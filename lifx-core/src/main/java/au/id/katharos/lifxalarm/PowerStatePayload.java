@@ -1,12 +1,16 @@
 package au.id.katharos.lifxalarm;
 
+import java.nio.ByteBuffer;
+
 /**
  * Payload for a power state packet, indicating if the light is currently
  * on or off.
  */
 public class PowerStatePayload extends Payload {
 
-	private byte[] data = new byte[2];
+	static final int LENGTH = 2;
+
+	private byte[] data = new byte[LENGTH];
 	
 	public PowerStatePayload(boolean powerState) {
 		type = Payload.Type.POWER_STATE;
@@ -17,20 +21,27 @@ public class PowerStatePayload extends Payload {
 	}
 	
 	public PowerStatePayload(byte[] data) {
+		type = Payload.Type.POWER_STATE;
 		this.data = data;
 	}
 
+	PowerStatePayload(ByteBuffer buffer, int offset) {
+		type = Payload.Type.POWER_STATE;
+		data[0] = buffer.get(offset);
+		data[1] = buffer.get(offset + 1);
+	}
+
 	public boolean isOn() {
 		return data[1] == (byte) 0xFF;
 	}
 
 	@Override
-	public byte[] getBytes() {
-		return data;
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put(data, 0, 2);
 	}
 
 	@Override
 	public int getlength() {
-		return 2;
+		return LENGTH;
 	}
 }
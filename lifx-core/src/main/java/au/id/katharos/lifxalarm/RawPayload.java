@@ -0,0 +1,35 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Payload for packet types we don't have a dedicated class for. The bytes are
+ * kept as they arrived so they can be inspected or forwarded.
+ */
+public class RawPayload extends Payload {
+
+	private final byte[] data;
+
+	public RawPayload(byte[] data) {
+		type = Payload.Type.RAW;
+		this.data = data;
+	}
+
+	RawPayload(ByteBuffer buffer, int offset, int length) {
+		type = Payload.Type.RAW;
+		data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = buffer.get(offset + i);
+		}
+	}
+
+	@Override
+	public void encodeTo(ByteBuffer buffer) {
+		buffer.put(data);
+	}
+
+	@Override
+	public int getlength() {
+		return data.length;
+	}
+}
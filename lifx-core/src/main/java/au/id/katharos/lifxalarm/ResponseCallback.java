@@ -0,0 +1,19 @@
+package au.id.katharos.lifxalarm;
+
+/**
+ * Told when a request sent with {@link GatewayConnection#request} completes.
+ *
+ * Both methods are called on the transport thread, so they must be quick and
+ * must not block. Post anything slow (or any UI work) to another thread.
+ */
+public interface ResponseCallback {
+
+	void onResponse(LIFXPacket reply);
+
+	/**
+	 * @param cause A {@link java.util.concurrent.TimeoutException} if no reply
+	 *     arrived before the deadline, or an {@link java.io.IOException} if the
+	 *     connection dropped first.
+	 */
+	void onFailure(Exception cause);
+}
@@ -0,0 +1,164 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A request in flight, waiting for the globe's reply.
+ *
+ * Each request carries its own sequence number (sent in the header's timestamp
+ * field) and its own deadline, so any number can be outstanding on one
+ * connection. A reply is matched on its type, the target globe's MAC and, when
+ * the globe echoes it, the sequence number.
+ */
+public class ResponseFuture extends TransportTimer implements Future<LIFXPacket> {
+
+	private final GatewayConnection connection;
+	private final TransportMetrics metrics;
+	private final LIFXPacket.Type replyType;
+	private final long targetMac;
+	private final long sequence;
+	private final ResponseCallback callback;
+	private final long sentNanos;
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile LIFXPacket reply;
+	private volatile Exception failure;
+
+	ResponseFuture(GatewayConnection connection, TransportMetrics metrics, LIFXPacket request,
+			long sequence, long timeoutMs, ResponseCallback callback) {
+		this.connection = connection;
+		this.metrics = metrics;
+		this.replyType = request.getType().getReplyType();
+		this.targetMac = LIFXPacket.macToLong(request.getTargetMacAddress());
+		this.sequence = sequence;
+		sentNanos = System.nanoTime();
+		setDeadlineNanos(sentNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+		this.callback = callback;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * When the request was queued, in System.nanoTime() terms.
+	 */
+	long getSentNanos() {
+		return sentNanos;
+	}
+
+	/**
+	 * @return True if the packet is the right type of reply from the right globe.
+	 */
+	boolean matches(LIFXPacketView packet) {
+		if (packet.getType() != replyType) {
+			return false;
+		}
+		// An all zero target means any globe will do.
+		return targetMac == 0 || targetMac == packet.getTargetMac();
+	}
+
+	/**
+	 * @return True if the packet matches and also echoes our sequence number.
+	 */
+	boolean matchesExactly(LIFXPacketView packet) {
+		return packet.getTimestamp() == sequence && matches(packet);
+	}
+
+	void complete(LIFXPacket reply) {
+		if (finish(reply, null) && callback != null) {
+			callback.onResponse(reply);
+		}
+	}
+
+	void fail(Exception cause) {
+		if (finish(null, cause) && callback != null) {
+			callback.onFailure(cause);
+		}
+	}
+
+	// Only the first of complete() or fail() wins.
+	private synchronized boolean finish(LIFXPacket reply, Exception failure) {
+		if (done.getCount() == 0) {
+			return false;
+		}
+		this.reply = reply;
+		this.failure = failure;
+		done.countDown();
+		return true;
+	}
+
+	/**
+	 * The deadline passed, so fail the request if it's still waiting.
+	 */
+	@Override
+	void onDeadline() {
+		if (isDone()) {
+			return;
+		}
+		connection.forget(this);
+		metrics.recordTimeout();
+		fail(new TimeoutException("No " + replyType + " reply to request " + sequence));
+	}
+
+	/**
+	 * Wait for the reply.
+	 *
+	 * @return The reply, or null if the request timed out or failed.
+	 */
+	public LIFXPacket awaitReply() {
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return reply;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (isDone()) {
+			return false;
+		}
+		connection.forget(this);
+		fail(new CancellationException());
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return failure instanceof CancellationException;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public LIFXPacket get() throws InterruptedException, ExecutionException {
+		done.await();
+		return result();
+	}
+
+	@Override
+	public LIFXPacket get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return result();
+	}
+
+	private LIFXPacket result() throws ExecutionException {
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return reply;
+	}
+}
@@ -0,0 +1,30 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.concurrent.Future;
+
+/**
+ * Runs background and timed work for the library, in place of Android's
+ * AsyncTask and CountDownTimer. {@link ExecutorScheduler} works everywhere,
+ * but an app can plug in its own (for example to run on its own threads).
+ *
+ * Tasks must not be run on the thread that submitted them, since callers may
+ * wait on the returned future.
+ */
+public interface Scheduler {
+
+	/**
+	 * Run the task in the background as soon as possible.
+	 */
+	Future<?> submit(Runnable task);
+
+	/**
+	 * Run the task once, after the delay.
+	 */
+	Future<?> schedule(Runnable task, long delayMs);
+
+	/**
+	 * Run the task after the initial delay and then every period until the
+	 * returned future is cancelled.
+	 */
+	Future<?> scheduleAtFixedRate(Runnable task, long initialDelayMs, long periodMs);
+}
@@ -0,0 +1,243 @@
+package au.id.katharos.lifxalarm;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces packets to each globe so none of them get more than they can handle.
+ *
+ * LIFX globes start dropping messages at around 20 a second, so every target
+ * MAC gets its own token bucket. Packets that can go now are sent straight
+ * away; the rest wait in that globe's queue until a token frees up.
+ *
+ * Colour and dim changes share one "latest light state" slot: while the
+ * newest packet queued for a globe is one of them, a newer one replaces it,
+ * since only the latest state matters. Nothing jumps over anything else, so
+ * a colour queued after a power change stays after it. Everything else,
+ * power in particular, is never coalesced away; it's queued in order, up to
+ * a limit per globe, after which new packets are refused.
+ */
+public class SendScheduler {
+
+	public static final int DEFAULT_RATE_PER_SECOND = 20;
+	public static final int DEFAULT_BURST = 4;
+	private static final int MAX_QUEUED_PER_BULB = 16;
+
+	private final GatewayConnection connection;
+	private final LIFXTransport transport;
+	private final long intervalNanos;
+	private final long burstNanos;
+
+	// All guarded by this.
+	private final LongMap<Bulb> bulbs = new LongMap<Bulb>();
+	private final List<Bulb> backlogged = new ArrayList<Bulb>();
+	// True from scheduling the wake timer until it fires.
+	private boolean wakeScheduled;
+	// When the wake timer should fire. Can be earlier than its deadline until
+	// moveWake has run.
+	private long wakeAtNanos;
+	private boolean moveWakePosted;
+
+	private final TransportTimer wakeTimer = new TransportTimer() {
+		@Override
+		void onDeadline() {
+			drain();
+		}
+	};
+	private final Runnable moveWake = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (SendScheduler.this) {
+				moveWakePosted = false;
+				if (wakeScheduled && wakeTimer.getDeadlineNanos() != wakeAtNanos
+						&& transport.cancel(wakeTimer)) {
+					wakeTimer.setDeadlineNanos(wakeAtNanos);
+					transport.schedule(wakeTimer);
+				}
+			}
+		}
+	};
+
+	private long sentCount;
+	private long coalescedCount;
+	private long rejectedCount;
+
+	/**
+	 * Queue and token bucket for one globe. The bucket is kept as the earliest
+	 * time the next packet could go if there were no burst allowance.
+	 */
+	private static class Bulb {
+		final ArrayDeque<LIFXPacket> queue = new ArrayDeque<LIFXPacket>();
+		long nextSendNanos;
+		boolean inBacklog;
+	}
+
+	public SendScheduler(GatewayConnection connection, LIFXTransport transport) {
+		this(connection, transport, DEFAULT_RATE_PER_SECOND, DEFAULT_BURST);
+	}
+
+	/**
+	 * @param ratePerSecond Steady number of packets each globe may get a second.
+	 * @param burst How many packets a quiet globe may get back to back.
+	 */
+	public SendScheduler(GatewayConnection connection, LIFXTransport transport, int ratePerSecond,
+			int burst) {
+		this.connection = connection;
+		this.transport = transport;
+		this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+		this.burstNanos = (burst - 1) * intervalNanos;
+	}
+
+	/**
+	 * Send the packet as soon as its globe's rate allows. Doesn't block.
+	 *
+	 * @return False if the globe's queue is full and the packet was dropped.
+	 */
+	public boolean submit(LIFXPacket packet) {
+		long mac = LIFXPacket.macToLong(packet.getTargetMacAddress());
+		long now = System.nanoTime();
+		synchronized (this) {
+			Bulb bulb = bulbs.get(mac);
+			if (bulb == null) {
+				bulb = new Bulb();
+				bulb.nextSendNanos = now;
+				bulbs.put(mac, bulb);
+			}
+			if (bulb.queue.isEmpty() && tryAcquire(bulb, now)) {
+				send(packet);
+				return true;
+			}
+			if (isCoalescable(packet.getType()) && replaceQueued(bulb, packet)) {
+				coalescedCount++;
+				return true;
+			}
+			if (bulb.queue.size() >= MAX_QUEUED_PER_BULB) {
+				rejectedCount++;
+				LIFXLog.w("SendScheduler", "Queue full, dropping %s", packet.getType());
+				return false;
+			}
+			bulb.queue.add(packet);
+			if (!bulb.inBacklog) {
+				bulb.inBacklog = true;
+				backlogged.add(bulb);
+			}
+			wakeAt(availableAt(bulb));
+		}
+		return true;
+	}
+
+	public synchronized long getSentCount() {
+		return sentCount;
+	}
+
+	public synchronized long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	public synchronized int getQueuedCount() {
+		int queued = 0;
+		for (Bulb bulb : backlogged) {
+			queued += bulb.queue.size();
+		}
+		return queued;
+	}
+
+	private static boolean isCoalescable(LIFXPacket.Type type) {
+		return type == LIFXPacket.Type.SET_LIGHT_COLOR || type == LIFXPacket.Type.SET_DIM_ABSOLUTE;
+	}
+
+	/**
+	 * Put the packet in place of the newest queued one, if that's also a light
+	 * state change. Anything older, or behind a packet that isn't, has to go
+	 * out in order.
+	 *
+	 * @return False if there was nothing to replace.
+	 */
+	private boolean replaceQueued(Bulb bulb, LIFXPacket packet) {
+		LIFXPacket last = bulb.queue.peekLast();
+		if (last == null || !isCoalescable(last.getType())) {
+			return false;
+		}
+		bulb.queue.pollLast();
+		bulb.queue.add(packet);
+		return true;
+	}
+
+	// Must hold this.
+	private boolean tryAcquire(Bulb bulb, long now) {
+		long next = Math.max(bulb.nextSendNanos, now);
+		if (next - now > burstNanos) {
+			return false;
+		}
+		bulb.nextSendNanos = next + intervalNanos;
+		return true;
+	}
+
+	private long availableAt(Bulb bulb) {
+		return bulb.nextSendNanos - burstNanos;
+	}
+
+	// Must hold this.
+	private void send(LIFXPacket packet) {
+		try {
+			connection.send(packet);
+			sentCount++;
+		} catch (IOException e) {
+			LIFXLog.e("SendScheduler", "Unable to send %s: %s", packet.getType(), e.getMessage());
+			connection.reportDropped(packet);
+		}
+	}
+
+	// Must hold this.
+	private void wakeAt(long at) {
+		if (!wakeScheduled) {
+			wakeScheduled = true;
+			wakeAtNanos = at;
+			wakeTimer.setDeadlineNanos(at);
+			transport.schedule(wakeTimer);
+		} else if (at - wakeAtNanos < 0) {
+			// The timer can only be moved on the transport thread.
+			wakeAtNanos = at;
+			if (!moveWakePosted) {
+				moveWakePosted = true;
+				transport.execute(moveWake);
+			}
+		}
+	}
+
+	/**
+	 * Send whatever the buckets allow now and plan the next wake up.
+	 * Runs on the transport thread.
+	 */
+	private synchronized void drain() {
+		long now = System.nanoTime();
+		wakeScheduled = false;
+		long nextWake = 0;
+		boolean more = false;
+		Iterator<Bulb> it = backlogged.iterator();
+		while (it.hasNext()) {
+			Bulb bulb = it.next();
+			while (!bulb.queue.isEmpty() && tryAcquire(bulb, now)) {
+				send(bulb.queue.poll());
+			}
+			if (bulb.queue.isEmpty()) {
+				bulb.inBacklog = false;
+				it.remove();
+			} else if (!more || availableAt(bulb) - nextWake < 0) {
+				nextWake = availableAt(bulb);
+				more = true;
+			}
+		}
+		if (more) {
+			wakeAt(nextWake);
+		}
+	}
+}
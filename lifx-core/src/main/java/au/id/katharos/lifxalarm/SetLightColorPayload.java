@@ -14,16 +14,17 @@ import java.nio.ByteOrder;
  * uint16 saturation;  // LE
  * uint16 brightness;  // LE
  * uint16 kelvin;      // LE i.e. colour temperature (whites wheel in apps)
- * uint32 fade_time;   // LE Length of fade action, I've not worked out what the time unit is.
+ * uint32 fade_time;   // LE Length of fade action in milliseconds.
  */
 public class SetLightColorPayload extends Payload {
 
-	private static final int LENGTH = 13;
+	static final int LENGTH = 13;
 	private static final int MAX_SHORT = (1 << 16) - 1;
 	
 	private int hue;
 	private int saturation;
 	private int brightness;
+	private int kelvin;
 
 	private int fade_time;
 
@@ -33,20 +34,36 @@ public class SetLightColorPayload extends Payload {
 	 * @param hue A number in the range 0-360 indicating the hue.
 	 * @param saturation 0 to 100
 	 * @param brightness 0 to 100
-	 * @param time A 4-byte int, units unknown.
+	 * @param time How long the globe takes to fade to the colour, in milliseconds.
 	 */
 	public SetLightColorPayload(int hue, int saturation, int brightness, int time) {
+		this(hue, saturation, brightness, 0, time);
+	}
+
+	/**
+	 * @param kelvin Colour temperature of the whites, 0 to leave it to the globe.
+	 */
+	public SetLightColorPayload(int hue, int saturation, int brightness, int kelvin, int time) {
 		type = Payload.Type.SET_LIGHT_COLOR;
 		this.hue = hue;
 		this.saturation = saturation;
 		this.brightness = brightness;
-		this.fade_time = time; // units??
+		this.kelvin = kelvin;
+		this.fade_time = time;
+	}
+
+	SetLightColorPayload(ByteBuffer buffer, int offset) {
+		type = Payload.Type.SET_LIGHT_COLOR;
+		this.hue = (int) Math.round(getUint16(buffer, offset + 1) * 360.0 / MAX_SHORT);
+		this.saturation = (int) Math.round(getUint16(buffer, offset + 3) * 100.0 / MAX_SHORT);
+		this.brightness = (int) Math.round(getUint16(buffer, offset + 5) * 100.0 / MAX_SHORT);
+		this.kelvin = getUint16(buffer, offset + 7);
+		this.fade_time = (int) getUint32(buffer, offset + 9);
 	}
 		
 	@Override
-	public byte[] getBytes() {
-		
-		ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+	public void encodeTo(ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
 		buffer.order(ByteOrder.LITTLE_ENDIAN);
 
 		// stream
@@ -56,12 +73,12 @@ public class SetLightColorPayload extends Payload {
 		buffer.putShort((short) (hue / 360.0 * MAX_SHORT));
 		buffer.putShort((short) (saturation / 100.0 * MAX_SHORT));
 		buffer.putShort((short) (brightness / 100.0 * MAX_SHORT));
-		buffer.putShort((short) 0);
+		buffer.putShort((short) kelvin);
 		
 		// fade time (4 bytes)
 		buffer.putInt(fade_time);
 
-		return buffer.array();
+		buffer.order(order);
 	}
 
 	@Override
@@ -69,8 +86,24 @@ public class SetLightColorPayload extends Payload {
 		return LENGTH;
 	}
 	
-	int getBrightness() {
+	public int getHue() {
+		return hue;
+	}
+
+	public int getSaturation() {
+		return saturation;
+	}
+
+	public int getBrightness() {
 		return brightness;
 	}
 
+	public int getKelvin() {
+		return kelvin;
+	}
+
+	public int getFadeTime() {
+		return fade_time;
+	}
+
 }
@@ -0,0 +1,75 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Payload for the set dim packets, which change brightness without touching
+ * the colour.
+ *
+ * Format (absolute):
+ * int16 brightness;   // LE
+ * uint32 duration;    // LE
+ *
+ * Format (relative):
+ * int32 brightness;   // LE, added to the current brightness
+ * uint32 duration;    // LE
+ */
+public class SetLightDimPayload extends Payload {
+
+	static final int ABSOLUTE_LENGTH = 6;
+	static final int RELATIVE_LENGTH = 8;
+
+	private final boolean relative;
+	private final int brightness;
+	private final long duration;
+
+	public SetLightDimPayload(boolean relative, int brightness, long duration) {
+		type = relative ? Payload.Type.SET_LIGHT_DIM_RELATIVE : Payload.Type.SET_LIGHT_DIM;
+		this.relative = relative;
+		this.brightness = brightness;
+		this.duration = duration;
+	}
+
+	SetLightDimPayload(ByteBuffer buffer, int offset, boolean relative) {
+		type = relative ? Payload.Type.SET_LIGHT_DIM_RELATIVE : Payload.Type.SET_LIGHT_DIM;
+		this.relative = relative;
+		if (relative) {
+			brightness = (int) getUint32(buffer, offset);
+			duration = getUint32(buffer, offset + 4);
+		} else {
+			brightness = (short) getUint16(buffer, offset);
+			duration = getUint32(buffer, offset + 2);
+		}
+	}
+
+	public boolean isRelative() {
+		return relative;
+	}
+
+	public int getBrightness() {
+		return brightness;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	@Override
+	public void encodeTo(ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (relative) {
+			buffer.putInt(brightness);
+		} else {
+			buffer.putShort((short) brightness);
+		}
+		buffer.putInt((int) duration);
+		buffer.order(order);
+	}
+
+	@Override
+	public int getlength() {
+		return relative ? RELATIVE_LENGTH : ABSOLUTE_LENGTH;
+	}
+}
@@ -0,0 +1,243 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timer to control the Sunrise sequence of colours and brightness.
+ * 
+ * Starting runs a {@link WarmUp} first, and the sequence's clock starts once
+ * the light has been told to turn on. Colours are sent by a
+ * {@link FadePlayer} at their own deadlines, and progress ticks every update
+ * interval, all on the given {@link Scheduler} rather than the UI thread.
+ */
+public class SunriseCounter {
+	
+	/**
+	 * Told how far through the sunrise we are after every step.
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param progress Steps done so far, out of 1000. Called on the scheduler's thread.
+		 */
+		void onProgress(int progress);
+	}
+	
+	// Compiled once, shared by every sunrise.
+	private static final TransitionTable SUNRISE = TransitionProfile.SUNRISE.compile(1000);
+	
+	private static final int TOTAL_SUNRISE_TIME_MS = SUNRISE.getDurationMs(); // 20 min total sequence time.
+	private static final int UPDATE_INTERVAL_MS = 5000; // update very 5 sec 
+	
+	private byte[] mac;
+	private LIFXConnectionKeeper connKeeper;
+	private Scheduler scheduler;
+	private volatile ProgressListener progressListener;
+	private KeyframePlanner planner;
+	
+	private volatile long finishAtNanos;
+	private Future<?> ticker;
+	
+	private final Runnable tick = new Runnable() {
+		@Override
+		public void run() {
+			long millisUntilFinished = TimeUnit.NANOSECONDS.toMillis(finishAtNanos - System.nanoTime());
+			if (millisUntilFinished <= 0) {
+				// Leave the player be, in case it's still catching up on the last frame.
+				stopTicking();
+				onFinish();
+			} else {
+				onTick(millisUntilFinished);
+			}
+		}
+	};
+
+	private FadeSequence sequence;
+	private FadePlayer player;
+	private WarmUp warmUp;
+	// Between start and cancel, so a warm up finishing late can't restart a cancelled sunrise.
+	private boolean running;
+	
+	// The first frame, built ahead of time by prepare().
+	private volatile LIFXPacket firstFrame;
+	
+	private final WarmUp.Listener warmUpListener = new WarmUp.Listener() {
+		@Override
+		public void onPrepared(byte[] mac) {
+			firstFrame = sequence.buildPacket(0, mac);
+		}
+
+		@Override
+		public void onReady(byte[] mac) {
+			// Use the gateway globe, since I only have one.
+			// In future, we'll need a better way of selecting the globe in the UI.
+			SunriseCounter.this.mac = mac;
+			startSequence();
+		}
+
+		@Override
+		public void onFailed(WarmUp.Stage stage) {
+			if (stage == WarmUp.Stage.CONFIRM) {
+				// The sunrise is already underway, the light may just be slow to say so.
+				LIFXLog.e("SunriseCounter", "Light didn't confirm it turned on.");
+			}
+		}
+	};
+	
+	private final FadePlayer.Target target = new FadePlayer.Target() {
+		@Override
+		public void fadeTo(FadeSequence sequence, int frame, int fadeMs) {
+			if (LIFXLog.isLoggable(LIFXLog.DEBUG)) {
+				LIFXLog.d("Sunrise", "Fading to brightness %d over %dms",
+						sequence.getBrightness(frame), fadeMs);
+			}
+			LIFXPacket packet = firstFrame;
+			if (frame != 0 || fadeMs != sequence.getFadeMs(0) || packet == null
+					|| !Arrays.equals(packet.getTargetMacAddress(), mac)) {
+				packet = sequence.buildPacket(frame, mac, fadeMs);
+			}
+			// Doesn't block, and replaces any colour still waiting to go out.
+			connKeeper.schedulePacket(packet);
+		}
+	};
+	
+	/**
+	 * @param progressListener May be null.
+	 */
+	public SunriseCounter(LIFXConnectionKeeper connKeeper, Scheduler scheduler,
+			ProgressListener progressListener) {
+		this(connKeeper, scheduler, progressListener, new KeyframePlanner());
+	}
+	
+	/**
+	 * @param planner Decides how closely the globe's own fades must follow the curve.
+	 */
+	public SunriseCounter(LIFXConnectionKeeper connKeeper, Scheduler scheduler,
+			ProgressListener progressListener, KeyframePlanner planner) {
+		this.connKeeper = connKeeper != null ? connKeeper : LIFXConnectionKeeper.getInstance();
+		this.scheduler = scheduler;
+		this.progressListener = progressListener;
+		this.planner = planner;
+		buildSequence();
+		warmUp = new WarmUp(this.connKeeper, scheduler, warmUpListener);
+	}
+	
+	/**
+	 * Only builds the sequence for the given globe, without connecting or
+	 * sending anything. For benchmarks.
+	 */
+	SunriseCounter(byte[] mac) {
+		this.mac = mac;
+		this.planner = new KeyframePlanner();
+		buildSequence();
+	}
+	
+	private void buildSequence() {
+		// At each keyframe, have the globe fade to the next one by the time it's due.
+		sequence = FadeSequence.plan(SUNRISE, UPDATE_INTERVAL_MS, planner);
+		if (scheduler != null) {
+			player = new FadePlayer(sequence, scheduler, target);
+		}
+	}
+	
+	FadeSequence getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * How far the light got towards coming on, and when.
+	 */
+	public WarmUp getWarmUp() {
+		return warmUp;
+	}
+
+	/**
+	 * @param progressListener May be null. Replaces the one given to the constructor.
+	 */
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+	
+	/**
+	 * Do the slow parts of the warm up ahead of the alarm, so that {@link #start()}
+	 * gets light to the globe straight away. Returns straight away.
+	 */
+	public synchronized void prepare() {
+		warmUp.prepare();
+	}
+
+	/**
+	 * @param done Run once the prepare is over, whether or not it found the
+	 *     light. See {@link WarmUp#prepare(Runnable)}.
+	 */
+	public synchronized void prepare(Runnable done) {
+		warmUp.prepare(done);
+	}
+	
+	/**
+	 * Warm up the light and then start the sequence, returning straight away.
+	 */
+	public synchronized void start() {
+		cancel();
+		running = true;
+		warmUp.start();
+	}
+	
+	/**
+	 * Start the sequence, ticking straight away and then every update interval.
+	 */
+	private synchronized void startSequence() {
+		if (!running) {
+			return;
+		}
+		finishAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TOTAL_SUNRISE_TIME_MS);
+		player.start();
+		ticker = scheduler.scheduleAtFixedRate(tick, 0, UPDATE_INTERVAL_MS);
+	}
+	
+	/**
+	 * Stop the sequence, or the warm up if it hasn't got that far. Colours
+	 * already sent stay as they are.
+	 */
+	public synchronized void cancel() {
+		running = false;
+		if (warmUp != null) {
+			warmUp.cancel();
+		}
+		if (player != null) {
+			player.cancel();
+		}
+		stopTicking();
+	}
+	
+	private synchronized void stopTicking() {
+		if (ticker != null) {
+			ticker.cancel(false);
+			ticker = null;
+		}
+	}
+
+	private void onFinish() {
+		LIFXLog.i("SunriseCounter", "Finished - the Sun is up!");
+		ProgressListener listener = progressListener;
+		if (listener != null) {
+			listener.onProgress(1000);
+		}
+		LIFXLog.i("SunriseCounter", "There were %d frames left and %d skipped. Lateness: %s",
+				player.getRemaining(), player.getSkipped(), player.getLateness());
+	}
+
+	private void onTick(long millisUntilFinished) {
+		if (LIFXLog.isLoggable(LIFXLog.DEBUG)) {
+			LIFXLog.d("Sunrise", "TICK! Time is: %d, frames left: %d", millisUntilFinished,
+					player.getRemaining());
+		}
+		// Keyframes are minutes apart, so report progress by time, not by steps.
+		ProgressListener listener = progressListener;
+		if (listener != null) {
+			listener.onProgress((int) (1000 * (TOTAL_SUNRISE_TIME_MS - millisUntilFinished)
+					/ TOTAL_SUNRISE_TIME_MS));
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Payload for getting or setting the label of one or more tags.
+ *
+ * Format:
+ * uint64 tags;        // LE bitfield
+ * char label[32];     // UTF-8, zero padded
+ */
+public class TagLabelsPayload extends Payload {
+
+	static final int LENGTH = 40;
+
+	private final long tags;
+	private final String label;
+
+	public TagLabelsPayload(long tags, String label) {
+		type = Payload.Type.TAG_LABELS;
+		this.tags = tags;
+		this.label = label;
+	}
+
+	TagLabelsPayload(ByteBuffer buffer, int offset) {
+		type = Payload.Type.TAG_LABELS;
+		tags = getUint64(buffer, offset);
+		label = getString(buffer, offset + 8, LabelPayload.LENGTH);
+	}
+
+	public long getTags() {
+		return tags;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	@Override
+	public void encodeTo(ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putLong(tags);
+		putString(buffer, label.getBytes(UTF8), LabelPayload.LENGTH);
+		buffer.order(order);
+	}
+
+	@Override
+	public int getlength() {
+		return LENGTH;
+	}
+}
@@ -0,0 +1,44 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Payload for getting or setting the tags (groups) a bulb belongs to.
+ *
+ * Format:
+ * uint64 tags;        // LE bitfield, one bit per tag
+ */
+public class TagsPayload extends Payload {
+
+	static final int LENGTH = 8;
+
+	private final long tags;
+
+	public TagsPayload(long tags) {
+		type = Payload.Type.TAGS;
+		this.tags = tags;
+	}
+
+	TagsPayload(ByteBuffer buffer, int offset) {
+		type = Payload.Type.TAGS;
+		tags = getUint64(buffer, offset);
+	}
+
+	public long getTags() {
+		return tags;
+	}
+
+	@Override
+	public void encodeTo(ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putLong(tags);
+		buffer.order(order);
+	}
+
+	@Override
+	public int getlength() {
+		return LENGTH;
+	}
+}
@@ -0,0 +1,121 @@
+package au.id.katharos.lifxalarm;
+
+/**
+ * How a globe's hue, saturation, brightness and kelvin change over a
+ * transition such as a sunrise. Each channel moves from a start value to an
+ * end value along its own {@link Curve}.
+ *
+ * Compile a profile into a {@link TransitionTable} to look colours up.
+ */
+public class TransitionProfile {
+
+	/**
+	 * Dawn: brightness rises along a sigmoid, going from deep red to yellow in
+	 * the first half while the colour washes out towards white.
+	 */
+	public static final TransitionProfile SUNRISE;
+
+	static {
+		Curve dawn = Curve.sigmoid(10);
+		SUNRISE = new Builder(20 * 60 * 1000)
+			.brightness(0, 100, dawn)
+			.hue(0, 60, dawn.upTo(0.5))
+			.saturation(100, 20, dawn.upTo(0.8))
+			.build();
+	}
+
+	/**
+	 * Builds a profile. Channels not given stay at 0.
+	 */
+	public static class Builder {
+		private final int durationMs;
+		private final int[] from = new int[4];
+		private final int[] to = new int[4];
+		private final Curve[] curves = {Curve.LINEAR, Curve.LINEAR, Curve.LINEAR, Curve.LINEAR};
+
+		public Builder(int durationMs) {
+			if (durationMs <= 0) {
+				throw new IllegalArgumentException("Duration must be positive: " + durationMs);
+			}
+			this.durationMs = durationMs;
+		}
+
+		/**
+		 * @param from Degrees, 0 to 360. Not wrapped, so go 300 to 360 rather than 300 to 0.
+		 */
+		public Builder hue(int from, int to, Curve curve) {
+			return channel(HUE, from, to, 360, curve);
+		}
+
+		/**
+		 * @param from Percent.
+		 */
+		public Builder saturation(int from, int to, Curve curve) {
+			return channel(SATURATION, from, to, 100, curve);
+		}
+
+		/**
+		 * @param from Percent.
+		 */
+		public Builder brightness(int from, int to, Curve curve) {
+			return channel(BRIGHTNESS, from, to, 100, curve);
+		}
+
+		/**
+		 * A colour temperature ramp, e.g. 2500 to 6500.
+		 */
+		public Builder kelvin(int from, int to, Curve curve) {
+			return channel(KELVIN, from, to, 0xFFFF, curve);
+		}
+
+		private Builder channel(int channel, int from, int to, int max, Curve curve) {
+			if (from < 0 || from > max || to < 0 || to > max) {
+				throw new IllegalArgumentException("Out of range 0-" + max + ": " + from + " to " + to);
+			}
+			this.from[channel] = from;
+			this.to[channel] = to;
+			this.curves[channel] = curve;
+			return this;
+		}
+
+		public TransitionProfile build() {
+			return new TransitionProfile(this);
+		}
+	}
+
+	static final int HUE = 0;
+	static final int SATURATION = 1;
+	static final int BRIGHTNESS = 2;
+	static final int KELVIN = 3;
+
+	private final int durationMs;
+	private final int[] from;
+	private final int[] to;
+	private final Curve[] curves;
+
+	private TransitionProfile(Builder builder) {
+		durationMs = builder.durationMs;
+		from = builder.from.clone();
+		to = builder.to.clone();
+		curves = builder.curves.clone();
+	}
+
+	public int getDurationMs() {
+		return durationMs;
+	}
+
+	/**
+	 * The channel's exact value at the given fraction of the way through.
+	 */
+	double valueAt(int channel, double t) {
+		return from[channel] + (to[channel] - from[channel]) * curves[channel].valueAt(t);
+	}
+
+	/**
+	 * Sample every channel once per step, so that looking a colour up later is
+	 * just an array index.
+	 */
+	public TransitionTable compile(int stepMs) {
+		return new TransitionTable(this, stepMs);
+	}
+}
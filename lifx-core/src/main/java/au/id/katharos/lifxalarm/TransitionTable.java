@@ -0,0 +1,101 @@
+package au.id.katharos.lifxalarm;
+
+/**
+ * A {@link TransitionProfile} sampled at a fixed step, for constant time
+ * colour lookups.
+ *
+ * Each entry is one long holding the four channels in the globe's own 16 bit
+ * units: hue, saturation, brightness and kelvin from the top down. Hue,
+ * saturation and brightness are fractions of 0xFFFF, kelvin is as is. The
+ * static getters turn an entry back into degrees and percent.
+ */
+public class TransitionTable {
+
+	private static final int MAX_SHORT = 0xFFFF;
+
+	private final int durationMs;
+	private final int stepMs;
+	private final long[] entries;
+
+	TransitionTable(TransitionProfile profile, int stepMs) {
+		if (stepMs <= 0) {
+			throw new IllegalArgumentException("Step must be positive: " + stepMs);
+		}
+		this.durationMs = profile.getDurationMs();
+		this.stepMs = stepMs;
+		int steps = (durationMs + stepMs - 1) / stepMs;
+		entries = new long[steps + 1];
+		for (int i = 0; i <= steps; i++) {
+			// The last step may be short, so make sure it lands exactly on the end.
+			double t = Math.min(1.0, (double) i * stepMs / durationMs);
+			entries[i] = pack(
+					toShort(profile.valueAt(TransitionProfile.HUE, t) / 360),
+					toShort(profile.valueAt(TransitionProfile.SATURATION, t) / 100),
+					toShort(profile.valueAt(TransitionProfile.BRIGHTNESS, t) / 100),
+					(int) Math.round(profile.valueAt(TransitionProfile.KELVIN, t)));
+		}
+	}
+
+	private static int toShort(double fraction) {
+		return (int) Math.round(Math.max(0, Math.min(1, fraction)) * MAX_SHORT);
+	}
+
+	static long pack(int hue, int saturation, int brightness, int kelvin) {
+		return (long) hue << 48 | (long) saturation << 32 | (long) brightness << 16 | kelvin;
+	}
+
+	/**
+	 * The colour at the given time, from the last step at or before it.
+	 * Times outside the transition get its first or last colour.
+	 */
+	public long lookup(long elapsedMs) {
+		if (elapsedMs <= 0) {
+			return entries[0];
+		}
+		if (elapsedMs >= durationMs) {
+			return entries[entries.length - 1];
+		}
+		return entries[(int) (elapsedMs / stepMs)];
+	}
+
+	public int getDurationMs() {
+		return durationMs;
+	}
+
+	public int getStepMs() {
+		return stepMs;
+	}
+
+	public int size() {
+		return entries.length;
+	}
+
+	/**
+	 * In degrees, 0 to 360.
+	 */
+	public static int getHue(long entry) {
+		return scale(entry >>> 48, 360);
+	}
+
+	/**
+	 * In percent.
+	 */
+	public static int getSaturation(long entry) {
+		return scale((entry >>> 32) & MAX_SHORT, 100);
+	}
+
+	/**
+	 * In percent.
+	 */
+	public static int getBrightness(long entry) {
+		return scale((entry >>> 16) & MAX_SHORT, 100);
+	}
+
+	public static int getKelvin(long entry) {
+		return (int) (entry & MAX_SHORT);
+	}
+
+	private static int scale(long value, int max) {
+		return (int) ((value * max + MAX_SHORT / 2) / MAX_SHORT);
+	}
+}
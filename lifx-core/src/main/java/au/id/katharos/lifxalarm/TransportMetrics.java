@@ -0,0 +1,268 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for one {@link LIFXTransport} and every
+ * gateway connection on it. Everything is updated with atomic increments,
+ * so recording is cheap and safe from any thread.
+ *
+ * Take a {@link #snapshot()} to read a consistent-ish set of numbers, or
+ * print one to dump them all.
+ */
+public class TransportMetrics {
+
+	private final LatencyHistogram discoveryLatency = new LatencyHistogram();
+	private final AtomicLong discoveryAttempts = new AtomicLong();
+	private final AtomicLong discoveryFailures = new AtomicLong();
+
+	private final LatencyHistogram connectLatency = new LatencyHistogram();
+	private final LatencyHistogram writeLatency = new LatencyHistogram();
+	private final LatencyHistogram responseLatency = new LatencyHistogram();
+
+	private final AtomicLongArray packetsSent = new AtomicLongArray(LIFXPacket.Type.values().length);
+	private final AtomicLongArray packetsReceived = new AtomicLongArray(LIFXPacket.Type.values().length);
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	private final AtomicLong connects = new AtomicLong();
+	private final AtomicLong reconnects = new AtomicLong();
+	private final AtomicLong disconnects = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong writesSuppressed = new AtomicLong();
+	private final AtomicLong sendErrors = new AtomicLong();
+	private final AtomicLong writesDropped = new AtomicLong();
+	private final AtomicLong bytesDropped = new AtomicLong();
+
+	void recordDiscovery(long nanos, int attempts, boolean found) {
+		discoveryLatency.record(nanos);
+		discoveryAttempts.addAndGet(attempts);
+		if (!found) {
+			discoveryFailures.incrementAndGet();
+		}
+	}
+
+	void recordConnect(long nanos, boolean reconnect) {
+		connectLatency.record(nanos);
+		connects.incrementAndGet();
+		if (reconnect) {
+			reconnects.incrementAndGet();
+		}
+	}
+
+	void recordDisconnect() {
+		disconnects.incrementAndGet();
+	}
+
+	void recordWrite(long queuedNanos) {
+		writeLatency.record(queuedNanos);
+	}
+
+	void recordResponse(long nanos) {
+		responseLatency.record(nanos);
+	}
+
+	void recordTimeout() {
+		timeouts.incrementAndGet();
+	}
+
+	void recordSuppressed() {
+		writesSuppressed.incrementAndGet();
+	}
+
+	void recordSendError() {
+		sendErrors.incrementAndGet();
+	}
+
+	void recordDroppedWrite(int bytes) {
+		writesDropped.incrementAndGet();
+		bytesDropped.addAndGet(bytes);
+	}
+
+	void packetSent(LIFXPacket.Type type) {
+		packetsSent.incrementAndGet(type.ordinal());
+	}
+
+	void packetReceived(LIFXPacket.Type type) {
+		packetsReceived.incrementAndGet(type.ordinal());
+	}
+
+	void bytesSent(int count) {
+		bytesSent.addAndGet(count);
+	}
+
+	void bytesReceived(int count) {
+		bytesReceived.addAndGet(count);
+	}
+
+	/**
+	 * How long each discovery took, from the first broadcast to finding a
+	 * gateway or giving up.
+	 */
+	public LatencyHistogram getDiscoveryLatency() {
+		return discoveryLatency;
+	}
+
+	public long getDiscoveryAttempts() {
+		return discoveryAttempts.get();
+	}
+
+	public long getDiscoveryFailures() {
+		return discoveryFailures.get();
+	}
+
+	/**
+	 * From opening the socket to the TCP connection being established.
+	 */
+	public LatencyHistogram getConnectLatency() {
+		return connectLatency;
+	}
+
+	/**
+	 * From a packet being queued on an idle connection to the queue being
+	 * written out, including any flush window.
+	 */
+	public LatencyHistogram getWriteLatency() {
+		return writeLatency;
+	}
+
+	/**
+	 * From a request being queued to its reply being matched.
+	 */
+	public LatencyHistogram getResponseLatency() {
+		return responseLatency;
+	}
+
+	public long getPacketsSent(LIFXPacket.Type type) {
+		return packetsSent.get(type.ordinal());
+	}
+
+	public long getPacketsReceived(LIFXPacket.Type type) {
+		return packetsReceived.get(type.ordinal());
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public long getConnects() {
+		return connects.get();
+	}
+
+	/**
+	 * Connections made again after an earlier one to the same gateway dropped.
+	 */
+	public long getReconnects() {
+		return reconnects.get();
+	}
+
+	public long getDisconnects() {
+		return disconnects.get();
+	}
+
+	/**
+	 * Requests that got no reply before their deadline.
+	 */
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	/**
+	 * Writes not sent because the globe was already in the state they asked for.
+	 */
+	public long getWritesSuppressed() {
+		return writesSuppressed.get();
+	}
+
+	/**
+	 * Datagrams the socket refused, e.g. to a broadcast address with no route.
+	 */
+	public long getSendErrors() {
+		return sendErrors.get();
+	}
+
+	/**
+	 * Times a dropped connection threw away packets that were queued but not
+	 * yet written.
+	 */
+	public long getWritesDropped() {
+		return writesDropped.get();
+	}
+
+	public long getBytesDropped() {
+		return bytesDropped.get();
+	}
+
+	/**
+	 * @return A copy that doesn't change as more is recorded.
+	 */
+	public TransportMetrics snapshot() {
+		TransportMetrics copy = new TransportMetrics();
+		copy.discoveryLatency.copyFrom(discoveryLatency);
+		copy.discoveryAttempts.set(discoveryAttempts.get());
+		copy.discoveryFailures.set(discoveryFailures.get());
+		copy.connectLatency.copyFrom(connectLatency);
+		copy.writeLatency.copyFrom(writeLatency);
+		copy.responseLatency.copyFrom(responseLatency);
+		for (int i = 0; i < packetsSent.length(); i++) {
+			copy.packetsSent.set(i, packetsSent.get(i));
+			copy.packetsReceived.set(i, packetsReceived.get(i));
+		}
+		copy.bytesSent.set(bytesSent.get());
+		copy.bytesReceived.set(bytesReceived.get());
+		copy.connects.set(connects.get());
+		copy.reconnects.set(reconnects.get());
+		copy.disconnects.set(disconnects.get());
+		copy.timeouts.set(timeouts.get());
+		copy.writesSuppressed.set(writesSuppressed.get());
+		copy.sendErrors.set(sendErrors.get());
+		copy.writesDropped.set(writesDropped.get());
+		copy.bytesDropped.set(bytesDropped.get());
+		return copy;
+	}
+
+	/**
+	 * Every metric, one "name value" per line. Packet types that were never
+	 * seen are left out.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		line(out, "discovery.latency", discoveryLatency);
+		line(out, "discovery.attempts", discoveryAttempts.get());
+		line(out, "discovery.failures", discoveryFailures.get());
+		line(out, "connect.latency", connectLatency);
+		line(out, "write.latency", writeLatency);
+		line(out, "response.latency", responseLatency);
+		line(out, "connects", connects.get());
+		line(out, "reconnects", reconnects.get());
+		line(out, "disconnects", disconnects.get());
+		line(out, "timeouts", timeouts.get());
+		line(out, "writes.suppressed", writesSuppressed.get());
+		line(out, "send.errors", sendErrors.get());
+		line(out, "writes.dropped", writesDropped.get());
+		line(out, "bytes.dropped", bytesDropped.get());
+		line(out, "bytes.sent", bytesSent.get());
+		line(out, "bytes.received", bytesReceived.get());
+		for (LIFXPacket.Type type : LIFXPacket.Type.values()) {
+			if (packetsSent.get(type.ordinal()) != 0) {
+				line(out, "packets.sent." + type, packetsSent.get(type.ordinal()));
+			}
+		}
+		for (LIFXPacket.Type type : LIFXPacket.Type.values()) {
+			if (packetsReceived.get(type.ordinal()) != 0) {
+				line(out, "packets.received." + type, packetsReceived.get(type.ordinal()));
+			}
+		}
+		return out.toString();
+	}
+
+	private static void line(StringBuilder out, String name, Object value) {
+		out.append(name).append(' ').append(value).append('\n');
+	}
+}
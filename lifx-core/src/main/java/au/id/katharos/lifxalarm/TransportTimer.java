@@ -0,0 +1,32 @@
+package au.id.katharos.lifxalarm;
+
+/**
+ * Something the {@link LIFXTransport} thread should do at a given time, such
+ * as timing out a request or flushing a delayed write.
+ *
+ * Timers are ordered by deadline. A timer must not be scheduled again until
+ * it has fired, or been taken back with {@link LIFXTransport#cancel}.
+ */
+abstract class TransportTimer implements Comparable<TransportTimer> {
+
+	private long deadlineNanos;
+
+	long getDeadlineNanos() {
+		return deadlineNanos;
+	}
+
+	void setDeadlineNanos(long deadlineNanos) {
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	/**
+	 * Called on the transport thread once the deadline has passed.
+	 */
+	abstract void onDeadline();
+
+	@Override
+	public int compareTo(TransportTimer other) {
+		long diff = deadlineNanos - other.deadlineNanos;
+		return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+	}
+}
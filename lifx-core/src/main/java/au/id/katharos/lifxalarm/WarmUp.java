@@ -0,0 +1,356 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import au.id.katharos.lifxalarm.LIFXPacket.Type;
+
+/**
+ * Gets the gateway globe ready for a sunrise without blocking the caller:
+ * find the gateway, set it dim, turn it on, and wait for it to confirm.
+ *
+ * Stages run on the scheduler's thread, apart from the confirmation which
+ * arrives on the transport thread. Nothing blocks that thread: finding the
+ * gateway is a {@link LIFXConnectionKeeper.GatewaySearch} that carries on
+ * with the next stage when it's done. The dims and the power on go out
+ * together in one write. The listener is told the globe is ready as soon
+ * as they've been sent, since the sunrise's first fades can go out on the
+ * same connection without waiting for the reply. The confirmation only
+ * decides whether the warm-up succeeded.
+ *
+ * The time each stage finished, from {@link #start()}, is kept so the whole
+ * alarm-to-first-light latency can be seen.
+ *
+ * Calling {@link #prepare()} a little before the alarm does the slow parts
+ * early: finding the gateway, connecting to it (the TCP handshake happens
+ * while the rest goes on) and building the packets. It also fetches the
+ * light's current state. start() then only has to send.
+ */
+public class WarmUp {
+
+	public enum Stage {
+		DISCOVER(16000),
+		SET_DIM(0),
+		POWER_ON(0),
+		CONFIRM(2000);
+
+		final long defaultTimeoutMs;
+
+		private Stage(long defaultTimeoutMs) {
+			this.defaultTimeoutMs = defaultTimeoutMs;
+		}
+	}
+
+	public interface Listener {
+		/**
+		 * {@link #prepare()} found the gateway and started connecting to it.
+		 * Called on the scheduler's thread.
+		 */
+		void onPrepared(byte[] mac);
+
+		/**
+		 * The globe has been told to turn on, so frames can start. Called on
+		 * the scheduler's thread.
+		 */
+		void onReady(byte[] mac);
+
+		/**
+		 * A stage didn't finish in time. Called on whichever thread found out;
+		 * for CONFIRM that's after {@link #onReady}.
+		 */
+		void onFailed(Stage stage);
+	}
+
+	// Start dim red, so the globe doesn't flash at whatever it was last set to.
+	private static final SetLightColorPayload DIM = new SetLightColorPayload(0, 80, 0, 2);
+	// Where the power on sits in the burst.
+	private static final int BURST_POWER_ON = 1;
+
+	private final LIFXConnectionKeeper connKeeper;
+	private final Scheduler scheduler;
+	private final Listener listener;
+	private final long[] timeoutsMs = new long[Stage.values().length];
+	private final AtomicLongArray finishedNanos = new AtomicLongArray(Stage.values().length);
+
+	private volatile long startNanos;
+	private volatile boolean cancelled;
+	private Future<?> pending;
+	private LIFXConnectionKeeper.GatewaySearch search;
+	private ResponseFuture powerOn;
+
+	// Built by prepare(), for the gateway with this mac.
+	private volatile byte[] preparedMac;
+	private volatile PacketBatch preparedBurst;
+	private volatile LightStatePayload lightState;
+
+	public WarmUp(LIFXConnectionKeeper connKeeper, Scheduler scheduler, Listener listener) {
+		this.connKeeper = connKeeper;
+		this.scheduler = scheduler;
+		this.listener = listener;
+		for (Stage stage : Stage.values()) {
+			timeoutsMs[stage.ordinal()] = stage.defaultTimeoutMs;
+		}
+	}
+
+	/**
+	 * Only DISCOVER and CONFIRM wait on anything, so only their timeouts matter.
+	 */
+	public void setTimeout(Stage stage, long timeoutMs) {
+		timeoutsMs[stage.ordinal()] = timeoutMs;
+	}
+
+	/**
+	 * Get as much done as possible ahead of {@link #start()}, returning
+	 * straight away. Nothing is sent to the light apart from a state query.
+	 */
+	public void prepare() {
+		prepare(null);
+	}
+
+	/**
+	 * @param done Run on the scheduler's thread once the prepare is over, whether
+	 *     or not it found the light. Not run if the prepare is cancelled first. May
+	 *     be null.
+	 */
+	public synchronized void prepare(final Runnable done) {
+		cancel();
+		cancelled = false;
+		pending = scheduler.submit(new Runnable() {
+			@Override
+			public void run() {
+				runPrepare(done);
+			}
+		});
+	}
+
+	private void runPrepare(final Runnable done) {
+		final long start = System.nanoTime();
+		findGateway(new Runnable() {
+			@Override
+			public void run() {
+				finishPrepare(start);
+				if (done != null) {
+					done.run();
+				}
+			}
+		}, new Runnable() {
+			@Override
+			public void run() {
+				LIFXLog.w("WarmUp", "Couldn't find the light to prepare, the alarm will have to find it itself.");
+				if (done != null) {
+					done.run();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run the next step once there's a gateway, straight away if there already
+	 * is one, or the failure step if none turns up in time.
+	 */
+	private void findGateway(final Runnable found, final Runnable notFound) {
+		if (connKeeper.isConnected()) {
+			found.run();
+			return;
+		}
+		synchronized (this) {
+			if (cancelled) {
+				return;
+			}
+			search = connKeeper.findGateway(timeoutsMs[Stage.DISCOVER.ordinal()], scheduler,
+					new LIFXConnectionKeeper.GatewaySearchCallback() {
+						@Override
+						public void onGatewayFound(byte[] mac) {
+							found.run();
+						}
+
+						@Override
+						public void onGatewayNotFound() {
+							notFound.run();
+						}
+					});
+		}
+	}
+
+	private void finishPrepare(long start) {
+		if (cancelled || !connKeeper.openConnection()) {
+			LIFXLog.w("WarmUp", "Couldn't prepare, the alarm will have to find the light itself.");
+			return;
+		}
+		byte[] mac = connKeeper.getGatewayMac();
+		preparedBurst = buildBurst(mac);
+		preparedMac = mac;
+
+		LIFXPacket getState = new LIFXPacket.Builder(Type.GET_LIGHT_STATE)
+			.setGlobeMac(mac)
+			.build();
+		connKeeper.request(getState, timeoutsMs[Stage.CONFIRM.ordinal()], new ResponseCallback() {
+			@Override
+			public void onResponse(LIFXPacket reply) {
+				if (reply.getPayload() instanceof LightStatePayload) {
+					lightState = (LightStatePayload) reply.getPayload();
+					LIFXLog.i("WarmUp", "Light is %s at brightness %d.",
+							lightState.isOn() ? "on" : "off", lightState.getBrightness());
+				}
+			}
+
+			@Override
+			public void onFailure(Exception cause) {
+				LIFXLog.w("WarmUp", "Light didn't report its state: %s", cause);
+			}
+		});
+		LIFXLog.i("WarmUp", "Prepared in %dms.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		if (!cancelled) {
+			listener.onPrepared(mac);
+		}
+	}
+
+	/**
+	 * The light's state as fetched by {@link #prepare()}, or null.
+	 */
+	public LightStatePayload getLightState() {
+		return lightState;
+	}
+
+	/**
+	 * Start from the top, returning straight away.
+	 */
+	public synchronized void start() {
+		cancel();
+		cancelled = false;
+		for (Stage stage : Stage.values()) {
+			finishedNanos.set(stage.ordinal(), 0);
+		}
+		startNanos = System.nanoTime();
+		pending = scheduler.submit(new Runnable() {
+			@Override
+			public void run() {
+				runStages();
+			}
+		});
+	}
+
+	public synchronized void cancel() {
+		cancelled = true;
+		if (pending != null) {
+			pending.cancel(false);
+			pending = null;
+		}
+		if (search != null) {
+			search.cancel();
+			search = null;
+		}
+		if (powerOn != null) {
+			powerOn.cancel(false);
+			powerOn = null;
+		}
+	}
+
+	private void runStages() {
+		findGateway(new Runnable() {
+			@Override
+			public void run() {
+				runLightStages();
+			}
+		}, new Runnable() {
+			@Override
+			public void run() {
+				fail(Stage.DISCOVER);
+			}
+		});
+	}
+
+	private void runLightStages() {
+		if (cancelled) {
+			return;
+		}
+		finished(Stage.DISCOVER);
+		byte[] mac = connKeeper.getGatewayMac();
+		boolean prepared = Arrays.equals(mac, preparedMac);
+		PacketBatch burst = prepared ? preparedBurst : buildBurst(mac);
+
+		ResponseFuture sent;
+		synchronized (this) {
+			if (cancelled) {
+				return;
+			}
+			long timeoutMs = timeoutsMs[Stage.CONFIRM.ordinal()];
+			sent = powerOn = connKeeper.request(burst, BURST_POWER_ON, timeoutMs, new ResponseCallback() {
+				@Override
+				public void onResponse(LIFXPacket reply) {
+					finished(Stage.CONFIRM);
+					LIFXLog.i("WarmUp", "Light confirmed on %dms after the alarm.",
+							TimeUnit.NANOSECONDS.toMillis(getFinishedNanos(Stage.CONFIRM)));
+				}
+
+				@Override
+				public void onFailure(Exception cause) {
+					if (!(cause instanceof TimeoutException)) {
+						LIFXLog.w("WarmUp", "Power on failed: %s", cause);
+					}
+					fail(Stage.CONFIRM);
+				}
+			});
+		}
+		if (sent == null) {
+			fail(Stage.POWER_ON);
+			return;
+		}
+		finished(Stage.SET_DIM);
+		finished(Stage.POWER_ON);
+		if (!cancelled) {
+			listener.onReady(mac);
+		}
+	}
+
+	/**
+	 * Dim, power on, then dim again, all in one write. The first dim doesn't
+	 * always take while the light is off, so the second makes sure; there's
+	 * no need to wait for the power reply first, it's all on the same stream.
+	 */
+	private static PacketBatch buildBurst(byte[] mac) {
+		LIFXPacket setDim = buildSetDim(mac);
+		return new PacketBatch()
+			.add(setDim)
+			.add(buildTurnOn(mac))
+			.add(setDim);
+	}
+
+	private static LIFXPacket buildSetDim(byte[] mac) {
+		return new LIFXPacket.Builder(Type.SET_LIGHT_COLOR)
+			.setGlobeMac(mac)
+			.setPayload(DIM)
+			.build();
+	}
+
+	private static LIFXPacket buildTurnOn(byte[] mac) {
+		return new LIFXPacket.Builder(Type.SET_POWER_STATE)
+			.setGlobeMac(mac)
+			.setPayload(new PowerStatePayload(true))
+			.build();
+	}
+
+	private void finished(Stage stage) {
+		finishedNanos.set(stage.ordinal(), System.nanoTime() - startNanos);
+	}
+
+	private void fail(Stage stage) {
+		if (cancelled) {
+			return;
+		}
+		LIFXLog.e("WarmUp", "Warm up failed at %s after %dms.", stage,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+		listener.onFailed(stage);
+	}
+
+	/**
+	 * @return Nanoseconds from the start to when the stage finished, or 0 if
+	 *     it hasn't (yet).
+	 */
+	public long getFinishedNanos(Stage stage) {
+		return finishedNanos.get(stage.ordinal());
+	}
+}
@@ -0,0 +1,71 @@
+package au.id.katharos.lifxalarm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Payload for the wifi and mesh info replies.
+ *
+ * Format:
+ * float signal;           // LE
+ * uint32 tx;              // LE bytes sent
+ * uint32 rx;              // LE bytes received
+ * int16 mcu_temperature;  // LE
+ */
+public class WifiInfoPayload extends Payload {
+
+	static final int LENGTH = 14;
+
+	private final float signal;
+	private final long tx;
+	private final long rx;
+	private final int mcuTemperature;
+
+	public WifiInfoPayload(float signal, long tx, long rx, int mcuTemperature) {
+		type = Payload.Type.WIFI_INFO;
+		this.signal = signal;
+		this.tx = tx;
+		this.rx = rx;
+		this.mcuTemperature = mcuTemperature;
+	}
+
+	WifiInfoPayload(ByteBuffer buffer, int offset) {
+		type = Payload.Type.WIFI_INFO;
+		signal = Float.intBitsToFloat((int) getUint32(buffer, offset));
+		tx = getUint32(buffer, offset + 4);
+		rx = getUint32(buffer, offset + 8);
+		mcuTemperature = (short) getUint16(buffer, offset + 12);
+	}
+
+	public float getSignal() {
+		return signal;
+	}
+
+	public long getTx() {
+		return tx;
+	}
+
+	public long getRx() {
+		return rx;
+	}
+
+	public int getMcuTemperature() {
+		return mcuTemperature;
+	}
+
+	@Override
+	public void encodeTo(ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putFloat(signal);
+		buffer.putInt((int) tx);
+		buffer.putInt((int) rx);
+		buffer.putShort((short) mcuTemperature);
+		buffer.order(order);
+	}
+
+	@Override
+	public int getlength() {
+		return LENGTH;
+	}
+}
@@ -0,0 +1,393 @@
+package au.id.katharos.lifxalarm.sim;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import au.id.katharos.lifxalarm.LIFXPacket;
+import au.id.katharos.lifxalarm.LIFXPacketView;
+import au.id.katharos.lifxalarm.LabelPayload;
+import au.id.katharos.lifxalarm.PanGatewayPayload;
+import au.id.katharos.lifxalarm.Payload;
+import au.id.katharos.lifxalarm.PowerStatePayload;
+import au.id.katharos.lifxalarm.SetLightColorPayload;
+import au.id.katharos.lifxalarm.SetLightDimPayload;
+
+/**
+ * A pretend LIFX gateway with any number of globes behind it, for testing and
+ * load generation without real hardware.
+ *
+ * Answers discovery broadcasts over UDP, accepts TCP connections on its own
+ * port and speaks the same protocol {@link LIFXPacket} encodes. Each globe
+ * keeps its power, colour and label, and replies echo the request's timestamp
+ * field. Latency and packet loss can be injected to see how the transport
+ * copes.
+ *
+ * Run it in process, or standalone with {@link #main(String[])}.
+ */
+public class LIFXSimulator {
+
+	private final DatagramSocket udpSocket;
+	private final ServerSocket tcpSocket;
+	private final List<SimulatedBulb> bulbs = new ArrayList<SimulatedBulb>();
+	private final byte[] gatewayMac;
+
+	private final ScheduledExecutorService replies = Executors.newSingleThreadScheduledExecutor();
+	private final Random random = new Random();
+	private volatile int minLatencyMs;
+	private volatile int maxLatencyMs;
+	private volatile double packetLoss;
+	private volatile boolean running = true;
+
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong sent = new AtomicLong();
+
+	/**
+	 * Where a reply should go: a UDP address or a TCP stream.
+	 */
+	private interface ReplyTarget {
+		void send(byte[] packet) throws IOException;
+	}
+
+	/**
+	 * @param udpPort Port to answer discovery on (56700 for the real thing, 0 for any).
+	 * @param tcpPort Port to accept gateway connections on (0 for any).
+	 * @param bulbCount How many globes sit behind the gateway. The first is the gateway.
+	 */
+	public LIFXSimulator(int udpPort, int tcpPort, int bulbCount) throws IOException {
+		for (int i = 0; i < bulbCount; i++) {
+			byte[] mac = {(byte) 0xd0, 0x73, (byte) 0xd5, 0, (byte) (i >> 8), (byte) i};
+			bulbs.add(new SimulatedBulb(mac, "Bulb " + i));
+		}
+		gatewayMac = bulbs.get(0).getMac();
+
+		udpSocket = new DatagramSocket(null);
+		udpSocket.setReuseAddress(true);
+		udpSocket.setBroadcast(true);
+		udpSocket.bind(new InetSocketAddress(udpPort));
+		tcpSocket = new ServerSocket(tcpPort);
+	}
+
+	public void start() {
+		startThread(new Runnable() {
+			@Override
+			public void run() {
+				serveUdp();
+			}
+		}, "LIFX simulator UDP");
+		startThread(new Runnable() {
+			@Override
+			public void run() {
+				acceptTcp();
+			}
+		}, "LIFX simulator TCP");
+	}
+
+	public void stop() {
+		running = false;
+		udpSocket.close();
+		try {
+			tcpSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		replies.shutdownNow();
+	}
+
+	/**
+	 * Delay every reply by a random time in this range.
+	 */
+	public void setLatency(int minMs, int maxMs) {
+		minLatencyMs = minMs;
+		maxLatencyMs = maxMs;
+	}
+
+	/**
+	 * Silently drop this fraction (0 to 1) of incoming packets.
+	 */
+	public void setPacketLoss(double fraction) {
+		packetLoss = fraction;
+	}
+
+	public int getUdpPort() {
+		return udpSocket.getLocalPort();
+	}
+
+	public int getTcpPort() {
+		return tcpSocket.getLocalPort();
+	}
+
+	public List<SimulatedBulb> getBulbs() {
+		return bulbs;
+	}
+
+	public long getReceivedCount() {
+		return received.get();
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public long getSentCount() {
+		return sent.get();
+	}
+
+	private void startThread(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void serveUdp() {
+		byte[] buffer = new byte[512];
+		LIFXPacketView view = new LIFXPacketView();
+		while (running) {
+			try {
+				DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+				udpSocket.receive(datagram);
+				final SocketAddress from = datagram.getSocketAddress();
+				if (view.wrap(buffer, 0, datagram.getLength()) != LIFXPacketView.OK) {
+					continue;
+				}
+				handle(view, new ReplyTarget() {
+					@Override
+					public void send(byte[] packet) throws IOException {
+						udpSocket.send(new DatagramPacket(packet, packet.length, from));
+					}
+				});
+			} catch (IOException e) {
+				if (running) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void acceptTcp() {
+		while (running) {
+			try {
+				final Socket client = tcpSocket.accept();
+				client.setTcpNoDelay(true);
+				startThread(new Runnable() {
+					@Override
+					public void run() {
+						serveTcp(client);
+					}
+				}, "LIFX simulator client " + client.getRemoteSocketAddress());
+			} catch (IOException e) {
+				if (running) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void serveTcp(Socket client) {
+		byte[] buffer = new byte[0xFFFF];
+		LIFXPacketView view = new LIFXPacketView();
+		try {
+			DataInputStream in = new DataInputStream(client.getInputStream());
+			final OutputStream out = client.getOutputStream();
+			ReplyTarget target = new ReplyTarget() {
+				@Override
+				public void send(byte[] packet) throws IOException {
+					synchronized (out) {
+						out.write(packet);
+					}
+				}
+			};
+			while (running) {
+				in.readFully(buffer, 0, 2);
+				int size = (buffer[0] & 0xFF) | (buffer[1] & 0xFF) << 8;
+				if (size < LIFXPacket.HEADER_LENGTH) {
+					break;
+				}
+				in.readFully(buffer, 2, size - 2);
+				if (view.wrap(buffer, 0, size) == LIFXPacketView.OK) {
+					handle(view, target);
+				}
+			}
+		} catch (IOException e) {
+			// Client went away.
+		}
+		try {
+			client.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Apply a request to the globes it targets and send back their replies.
+	 */
+	private void handle(LIFXPacketView request, ReplyTarget target) {
+		received.incrementAndGet();
+		if (packetLoss > 0 && random.nextDouble() < packetLoss) {
+			dropped.incrementAndGet();
+			return;
+		}
+		long timestamp = request.getTimestamp();
+		LIFXPacket.Type type = request.getType();
+		if (type == LIFXPacket.Type.GET_PAN_GATEWAY) {
+			reply(target, LIFXPacket.Type.PAN_GATEWAY, gatewayMac,
+					new PanGatewayPayload(PanGatewayPayload.SERVICE_TCP, getTcpPort()), timestamp);
+			return;
+		}
+
+		Payload payload = request.decodePayload();
+		long mac = request.getTargetMac();
+		for (SimulatedBulb bulb : bulbs) {
+			// A zero target means every globe.
+			if (mac != 0 && mac != LIFXPacket.macToLong(bulb.getMac())) {
+				continue;
+			}
+			Payload response = apply(bulb, type, payload);
+			if (response != null) {
+				reply(target, type.getReplyType(), bulb.getMac(), response, timestamp);
+			}
+		}
+	}
+
+	/**
+	 * A set whose payload is too short decodes to {@link Payload#EMPTY}, and is
+	 * ignored like a real globe would.
+	 *
+	 * @return The payload of the globe's reply, or null if it doesn't reply.
+	 */
+	private Payload apply(SimulatedBulb bulb, LIFXPacket.Type type, Payload payload) {
+		switch (type) {
+			case SET_POWER_STATE:
+				if (!(payload instanceof PowerStatePayload)) {
+					return null;
+				}
+				bulb.setOn(((PowerStatePayload) payload).isOn());
+				return new PowerStatePayload(bulb.isOn());
+			case GET_POWER_STATE:
+				return new PowerStatePayload(bulb.isOn());
+			case SET_LIGHT_COLOR:
+				if (!(payload instanceof SetLightColorPayload)) {
+					return null;
+				}
+				SetLightColorPayload color = (SetLightColorPayload) payload;
+				bulb.setColor(color.getHue(), color.getSaturation(), color.getBrightness(),
+						color.getKelvin());
+				return bulb.toLightState();
+			case SET_DIM_ABSOLUTE:
+				if (!(payload instanceof SetLightDimPayload)) {
+					return null;
+				}
+				// Dim levels are a raw 16-bit value, the colour payloads use percent.
+				int level = ((SetLightDimPayload) payload).getBrightness() & 0xFFFF;
+				bulb.setBrightness(level * 100 / 0xFFFF);
+				return bulb.toLightState();
+			case GET_LIGHT_STATE:
+				return bulb.toLightState();
+			case SET_BULB_LABEL:
+				if (!(payload instanceof LabelPayload)) {
+					return null;
+				}
+				bulb.setLabel(((LabelPayload) payload).getLabel());
+				return new LabelPayload(bulb.getLabel());
+			case GET_BULB_LABEL:
+				return new LabelPayload(bulb.getLabel());
+			default:
+				return null;
+		}
+	}
+
+	private void reply(final ReplyTarget target, LIFXPacket.Type type, byte[] mac, Payload payload,
+			long timestamp) {
+		LIFXPacket packet = new LIFXPacket.Builder(type)
+				.setTargetMac(mac)
+				.setGatewayMac(gatewayMac)
+				.setPayload(payload)
+				.build();
+		ByteBuffer buffer = ByteBuffer.allocate(packet.getLength());
+		packet.encodeTo(buffer, timestamp);
+		final byte[] bytes = buffer.array();
+
+		Runnable send = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					target.send(bytes);
+					sent.incrementAndGet();
+				} catch (IOException e) {
+					// The client has gone, nothing to do.
+				}
+			}
+		};
+		int latency = minLatencyMs;
+		if (maxLatencyMs > minLatencyMs) {
+			latency += random.nextInt(maxLatencyMs - minLatencyMs);
+		}
+		if (latency == 0) {
+			send.run();
+		} else {
+			replies.schedule(send, latency, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Run a simulator until killed.
+	 *
+	 * Options: --udp-port N, --tcp-port N, --bulbs N, --latency MIN-MAX (ms),
+	 * --loss FRACTION.
+	 */
+	public static void main(String[] args) throws Exception {
+		int udpPort = 56700;
+		int tcpPort = 56700;
+		int bulbCount = 1;
+		int minLatency = 0;
+		int maxLatency = 0;
+		double loss = 0;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("--udp-port")) {
+				udpPort = Integer.parseInt(value);
+			} else if (args[i].equals("--tcp-port")) {
+				tcpPort = Integer.parseInt(value);
+			} else if (args[i].equals("--bulbs")) {
+				bulbCount = Integer.parseInt(value);
+			} else if (args[i].equals("--latency")) {
+				String[] range = value.split("-");
+				minLatency = Integer.parseInt(range[0]);
+				maxLatency = Integer.parseInt(range[range.length - 1]);
+			} else if (args[i].equals("--loss")) {
+				loss = Double.parseDouble(value);
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		LIFXSimulator simulator = new LIFXSimulator(udpPort, tcpPort, bulbCount);
+		simulator.setLatency(minLatency, maxLatency);
+		simulator.setPacketLoss(loss);
+		simulator.start();
+		System.out.println("Simulating " + bulbCount + " globes, UDP port " + simulator.getUdpPort()
+				+ ", TCP port " + simulator.getTcpPort());
+
+		while (true) {
+			Thread.sleep(10000);
+			System.out.println("Received " + simulator.getReceivedCount() + ", dropped "
+					+ simulator.getDroppedCount() + ", sent " + simulator.getSentCount());
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package au.id.katharos.lifxalarm.sim;
+
+import au.id.katharos.lifxalarm.LightStatePayload;
+
+/**
+ * The state of one pretend globe.
+ */
+public class SimulatedBulb {
+
+	private final byte[] mac;
+	private boolean on;
+	private int hue;
+	private int saturation;
+	private int brightness;
+	private int kelvin = 3500;
+	private String label;
+
+	SimulatedBulb(byte[] mac, String label) {
+		this.mac = mac;
+		this.label = label;
+	}
+
+	public byte[] getMac() {
+		return mac;
+	}
+
+	public synchronized boolean isOn() {
+		return on;
+	}
+
+	synchronized void setOn(boolean on) {
+		this.on = on;
+	}
+
+	public synchronized int getHue() {
+		return hue;
+	}
+
+	public synchronized int getSaturation() {
+		return saturation;
+	}
+
+	public synchronized int getBrightness() {
+		return brightness;
+	}
+
+	public synchronized int getKelvin() {
+		return kelvin;
+	}
+
+	synchronized void setColor(int hue, int saturation, int brightness, int kelvin) {
+		this.hue = hue;
+		this.saturation = saturation;
+		this.brightness = brightness;
+		this.kelvin = kelvin;
+	}
+
+	synchronized void setBrightness(int brightness) {
+		this.brightness = brightness;
+	}
+
+	public synchronized String getLabel() {
+		return label;
+	}
+
+	synchronized void setLabel(String label) {
+		this.label = label;
+	}
+
+	synchronized LightStatePayload toLightState() {
+		return new LightStatePayload(hue, saturation, brightness, kelvin, 0, on, label, 0);
+	}
+}
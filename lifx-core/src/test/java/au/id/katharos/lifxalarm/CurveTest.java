@@ -0,0 +1,56 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CurveTest {
+
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void everyCurveRunsFromZeroToOne() {
+		Curve[] curves = {Curve.LINEAR, Curve.EASE_IN, Curve.EASE_OUT, Curve.EASE_IN_OUT,
+				Curve.sigmoid(10), Curve.sigmoid(10).upTo(0.5)};
+		for (Curve curve : curves) {
+			assertEquals(0, curve.valueAt(0), DELTA);
+			assertEquals(1, curve.valueAt(1), DELTA);
+			double last = 0;
+			for (int i = 1; i <= 100; i++) {
+				double value = curve.valueAt(i / 100.0);
+				assertTrue(value >= last);
+				last = value;
+			}
+		}
+	}
+
+	@Test
+	public void sigmoidIsSymmetric() {
+		Curve curve = Curve.sigmoid(10);
+		assertEquals(0.5, curve.valueAt(0.5), DELTA);
+		assertEquals(1, curve.valueAt(0.2) + curve.valueAt(0.8), DELTA);
+	}
+
+	@Test
+	public void upToHoldsOnceTheLimitIsReached() {
+		Curve curve = Curve.LINEAR.upTo(0.5);
+		assertEquals(0.5, curve.valueAt(0.25), DELTA);
+		assertEquals(1, curve.valueAt(0.5), DELTA);
+		assertEquals(1, curve.valueAt(0.75), DELTA);
+	}
+
+	@Test
+	public void keyframesInterpolateBetweenPoints() {
+		Curve curve = Curve.keyframes(new double[] {0, 0.5, 1}, new double[] {0, 0.8, 1});
+		assertEquals(0.4, curve.valueAt(0.25), DELTA);
+		assertEquals(0.8, curve.valueAt(0.5), DELTA);
+		assertEquals(0.9, curve.valueAt(0.75), DELTA);
+		assertEquals(1, curve.valueAt(1), DELTA);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void keyframesNeedMatchingArrays() {
+		Curve.keyframes(new double[] {0, 1}, new double[] {0});
+	}
+}
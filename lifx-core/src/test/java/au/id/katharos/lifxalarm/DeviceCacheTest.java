@@ -0,0 +1,75 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeviceCacheTest {
+
+	private static final long GATEWAY = 0xd073d5000000L;
+	private static final long BULB = 0xd073d5000001L;
+	private static final InetSocketAddress ADDRESS = new InetSocketAddress("192.0.2.2", 56700);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void savesAndLoadsDevices() throws Exception {
+		DeviceRegistry registry = new DeviceRegistry();
+		registry.seen(GATEWAY, GATEWAY, ADDRESS).setGateway(true);
+		Device bulb = registry.seen(BULB, GATEWAY, ADDRESS);
+		bulb.setLabel("Bedroom");
+		// Never heard from, so there's nothing worth saving.
+		registry.getOrAdd(0xd073d5000002L);
+
+		File file = new File(folder.getRoot(), "devices.cache");
+		new DeviceCache(file).save(registry.getDevices());
+		DeviceRegistry loaded = new DeviceRegistry();
+		assertEquals(2, new DeviceCache(file).load(loaded));
+
+		Device gateway = loaded.get(GATEWAY);
+		assertTrue(gateway.isGateway());
+		assertEquals(ADDRESS, gateway.getAddress());
+		assertEquals(GATEWAY, loaded.get(BULB).getSite());
+		assertEquals("Bedroom", loaded.get(BULB).getLabel());
+		assertEquals(bulb.getLastSeenMillis(), loaded.get(BULB).getLastSeenMillis());
+		assertNull(loaded.get(GATEWAY).getLabel());
+	}
+
+	@Test
+	public void keepsLiveDevicesOverCachedOnes() throws Exception {
+		DeviceRegistry registry = new DeviceRegistry();
+		registry.seen(BULB, GATEWAY, ADDRESS);
+		File file = new File(folder.getRoot(), "devices.cache");
+		new DeviceCache(file).save(registry.getDevices());
+
+		DeviceRegistry live = new DeviceRegistry();
+		InetSocketAddress moved = new InetSocketAddress("192.0.2.9", 56700);
+		live.seen(BULB, GATEWAY, moved);
+		assertEquals(0, new DeviceCache(file).load(live));
+		assertEquals(moved, live.get(BULB).getAddress());
+	}
+
+	@Test
+	public void missingFileLoadsNothing() throws Exception {
+		assertEquals(0, new DeviceCache(new File(folder.getRoot(), "none")).load(new DeviceRegistry()));
+	}
+
+	@Test
+	public void broadcastsGloballyOnlyWithoutAnInterfaceAddress() throws Exception {
+		Set<InetAddress> addresses = LIFXConnectionKeeper.broadcastAddresses();
+		assertFalse(addresses.isEmpty());
+		assertTrue(!addresses.contains(InetAddress.getByName("255.255.255.255"))
+				|| addresses.size() == 1);
+	}
+}
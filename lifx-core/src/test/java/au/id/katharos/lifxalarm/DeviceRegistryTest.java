@@ -0,0 +1,265 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DeviceRegistryTest {
+
+	private static final byte[] GATEWAY = {(byte) 0xd0, 0x73, (byte) 0xd5, 0, 0, 0};
+	private static final byte[] BULB = {(byte) 0xd0, 0x73, (byte) 0xd5, 0, 0, 1};
+	private static final InetSocketAddress FROM = new InetSocketAddress("192.0.2.2", 56700);
+
+	private final DeviceRegistry registry = new DeviceRegistry();
+
+	private void receive(LIFXPacket packet) {
+		registry.onPacket(view(packet), FROM);
+	}
+
+	private static LIFXPacketView view(LIFXPacket packet) {
+		LIFXPacketView view = new LIFXPacketView();
+		view.wrap(packet.getBytes(), 0, packet.getLength());
+		return view;
+	}
+
+	@Test
+	public void discoveryRegistersTheGateway() {
+		receive(new LIFXPacket.Builder(LIFXPacket.Type.PAN_GATEWAY)
+			.setTargetMac(GATEWAY)
+			.setGatewayMac(GATEWAY)
+			.setPayload(new PanGatewayPayload(PanGatewayPayload.SERVICE_TCP, 56700))
+			.build());
+
+		Device gateway = registry.get(GATEWAY);
+		assertTrue(gateway.isGateway());
+		assertEquals(FROM, gateway.getAddress());
+		assertEquals(LIFXPacket.macToLong(GATEWAY), gateway.getSite());
+		assertEquals(1, registry.getGateways().size());
+	}
+
+	@Test
+	public void anyReplyRegistersTheGlobeWithItsState() {
+		receive(new LIFXPacket.Builder(LIFXPacket.Type.LIGHT_STATE)
+			.setTargetMac(BULB)
+			.setGatewayMac(GATEWAY)
+			.setPayload(new LightStatePayload(120, 50, 75, 3500, 0, true, "Bedroom", 0))
+			.build());
+
+		Device bulb = registry.get(BULB);
+		assertFalse(bulb.isGateway());
+		assertEquals(FROM, bulb.getAddress());
+		assertEquals(LIFXPacket.macToLong(GATEWAY), bulb.getSite());
+		assertEquals("Bedroom", bulb.getLabel());
+		assertEquals(75, bulb.getLightState().getBrightness());
+		assertTrue(bulb.getLastSeenMillis() > 0);
+		assertNull(registry.get(GATEWAY));
+	}
+
+	@Test
+	public void otherControllersRequestsDontMoveTheGlobe() {
+		receive(new LIFXPacket.Builder(LIFXPacket.Type.POWER_STATE)
+			.setTargetMac(BULB)
+			.setGatewayMac(GATEWAY)
+			.setPayload(new PowerStatePayload(true))
+			.build());
+		InetSocketAddress otherController = new InetSocketAddress("192.0.2.9", 56700);
+		registry.onPacket(view(setPower(false)), otherController);
+		registry.onPacket(view(new LIFXPacket.Builder(LIFXPacket.Type.GET_LIGHT_STATE)
+			.setGlobeMac(GATEWAY)
+			.build()), otherController);
+
+		assertEquals(FROM, registry.get(BULB).getAddress());
+		assertEquals(Device.POWER_ON, registry.get(BULB).getPower());
+		assertNull(registry.get(GATEWAY));
+	}
+
+	@Test
+	public void aShortStatePayloadIsIgnored() {
+		receive(new LIFXPacket.Builder(LIFXPacket.Type.LIGHT_STATE)
+			.setTargetMac(BULB)
+			.setGatewayMac(GATEWAY)
+			.setPayload(new PowerStatePayload(true))
+			.build());
+
+		Device bulb = registry.get(BULB);
+		assertEquals(Device.POWER_UNKNOWN, bulb.getPower());
+		assertFalse(bulb.hasColor());
+	}
+
+	@Test
+	public void macsRoundTrip() {
+		assertEquals(LIFXPacket.macToLong(BULB),
+				LIFXPacket.macToLong(LIFXPacket.longToMac(LIFXPacket.macToLong(BULB))));
+		assertEquals(BULB[5], registry.getOrAdd(LIFXPacket.macToLong(BULB)).getMacBytes()[5]);
+	}
+
+	private static LIFXPacket setPower(boolean on) {
+		return new LIFXPacket.Builder(LIFXPacket.Type.SET_POWER_STATE)
+			.setGlobeMac(BULB)
+			.setPayload(new PowerStatePayload(on))
+			.build();
+	}
+
+	private static LIFXPacket setColor(int hue, int brightness) {
+		return new LIFXPacket.Builder(LIFXPacket.Type.SET_LIGHT_COLOR)
+			.setGlobeMac(BULB)
+			.setPayload(new SetLightColorPayload(hue, 100, brightness, 3500, 0))
+			.build();
+	}
+
+	@Test
+	public void powerRepliesUpdateTheShadow() {
+		receive(new LIFXPacket.Builder(LIFXPacket.Type.POWER_STATE)
+			.setTargetMac(BULB)
+			.setGatewayMac(GATEWAY)
+			.setPayload(new PowerStatePayload(true))
+			.build());
+		assertEquals(Device.POWER_ON, registry.get(BULB).getPower());
+		assertFalse(registry.get(BULB).hasColor());
+	}
+
+	@Test
+	public void lightStateFillsInTheShadowColour() {
+		receive(new LIFXPacket.Builder(LIFXPacket.Type.LIGHT_STATE)
+			.setTargetMac(BULB)
+			.setGatewayMac(GATEWAY)
+			.setPayload(new LightStatePayload(120, 50, 75, 3500, 0, false, "Bedroom", 0))
+			.build());
+
+		Device bulb = registry.get(BULB);
+		assertEquals(Device.POWER_OFF, bulb.getPower());
+		assertTrue(bulb.hasColor());
+		assertEquals(120, bulb.getHue());
+		assertEquals(50, bulb.getSaturation());
+		assertEquals(75, bulb.getBrightness());
+		assertEquals(3500, bulb.getKelvin());
+	}
+
+	@Test
+	public void writesToUnknownGlobesAlwaysGo() {
+		assertTrue(registry.applyWrite(setPower(true)));
+		assertTrue(registry.applyWrite(setPower(true)));
+	}
+
+	@Test
+	public void repeatedWritesAreRedundant() {
+		registry.getOrAdd(LIFXPacket.macToLong(BULB));
+		assertTrue(registry.applyWrite(setPower(true)));
+		assertFalse(registry.applyWrite(setPower(true)));
+		assertTrue(registry.applyWrite(setColor(30, 50)));
+		assertFalse(registry.applyWrite(setColor(30, 50)));
+		assertTrue(registry.applyWrite(setColor(30, 60)));
+		assertTrue(registry.applyWrite(setPower(false)));
+		assertFalse(registry.applyWrite(setPower(false)));
+	}
+
+	@Test
+	public void coloursAlwaysGoToAGlobeThatIsOff() {
+		registry.getOrAdd(LIFXPacket.macToLong(BULB));
+		assertTrue(registry.applyWrite(setPower(false)));
+		assertTrue(registry.applyWrite(setColor(30, 50)));
+		assertTrue(registry.applyWrite(setColor(30, 50)));
+		assertFalse(registry.get(BULB).hasColor());
+	}
+
+	@Test
+	public void statesMidFadeDontOverwriteTheTarget() {
+		registry.getOrAdd(LIFXPacket.macToLong(BULB));
+		registry.applyWrite(setPower(true));
+		registry.applyWrite(new LIFXPacket.Builder(LIFXPacket.Type.SET_LIGHT_COLOR)
+			.setGlobeMac(BULB)
+			.setPayload(new SetLightColorPayload(30, 100, 80, 3500, 60000))
+			.build());
+		receive(new LIFXPacket.Builder(LIFXPacket.Type.LIGHT_STATE)
+			.setTargetMac(BULB)
+			.setGatewayMac(GATEWAY)
+			.setPayload(new LightStatePayload(30, 100, 10, 3500, 0, true, "Bedroom", 0))
+			.build());
+
+		assertEquals(80, registry.get(BULB).getBrightness());
+		assertFalse(registry.applyWrite(setColor(30, 80)));
+	}
+
+	@Test
+	public void listenersHearAboutChangesOnTheirScheduler() throws InterruptedException {
+		final BlockingQueue<Integer> changes = new LinkedBlockingQueue<Integer>();
+		final BlockingQueue<String> threads = new LinkedBlockingQueue<String>();
+		ExecutorScheduler scheduler = new ExecutorScheduler("events");
+		registry.setEventScheduler(scheduler);
+		registry.addListener(new DeviceRegistry.Listener() {
+			@Override
+			public void onDeviceChanged(Device device, int changed) {
+				threads.add(Thread.currentThread().getName());
+				changes.add(changed);
+			}
+		});
+		try {
+			LIFXPacket on = new LIFXPacket.Builder(LIFXPacket.Type.POWER_STATE)
+				.setTargetMac(BULB)
+				.setGatewayMac(GATEWAY)
+				.setPayload(new PowerStatePayload(true))
+				.build();
+			receive(on);
+			assertEquals(Integer.valueOf(DeviceRegistry.Listener.ADDED | DeviceRegistry.Listener.POWER),
+					changes.poll(1, TimeUnit.SECONDS));
+			assertEquals("events", threads.poll());
+
+			// Nothing changed, so nothing to say.
+			receive(on);
+			receive(new LIFXPacket.Builder(LIFXPacket.Type.LIGHT_STATE)
+				.setTargetMac(BULB)
+				.setGatewayMac(GATEWAY)
+				.setPayload(new LightStatePayload(120, 50, 75, 3500, 0, true, "Bedroom", 0))
+				.build());
+			assertEquals(Integer.valueOf(DeviceRegistry.Listener.COLOR | DeviceRegistry.Listener.LABEL),
+					changes.poll(1, TimeUnit.SECONDS));
+			assertNull(changes.poll(50, TimeUnit.MILLISECONDS));
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void nothingIsQueuedWithoutAScheduler() {
+		registry.addListener(new DeviceRegistry.Listener() {
+			@Override
+			public void onDeviceChanged(Device device, int changes) {
+			}
+		});
+		for (int i = 0; i < 2000; i++) {
+			registry.onPacket(view(new LIFXPacket.Builder(LIFXPacket.Type.POWER_STATE)
+				.setTargetMac(BULB)
+				.setGatewayMac(GATEWAY)
+				.setPayload(new PowerStatePayload(i % 2 == 0))
+				.build()), FROM);
+		}
+		assertEquals(0, registry.getDroppedEvents());
+	}
+
+	@Test
+	public void aForgottenWriteGoesAgain() {
+		registry.getOrAdd(LIFXPacket.macToLong(BULB));
+		assertTrue(registry.applyWrite(setPower(true)));
+		assertTrue(registry.applyWrite(setColor(30, 50)));
+		registry.forgetState(LIFXPacket.macToLong(BULB));
+		assertTrue(registry.applyWrite(setPower(true)));
+		assertTrue(registry.applyWrite(setColor(30, 50)));
+	}
+
+	@Test
+	public void aLostGatewayForgetsItsGlobes() {
+		registry.seen(LIFXPacket.macToLong(BULB), LIFXPacket.macToLong(GATEWAY), FROM);
+		assertTrue(registry.applyWrite(setPower(true)));
+		registry.forgetStates(FROM.getAddress());
+		assertEquals(Device.POWER_UNKNOWN, registry.get(BULB).getPower());
+		assertTrue(registry.applyWrite(setPower(true)));
+	}
+}
@@ -0,0 +1,76 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EventRingTest {
+
+	@Test
+	public void capacityRoundsUpToAPowerOfTwo() {
+		assertEquals(8, new EventRing(5).capacity());
+		assertEquals(8, new EventRing(8).capacity());
+	}
+
+	@Test
+	public void eventsComeOutInOrderAcrossTheWrap() {
+		EventRing ring = new EventRing(4);
+		long next = 1;
+		long expected = 1;
+		for (int round = 0; round < 10; round++) {
+			assertTrue(ring.offer(next++));
+			assertTrue(ring.offer(next++));
+			assertTrue(ring.offer(next++));
+			assertEquals(expected++, ring.poll());
+			assertEquals(expected++, ring.poll());
+			assertEquals(expected++, ring.poll());
+		}
+		assertTrue(ring.isEmpty());
+		assertEquals(0, ring.poll());
+	}
+
+	@Test
+	public void dropsWhenFull() {
+		EventRing ring = new EventRing(2);
+		assertTrue(ring.offer(1));
+		assertTrue(ring.offer(2));
+		assertFalse(ring.offer(3));
+		assertEquals(1, ring.getDropped());
+		assertEquals(1, ring.poll());
+		assertTrue(ring.offer(4));
+		assertEquals(2, ring.poll());
+		assertEquals(4, ring.poll());
+	}
+
+	@Test
+	public void oneProducerOneConsumer() throws InterruptedException {
+		final EventRing ring = new EventRing(64);
+		final int count = 10000;
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				for (long i = 1; i <= count; ) {
+					if (ring.offer(i)) {
+						i++;
+					} else {
+						// Full, and on one CPU the consumer can't drain it until this yields.
+						Thread.yield();
+					}
+				}
+			}
+		};
+		producer.start();
+		long expected = 1;
+		while (expected <= count) {
+			long event = ring.poll();
+			if (event != 0) {
+				assertEquals(expected++, event);
+			} else {
+				Thread.yield();
+			}
+		}
+		producer.join();
+	}
+}
@@ -0,0 +1,78 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class FadePlayerTest {
+
+	private final ExecutorScheduler scheduler = new ExecutorScheduler("FadePlayerTest");
+	private final BlockingQueue<int[]> sent = new ArrayBlockingQueue<int[]>(16);
+
+	// Four frames, each a 200ms fade, starting at 0, 200, 400 and 600ms.
+	private final FadeSequence sequence = FadeSequence.plan(
+			new int[] {0, 200, 400, 600, 800},
+			new int[] {0, 0, 0, 0, 0},
+			new int[] {100, 100, 100, 100, 100},
+			new int[] {0, 50, 0, 50, 0},
+			new KeyframePlanner());
+
+	private final FadePlayer player = new FadePlayer(sequence, scheduler, new FadePlayer.Target() {
+		@Override
+		public void fadeTo(FadeSequence sequence, int frame, int fadeMs) {
+			sent.add(new int[] {frame, fadeMs});
+		}
+	});
+
+	@After
+	public void tearDown() {
+		player.cancel();
+		scheduler.shutdown();
+	}
+
+	private int[] next() throws InterruptedException {
+		return sent.poll(2, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void sendsEveryFrameOnTime() throws Exception {
+		assertEquals(4, sequence.size());
+		long start = System.nanoTime();
+		player.start(start);
+		for (int frame = 0; frame < 4; frame++) {
+			int[] frameSent = next();
+			long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			assertEquals(frame, frameSent[0]);
+			assertTrue(elapsedMs >= frame * 200);
+		}
+		assertTrue(player.isFinished());
+		assertEquals(0, player.getSkipped());
+		assertEquals(4, player.getLateness().getCount());
+	}
+
+	@Test
+	public void skipsFramesThatAreAlreadyOver() throws Exception {
+		// Start as if we'd been asleep for the first half.
+		player.start(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(450));
+		int[] first = next();
+		assertEquals(2, first[0]);
+		assertTrue("fade should be cut short: " + first[1], first[1] <= 150);
+		assertEquals(3, next()[0]);
+		assertEquals(2, player.getSkipped());
+	}
+
+	@Test
+	public void cancelStopsSending() throws Exception {
+		player.start();
+		assertEquals(0, next()[0]);
+		player.cancel();
+		assertEquals(null, sent.poll(400, TimeUnit.MILLISECONDS));
+		assertEquals(3, player.getRemaining());
+	}
+}
@@ -0,0 +1,54 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class FadeSequenceTest {
+
+	private static final byte[] MAC = {(byte) 0xd0, 0x73, (byte) 0xd5, 0, 0, 1};
+
+	@Test
+	public void eachFrameFadesToTheNextKeyframe() {
+		int[] times = {0, 1000, 2000};
+		int[] hues = {0, 30, 60};
+		int[] sats = {100, 60, 20};
+		int[] brights = {0, 50, 100};
+		FadeSequence sequence = FadeSequence.plan(times, hues, sats, brights, new KeyframePlanner());
+
+		assertEquals(1, sequence.size());
+		assertEquals(0, sequence.getStartMs(0));
+		assertEquals(2000, sequence.getFadeMs(0));
+		assertEquals(60, sequence.getHue(0));
+		assertEquals(20, sequence.getSaturation(0));
+		assertEquals(100, sequence.getBrightness(0));
+	}
+
+	@Test
+	public void packsTheFullRangeOfEachChannel() {
+		int[] times = {0, 1000, 2000};
+		int[] hues = {0, 360, 0};
+		int[] sats = {0, 100, 0};
+		int[] brights = {100, 0, 100};
+		FadeSequence sequence = FadeSequence.plan(times, hues, sats, brights, new KeyframePlanner(0, 0));
+
+		assertEquals(2, sequence.size());
+		assertEquals(1000, sequence.getStartMs(1));
+		assertEquals(360, sequence.getHue(0));
+		assertEquals(100, sequence.getSaturation(0));
+		assertEquals(0, sequence.getBrightness(0));
+		assertEquals(100, sequence.getBrightness(1));
+	}
+
+	@Test
+	public void buildsTheColourPacketForAFrame() {
+		FadeSequence sequence = new SunriseCounter(MAC).getSequence();
+		int last = sequence.size() - 1;
+		LIFXPacket packet = sequence.buildPacket(last, MAC);
+		SetLightColorPayload payload = (SetLightColorPayload) packet.getPayload();
+
+		assertEquals(LIFXPacket.Type.SET_LIGHT_COLOR, packet.getType());
+		assertEquals(sequence.getBrightness(last), payload.getBrightness());
+		assertEquals(sequence.getFadeMs(last), payload.getFadeTime());
+	}
+}
@@ -0,0 +1,259 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.id.katharos.lifxalarm.sim.LIFXSimulator;
+import au.id.katharos.lifxalarm.sim.SimulatedBulb;
+
+/**
+ * Runs the transport against the simulator over loopback.
+ */
+public class GatewayConnectionTest {
+
+	private static final int TIMEOUT_MS = 2000;
+
+	private LIFXSimulator simulator;
+	private LIFXTransport transport;
+	private GatewayConnection connection;
+
+	@Before
+	public void setUp() throws IOException {
+		simulator = new LIFXSimulator(0, 0, 3);
+		simulator.start();
+		transport = new LIFXTransport(0);
+		transport.start();
+		connection = transport.openGateway(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), simulator.getTcpPort()));
+	}
+
+	@After
+	public void tearDown() {
+		transport.shutdown();
+		simulator.stop();
+	}
+
+	private static LIFXPacket power(SimulatedBulb bulb, boolean on) {
+		return new LIFXPacket.Builder(LIFXPacket.Type.SET_POWER_STATE)
+			.setGlobeMac(bulb.getMac())
+			.setPayload(new PowerStatePayload(on))
+			.build();
+	}
+
+	@Test
+	public void requestGetsItsReply() throws Exception {
+		SimulatedBulb bulb = simulator.getBulbs().get(1);
+		LIFXPacket reply = connection.sendAndWait(power(bulb, true), TIMEOUT_MS);
+
+		assertNotNull(reply);
+		assertEquals(LIFXPacket.Type.POWER_STATE, reply.getType());
+		assertTrue(((PowerStatePayload) reply.getPayload()).isOn());
+		assertTrue(bulb.isOn());
+
+		TransportMetrics metrics = transport.getMetrics().snapshot();
+		assertEquals(1, metrics.getPacketsSent(LIFXPacket.Type.SET_POWER_STATE));
+		assertEquals(1, metrics.getPacketsReceived(LIFXPacket.Type.POWER_STATE));
+		assertEquals(1, metrics.getResponseLatency().getCount());
+		assertEquals(1, metrics.getConnects());
+		assertEquals(reply.getLength(), metrics.getBytesReceived());
+		assertEquals(power(bulb, true).getLength(), metrics.getBytesSent());
+	}
+
+	@Test
+	public void tracesPacketsBothWays() throws Exception {
+		PacketTrace trace = new PacketTrace(16);
+		transport.setPacketTrace(trace);
+		connection.sendAndWait(power(simulator.getBulbs().get(0), true), TIMEOUT_MS);
+
+		String[] lines = trace.dump().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0], lines[0].contains(" > 38 "));
+		assertTrue(lines[1], lines[1].contains(" < 38 "));
+	}
+
+	@Test
+	public void concurrentRequestsMatchTheirOwnReplies() throws Exception {
+		ResponseFuture[] futures = new ResponseFuture[simulator.getBulbs().size()];
+		for (int i = 0; i < futures.length; i++) {
+			LIFXPacket packet = new LIFXPacket.Builder(LIFXPacket.Type.GET_LIGHT_STATE)
+				.setGlobeMac(simulator.getBulbs().get(i).getMac())
+				.build();
+			futures[i] = connection.request(packet, TIMEOUT_MS, null);
+		}
+		for (int i = 0; i < futures.length; i++) {
+			LIFXPacket reply = futures[i].get();
+			assertEquals(LIFXPacket.macToLong(simulator.getBulbs().get(i).getMac()),
+					LIFXPacket.macToLong(reply.getTargetMacAddress()));
+		}
+	}
+
+	@Test
+	public void connectDoesntWaitForASend() throws Exception {
+		connection.connect();
+
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (!connection.isConnected() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(connection.isConnected());
+		assertEquals(1, transport.getMetrics().getConnects());
+		assertEquals(0, transport.getMetrics().getBytesSent());
+	}
+
+	@Test
+	public void aBatchGoesInOneWrite() throws Exception {
+		PacketBatch batch = new PacketBatch();
+		for (SimulatedBulb bulb : simulator.getBulbs()) {
+			batch.add(power(bulb, true));
+		}
+		connection.send(batch);
+
+		awaitAllOn();
+		TransportMetrics metrics = transport.getMetrics();
+		assertEquals(batch.getLength(), metrics.getBytesSent());
+		assertEquals(3, metrics.getPacketsSent(LIFXPacket.Type.SET_POWER_STATE));
+		assertEquals(1, metrics.getWriteLatency().getCount());
+	}
+
+	@Test
+	public void aRequestInABatchGetsItsReply() throws Exception {
+		SimulatedBulb bulb = simulator.getBulbs().get(2);
+		PacketBatch batch = new PacketBatch()
+			.add(power(simulator.getBulbs().get(0), true))
+			.add(power(bulb, true))
+			.add(power(simulator.getBulbs().get(1), true));
+		ResponseFuture future = connection.request(batch, 1, TIMEOUT_MS, null);
+
+		LIFXPacket reply = future.awaitReply();
+		assertNotNull(reply);
+		assertArrayEquals(bulb.getMac(), reply.getTargetMacAddress());
+		awaitAllOn();
+		assertEquals(1, transport.getMetrics().getWriteLatency().getCount());
+	}
+
+	@Test
+	public void theFlushWindowGathersSendsIntoOneWrite() throws Exception {
+		connection.connect();
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (!connection.isConnected() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		connection.setFlushWindow(50);
+		for (SimulatedBulb bulb : simulator.getBulbs()) {
+			connection.send(power(bulb, true));
+		}
+
+		awaitAllOn();
+		LatencyHistogram writes = transport.getMetrics().getWriteLatency();
+		assertEquals(1, writes.getCount());
+		assertTrue(writes.getMaxMicros() >= 50000);
+	}
+
+	private void awaitAllOn() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		for (SimulatedBulb bulb : simulator.getBulbs()) {
+			while (!bulb.isOn() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(bulb.isOn());
+		}
+	}
+
+	@Test
+	public void requestTimesOutWithoutReply() throws Exception {
+		simulator.setPacketLoss(1.0);
+		ResponseFuture future = connection.request(power(simulator.getBulbs().get(0), true), 100, null);
+		try {
+			future.get();
+			fail("Expected a timeout");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertEquals(1, transport.getMetrics().getTimeouts());
+	}
+
+	@Test
+	public void simulatedGlobesKeepTheKelvinTheyreSent() throws Exception {
+		SimulatedBulb bulb = simulator.getBulbs().get(1);
+		LIFXPacket reply = connection.sendAndWait(new LIFXPacket.Builder(LIFXPacket.Type.SET_LIGHT_COLOR)
+			.setGlobeMac(bulb.getMac())
+			.setPayload(new SetLightColorPayload(30, 80, 60, 2700, 0))
+			.build(), TIMEOUT_MS);
+
+		assertNotNull(reply);
+		assertEquals(2700, ((LightStatePayload) reply.getPayload()).getKelvin());
+		assertEquals(2700, bulb.getKelvin());
+	}
+
+	@Test
+	public void discoveryIsAnsweredAfterAShortPayload() throws Exception {
+		// No payload at all where a power state belongs.
+		transport.sendDatagram(new LIFXPacket.Builder(LIFXPacket.Type.SET_POWER_STATE)
+				.setGlobeMac(simulator.getBulbs().get(0).getMac())
+				.build(),
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), simulator.getUdpPort()));
+		discoveryBroadcastIsAnswered();
+		assertFalse(simulator.getBulbs().get(0).isOn());
+	}
+
+	@Test
+	public void discoveryBroadcastIsAnswered() throws Exception {
+		final Object lock = new Object();
+		final InetSocketAddress[] from = new InetSocketAddress[1];
+		transport.addListener(new PacketListener() {
+			@Override
+			public void onPacket(LIFXPacketView packet, InetSocketAddress address) {
+				if (packet.getType() == LIFXPacket.Type.PAN_GATEWAY) {
+					synchronized (lock) {
+						from[0] = address;
+						lock.notifyAll();
+					}
+				}
+			}
+		});
+		transport.sendDatagram(new LIFXPacket.Builder(LIFXPacket.Type.GET_PAN_GATEWAY).build(),
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), simulator.getUdpPort()));
+		synchronized (lock) {
+			long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+			while (from[0] == null && System.currentTimeMillis() < deadline) {
+				lock.wait(TIMEOUT_MS);
+			}
+		}
+		assertNotNull(from[0]);
+		assertEquals(simulator.getUdpPort(), from[0].getPort());
+	}
+
+	@Test
+	public void unsentPacketsAreCountedWhenTheConnectionFails() throws Exception {
+		// Nothing listens on a port that was just freed, so the connect is refused.
+		ServerSocket closed = new ServerSocket(0);
+		int port = closed.getLocalPort();
+		closed.close();
+		GatewayConnection refused = transport.openGateway(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		LIFXPacket packet = power(simulator.getBulbs().get(0), true);
+		refused.send(packet);
+
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (transport.getMetrics().getWritesDropped() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, transport.getMetrics().getWritesDropped());
+		assertEquals(packet.getLength(), transport.getMetrics().getBytesDropped());
+	}
+}
@@ -0,0 +1,152 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.id.katharos.lifxalarm.sim.LIFXSimulator;
+
+/**
+ * Asks the simulator's globes over loopback.
+ */
+public class GroupQueryTest {
+
+	private static final int TIMEOUT_MS = 2000;
+
+	private LIFXSimulator simulator;
+	private LIFXTransport transport;
+	private GatewayConnection connection;
+
+	@Before
+	public void setUp() throws IOException {
+		simulator = new LIFXSimulator(0, 0, 3);
+		simulator.start();
+		transport = new LIFXTransport(0);
+		transport.start();
+		connection = transport.openGateway(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), simulator.getTcpPort()));
+	}
+
+	@After
+	public void tearDown() {
+		transport.shutdown();
+		simulator.stop();
+	}
+
+	private void askEveryone(LIFXPacket.Type type) throws IOException {
+		connection.send(new LIFXPacket.Builder(type)
+			.setGatewayMac(simulator.getBulbs().get(0).getMac())
+			.build());
+	}
+
+	private long mac(int bulb) {
+		return LIFXPacket.macToLong(simulator.getBulbs().get(bulb).getMac());
+	}
+
+	@Test
+	public void finishesOnceEveryoneHasReplied() throws IOException {
+		final AtomicReference<GroupQuery> completed = new AtomicReference<GroupQuery>();
+		GroupQuery query = new GroupQuery(transport, LIFXPacket.Type.GET_LIGHT_STATE, null, 3,
+				TIMEOUT_MS, new GroupQuery.Callback() {
+					@Override
+					public void onComplete(GroupQuery query) {
+						completed.set(query);
+					}
+				});
+		query.start();
+		askEveryone(LIFXPacket.Type.GET_LIGHT_STATE);
+
+		List<LIFXPacket> replies = query.await();
+		assertEquals(3, replies.size());
+		assertFalse(query.isTimedOut());
+		assertSame(query, completed.get());
+		assertTrue(query.getElapsedNanos() < TIMEOUT_MS * 1000000L);
+		for (int i = 0; i < 3; i++) {
+			LIFXPacket reply = query.getReply(mac(i));
+			assertNotNull(reply);
+			assertEquals(LIFXPacket.Type.LIGHT_STATE, reply.getType());
+		}
+	}
+
+	@Test
+	public void withoutACountWaitsForTheDeadline() throws IOException {
+		GroupQuery query = new GroupQuery(transport, LIFXPacket.Type.GET_POWER_STATE, null, 0,
+				200, null);
+		query.start();
+		askEveryone(LIFXPacket.Type.GET_POWER_STATE);
+
+		assertEquals(3, query.await().size());
+		assertTrue(query.isTimedOut());
+	}
+
+	@Test
+	public void onlyCountsItsMembers() throws IOException {
+		GroupQuery query = new GroupQuery(transport, LIFXPacket.Type.GET_POWER_STATE,
+				new long[] {mac(2), mac(1)}, 2, TIMEOUT_MS, null);
+		query.start();
+		askEveryone(LIFXPacket.Type.GET_POWER_STATE);
+
+		assertEquals(2, query.await().size());
+		assertFalse(query.isTimedOut());
+		assertNull(query.getReply(mac(0)));
+	}
+
+	@Test
+	public void cancelKeepsWhatCameBack() {
+		GroupQuery query = new GroupQuery(transport, LIFXPacket.Type.GET_LIGHT_STATE, null, 3,
+				TIMEOUT_MS, null);
+		query.start();
+		query.cancel();
+
+		assertEquals(0, query.await().size());
+		assertTrue(query.isDone());
+		assertFalse(query.isTimedOut());
+	}
+
+	@Test
+	public void cancelFinishesOnTheTransportThread() throws InterruptedException {
+		final BlockingQueue<Thread> threads = new LinkedBlockingQueue<Thread>();
+		transport.execute(new Runnable() {
+			@Override
+			public void run() {
+				threads.add(Thread.currentThread());
+			}
+		});
+		Thread transportThread = threads.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+		GroupQuery query = new GroupQuery(transport, LIFXPacket.Type.GET_LIGHT_STATE, null, 3,
+				TIMEOUT_MS, new GroupQuery.Callback() {
+					@Override
+					public void onComplete(GroupQuery query) {
+						threads.add(Thread.currentThread());
+					}
+				});
+		query.start();
+		query.cancel();
+
+		assertSame(transportThread, threads.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		query.await();
+		assertFalse(query.isTimedOut());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void needsAQuestionWithAReply() {
+		new GroupQuery(transport, LIFXPacket.Type.REBOOT, null, 1, TIMEOUT_MS, null);
+	}
+}
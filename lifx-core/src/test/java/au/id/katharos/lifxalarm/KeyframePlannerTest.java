@@ -0,0 +1,130 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KeyframePlannerTest {
+
+	private static final int SAMPLES = 240;
+
+	private final int[] times = new int[SAMPLES];
+	private final int[] hues = new int[SAMPLES];
+	private final int[] sats = new int[SAMPLES];
+	private final int[] brights = new int[SAMPLES];
+
+	private void sigmoid() {
+		for (int i = 0; i < SAMPLES; i++) {
+			times[i] = i * 5000;
+			brights[i] = (int) (100 / (1 + Math.exp(-10.0 * (i - SAMPLES / 2) / SAMPLES)));
+			hues[i] = Math.min(60, brights[i] * 120 / 100);
+			sats[i] = Math.max(100 - brights[i], 20);
+		}
+	}
+
+	@Test
+	public void straightLineNeedsOnlyItsEnds() {
+		for (int i = 0; i < SAMPLES; i++) {
+			times[i] = i * 1000;
+			brights[i] = i * 100 / SAMPLES;
+			sats[i] = 100;
+		}
+		int[] keys = new KeyframePlanner().plan(times, hues, sats, brights);
+		assertArrayEquals(new int[] {0, SAMPLES - 1}, keys);
+	}
+
+	@Test
+	public void sigmoidNeedsAFractionOfTheSamples() {
+		sigmoid();
+		int[] keys = new KeyframePlanner().plan(times, hues, sats, brights);
+		assertTrue("Got " + keys.length + " keyframes", keys.length <= SAMPLES / 10);
+		assertTrue(keys[0] == 0 && keys[keys.length - 1] == SAMPLES - 1);
+	}
+
+	@Test
+	public void fadesStayWithinTheError() {
+		sigmoid();
+		int maxError = 1;
+		int[] keys = new KeyframePlanner(maxError, maxError).plan(times, hues, sats, brights);
+		for (int k = 0; k + 1 < keys.length; k++) {
+			int from = keys[k];
+			int to = keys[k + 1];
+			for (int i = from; i <= to; i++) {
+				double fraction = (times[i] - times[from]) / (double) (times[to] - times[from]);
+				double bright = brights[from] + (brights[to] - brights[from]) * fraction;
+				double hue = hues[from] + (hues[to] - hues[from]) * fraction;
+				assertTrue("Brightness off at " + i, Math.abs(bright - brights[i]) <= maxError);
+				assertTrue("Hue off at " + i, Math.abs(hue - hues[i]) <= maxError);
+			}
+		}
+	}
+
+	@Test
+	public void tighterErrorNeedsMoreKeyframes() {
+		sigmoid();
+		int loose = new KeyframePlanner(5, 5).plan(times, hues, sats, brights).length;
+		int tight = new KeyframePlanner(1, 1).plan(times, hues, sats, brights).length;
+		assertTrue(loose + " vs " + tight, loose < tight);
+	}
+
+	@Test
+	public void looksPastASampleTheFadeCantReach() {
+		// A fade from 4 to 5 misses the 7 by more than 2, but one from 4 to the last 7 doesn't.
+		int[] keys = new KeyframePlanner().plan(new int[] {0, 1000, 2000, 3000}, new int[4],
+				new int[4], new int[] {4, 7, 5, 7});
+		assertArrayEquals(new int[] {0, 3}, keys);
+	}
+
+	@Test
+	public void needsNoMoreThanAnExhaustiveSearch() {
+		Random random = new Random(1);
+		int n = 12;
+		int[] steps = new int[n];
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			steps[i] = i * 1000;
+		}
+		for (int curve = 0; curve < 500; curve++) {
+			for (int i = 0; i < n; i++) {
+				values[i] = random.nextInt(10);
+			}
+			// Fewest keyframes to each sample, trying every segment that fits.
+			int[] fewest = new int[n];
+			for (int end = 1; end < n; end++) {
+				fewest[end] = Integer.MAX_VALUE;
+				for (int start = 0; start < end; start++) {
+					if (fits(values, start, end, 2)) {
+						fewest[end] = Math.min(fewest[end], fewest[start] + 1);
+					}
+				}
+			}
+			int[] keys = new KeyframePlanner().plan(steps, new int[n], new int[n], values);
+			assertEquals(Arrays.toString(values), fewest[n - 1] + 1, keys.length);
+			for (int k = 0; k + 1 < keys.length; k++) {
+				assertTrue(Arrays.toString(values), fits(values, keys[k], keys[k + 1], 2));
+			}
+		}
+	}
+
+	// With samples evenly spaced.
+	private static boolean fits(int[] values, int start, int end, int maxError) {
+		for (int i = start + 1; i < end; i++) {
+			double line = values[start] + (values[end] - values[start]) * (i - start) / (double) (end - start);
+			if (Math.abs(line - values[i]) > maxError) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Test
+	public void keepsTinyCurvesWhole() {
+		assertArrayEquals(new int[] {0, 1},
+				new KeyframePlanner().plan(new int[] {0, 1}, new int[2], new int[2], new int[2]));
+	}
+}
@@ -0,0 +1,110 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.id.katharos.lifxalarm.sim.LIFXSimulator;
+import au.id.katharos.lifxalarm.sim.SimulatedBulb;
+
+public class LIFXConnectionKeeperTest {
+
+	private static final byte[] GATEWAY = {(byte) 0xd0, 0x73, (byte) 0xd5, 0, 0, 0};
+	private static final int TIMEOUT_MS = 2000;
+
+	private LIFXConnectionKeeper keeper;
+	private LIFXSimulator simulator;
+
+	@After
+	public void tearDown() {
+		if (keeper != null) {
+			keeper.shutdown();
+		}
+		if (simulator != null) {
+			simulator.stop();
+		}
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		return port;
+	}
+
+	private static LIFXPacket turnOn() {
+		return turnOn(GATEWAY);
+	}
+
+	private static LIFXPacket turnOn(byte[] mac) {
+		return new LIFXPacket.Builder(LIFXPacket.Type.SET_POWER_STATE)
+			.setGlobeMac(mac)
+			.setPayload(new PowerStatePayload(true))
+			.build();
+	}
+
+	@Test
+	public void aWriteLostWithItsConnectionIsntSkippedNextTime() throws Exception {
+		// Nothing listens on the gateway's port, so its connection fails with the write queued.
+		int port = freePort();
+		keeper = new LIFXConnectionKeeper(0, port);
+		long mac = LIFXPacket.macToLong(GATEWAY);
+		keeper.getRegistry().seen(mac, mac,
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port)).setGateway(true);
+		TransportMetrics metrics = keeper.getTransport().getMetrics();
+
+		keeper.sendPacket(turnOn(), false);
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (metrics.getWritesDropped() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, metrics.getWritesDropped());
+		assertEquals(Device.POWER_UNKNOWN, keeper.getRegistry().get(mac).getPower());
+
+		// The retry still goes out rather than being taken as redundant.
+		keeper.sendPacket(turnOn(), false);
+		assertEquals(0, metrics.getWritesSuppressed());
+		assertEquals(2, metrics.getPacketsSent(LIFXPacket.Type.SET_POWER_STATE));
+	}
+
+	@Test
+	public void aBatchGoesThroughEachGlobesGatewayAndUpdatesTheShadow() throws Exception {
+		int port = freePort();
+		simulator = new LIFXSimulator(port, port, 2);
+		simulator.start();
+		keeper = new LIFXConnectionKeeper(0, port);
+		// The simulator listens on every address, so two loopback addresses
+		// make two gateways.
+		SimulatedBulb first = simulator.getBulbs().get(0);
+		SimulatedBulb second = simulator.getBulbs().get(1);
+		keeper.getRegistry().seen(LIFXPacket.macToLong(first.getMac()), LIFXPacket.macToLong(GATEWAY),
+				new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+		keeper.getRegistry().seen(LIFXPacket.macToLong(second.getMac()), LIFXPacket.macToLong(GATEWAY),
+				new InetSocketAddress(InetAddress.getByName("127.0.0.2"), port));
+		TransportMetrics metrics = keeper.getTransport().getMetrics();
+
+		assertTrue(keeper.sendBatch(new PacketBatch()
+			.add(turnOn(first.getMac()))
+			.add(turnOn(second.getMac()))));
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (!(first.isOn() && second.isOn()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(first.isOn());
+		assertTrue(second.isOn());
+		assertEquals(2, metrics.getConnects());
+
+		// The batch told the shadow, so sending the same again is skipped.
+		assertTrue(keeper.sendBatch(new PacketBatch().add(turnOn(first.getMac()))));
+		keeper.sendPacket(turnOn(second.getMac()), false);
+		assertEquals(2, metrics.getWritesSuppressed());
+		assertEquals(2, metrics.getPacketsSent(LIFXPacket.Type.SET_POWER_STATE));
+	}
+}
@@ -0,0 +1,98 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LIFXLogTest {
+
+	private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void setUp() {
+		LIFXLog.setSink(new LogSink() {
+			@Override
+			public void log(int priority, String tag, String message, Throwable throwable) {
+				messages.add(priority + " " + tag + " " + message);
+				threads.add(Thread.currentThread().getName());
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		LIFXLog.setAsync(false);
+		LIFXLog.setLevel(LIFXLog.INFO);
+		LIFXLog.setSink(null);
+	}
+
+	@Test
+	public void dropsMessagesBelowTheLevel() {
+		LIFXLog.setLevel(LIFXLog.WARN);
+		LIFXLog.i("Test", "quiet");
+		LIFXLog.w("Test", "loud");
+		assertEquals(1, messages.size());
+		assertEquals("5 Test loud", messages.get(0));
+	}
+
+	@Test
+	public void neverFormatsFilteredMessages() {
+		Object explodes = new Object() {
+			@Override
+			public String toString() {
+				throw new AssertionError("Formatted a filtered message");
+			}
+		};
+		LIFXLog.d("Test", "%s", explodes);
+		assertTrue(messages.isEmpty());
+	}
+
+	@Test
+	public void formatsArguments() {
+		LIFXLog.i("Test", "%d%% of %s", 50, "the sunrise");
+		assertEquals("4 Test 50% of the sunrise", messages.get(0));
+	}
+
+	@Test
+	public void plainMessagesAreNotFormatted() {
+		LIFXLog.i("Test", "100% bright");
+		assertEquals("4 Test 100% bright", messages.get(0));
+	}
+
+	@Test
+	public void asyncWritesOnTheLoggingThread() {
+		LIFXLog.setAsync(true);
+		LIFXLog.i("Test", "step %d", 1);
+		LIFXLog.setAsync(false);
+		assertEquals("4 Test step 1", messages.get(0));
+		assertEquals("LIFX log", threads.get(0));
+	}
+
+	@Test
+	public void asyncDropsMessagesOverTheRateLimit() {
+		LIFXLog.setAsync(true);
+		for (int i = 0; i < AsyncLogWriter.DEFAULT_MAX_PER_SECOND + 50; i++) {
+			LIFXLog.i("Test", "message %d", i);
+		}
+		LIFXLog.setAsync(false);
+		int written = 0;
+		int dropped = 0;
+		for (String message : messages) {
+			if (message.startsWith("5 LIFXLog Dropped ")) {
+				dropped += Integer.parseInt(message.split(" ")[3]);
+			} else {
+				written++;
+			}
+		}
+		assertEquals(AsyncLogWriter.DEFAULT_MAX_PER_SECOND, written);
+		assertEquals(50, dropped);
+	}
+}
@@ -0,0 +1,75 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+public class LIFXPacketTest {
+
+	private static final byte[] MAC = {1, 2, 3, 4, 5, 6};
+
+	@Test
+	public void encodesDiscoveryBroadcast() {
+		LIFXPacket packet = new LIFXPacket.Builder(LIFXPacket.Type.GET_PAN_GATEWAY).build();
+		assertEquals("240000340000000000000000000000000000000000000000000000000000000002000000",
+				LIFXPacket.bytesToHex(packet.getBytes()));
+	}
+
+	@Test
+	public void encodesSetLightColor() {
+		LIFXPacket packet = new LIFXPacket.Builder(LIFXPacket.Type.SET_LIGHT_COLOR)
+			.setGlobeMac(MAC)
+			.setPayload(new SetLightColorPayload(60, 50, 100, 2))
+			.build();
+		assertEquals("31000034000000000102030405060000010203040506000000000000000000006600000000AA2AFF7FFFFF000002000000",
+				LIFXPacket.bytesToHex(packet.getBytes()));
+	}
+
+	@Test
+	public void decodesWhatItEncodes() {
+		LIFXPacket packet = new LIFXPacket.Builder(LIFXPacket.Type.SET_LIGHT_COLOR)
+			.setGlobeMac(MAC)
+			.setPayload(new SetLightColorPayload(120, 80, 40, 3500, 5000))
+			.build();
+		LIFXPacket decoded = new LIFXPacket(packet.getBytes());
+
+		assertEquals(LIFXPacket.Type.SET_LIGHT_COLOR, decoded.getType());
+		assertArrayEquals(MAC, decoded.getTargetMacAddress());
+		assertArrayEquals(MAC, decoded.getGatewayMacAddress());
+		SetLightColorPayload payload = (SetLightColorPayload) decoded.getPayload();
+		assertEquals(120, payload.getHue());
+		assertEquals(80, payload.getSaturation());
+		assertEquals(40, payload.getBrightness());
+		assertEquals(3500, payload.getKelvin());
+		assertEquals(5000, payload.getFadeTime());
+	}
+
+	@Test
+	public void encodeToWritesTimestampAndKeepsByteOrder() {
+		LIFXPacket packet = new LIFXPacket.Builder(LIFXPacket.Type.GET_POWER_STATE).build();
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put((byte) 0xEE);
+		packet.encodeTo(buffer, 0x0102030405060708L);
+
+		assertEquals(1 + packet.getLength(), buffer.position());
+		assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+		LIFXPacketView view = new LIFXPacketView();
+		assertEquals(LIFXPacketView.OK, view.wrap(buffer.array(), 1, packet.getLength()));
+		assertEquals(0x0102030405060708L, view.getTimestamp());
+		assertEquals(LIFXPacket.Type.GET_POWER_STATE, view.getType());
+	}
+
+	@Test
+	public void packsMacIntoLong() {
+		assertEquals(0x010203040506L, LIFXPacket.macToLong(MAC));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTruncatedPacket() {
+		new LIFXPacket(new byte[10]);
+	}
+}
@@ -0,0 +1,65 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LIFXPacketViewTest {
+
+	private final LIFXPacketView view = new LIFXPacketView();
+
+	private static byte[] powerState(boolean on) {
+		return new LIFXPacket.Builder(LIFXPacket.Type.POWER_STATE)
+			.setGlobeMac(new byte[] {(byte) 0xd0, 0x73, (byte) 0xd5, 0, 0, 1})
+			.setPayload(new PowerStatePayload(on))
+			.build()
+			.getBytes();
+	}
+
+	@Test
+	public void readsHeaderAndPayloadInPlace() {
+		byte[] bytes = powerState(true);
+		assertEquals(LIFXPacketView.OK, view.wrap(bytes, 0, bytes.length));
+		assertTrue(view.isValid());
+		assertEquals(bytes.length, view.getSize());
+		assertEquals(LIFXPacket.Type.POWER_STATE, view.getType());
+		assertEquals(0xd073d5000001L, view.getTargetMac());
+		assertEquals(PowerStatePayload.LENGTH, view.getPayloadLength());
+		assertEquals(0xFFFF, view.getPayloadUint16(0));
+		assertTrue(((PowerStatePayload) view.decodePayload()).isOn());
+	}
+
+	@Test
+	public void reportsTruncatedPacket() {
+		byte[] bytes = powerState(true);
+		assertEquals(LIFXPacketView.TRUNCATED, view.wrap(bytes, 0, 20));
+		assertEquals(LIFXPacketView.TRUNCATED, view.wrap(bytes, 0, bytes.length - 1));
+		assertFalse(view.isValid());
+	}
+
+	@Test
+	public void reportsBadSize() {
+		byte[] bytes = powerState(true);
+		bytes[0] = 10;
+		assertEquals(LIFXPacketView.BAD_SIZE, view.wrap(bytes, 0, bytes.length));
+	}
+
+	@Test
+	public void reportsUnknownType() {
+		byte[] bytes = powerState(true);
+		bytes[32] = (byte) 0xFE;
+		bytes[33] = 0x7F;
+		assertEquals(LIFXPacketView.UNKNOWN_TYPE, view.wrap(bytes, 0, bytes.length));
+	}
+
+	@Test
+	public void wrapsAtAnOffset() {
+		byte[] packet = powerState(false);
+		byte[] bytes = new byte[packet.length + 7];
+		System.arraycopy(packet, 0, bytes, 7, packet.length);
+		assertEquals(LIFXPacketView.OK, view.wrap(bytes, 7, packet.length));
+		assertFalse(((PowerStatePayload) view.decodePayload()).isOn());
+	}
+}
@@ -0,0 +1,71 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LIFXTransportTest {
+
+	private LIFXTransport transport;
+	private DatagramSocket receiver;
+
+	@Before
+	public void setUp() throws IOException {
+		transport = new LIFXTransport(0);
+		transport.start();
+		receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		receiver.setSoTimeout(2000);
+	}
+
+	@After
+	public void tearDown() {
+		transport.shutdown();
+		receiver.close();
+	}
+
+	@Test
+	public void datagramsAfterAFailedOneStillGo() throws IOException {
+		LIFXPacket packet = new LIFXPacket.Builder(LIFXPacket.Type.GET_PAN_GATEWAY).build();
+		// The socket refuses to send to port 0.
+		transport.sendDatagram(packet, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		transport.sendDatagram(packet, receiver.getLocalSocketAddress());
+
+		DatagramPacket received = new DatagramPacket(new byte[512], 512);
+		receiver.receive(received);
+		assertEquals(packet.getLength(), received.getLength());
+		assertEquals(1, transport.getMetrics().getSendErrors());
+
+		// And the queue keeps working afterwards.
+		transport.sendDatagram(packet, receiver.getLocalSocketAddress());
+		receiver.receive(received);
+		assertEquals(packet.getLength(), received.getLength());
+	}
+
+	@Test
+	public void aBatchOfDatagramsGoesOnePerPacket() throws IOException {
+		PacketBatch batch = new PacketBatch();
+		for (int i = 0; i < 3; i++) {
+			batch.add(new LIFXPacket.Builder(LIFXPacket.Type.GET_LIGHT_STATE)
+				.setGlobeMac(new byte[] {(byte) 0xd0, 0x73, (byte) 0xd5, 0, 0, (byte) i})
+				.build());
+		}
+		transport.sendDatagrams(batch, receiver.getLocalSocketAddress());
+
+		DatagramPacket received = new DatagramPacket(new byte[512], 512);
+		LIFXPacketView view = new LIFXPacketView();
+		for (int i = 0; i < 3; i++) {
+			receiver.receive(received);
+			assertEquals(LIFXPacketView.OK, view.wrap(received.getData(), 0, received.getLength()));
+			assertEquals(batch.get(i).getLength(), received.getLength());
+			assertEquals(LIFXPacket.macToLong(batch.get(i).getTargetMacAddress()), view.getTargetMac());
+		}
+	}
+}
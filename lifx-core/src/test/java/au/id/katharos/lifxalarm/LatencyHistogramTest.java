@@ -0,0 +1,50 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	@Test
+	public void bucketsByPowerOfTwoMicros() {
+		assertEquals(0, LatencyHistogram.bucketFor(0));
+		assertEquals(0, LatencyHistogram.bucketFor(1));
+		assertEquals(1, LatencyHistogram.bucketFor(2));
+		assertEquals(1, LatencyHistogram.bucketFor(3));
+		assertEquals(10, LatencyHistogram.bucketFor(1024));
+		assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketFor(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void percentilesAreBucketUpperBounds() {
+		for (int i = 0; i < 99; i++) {
+			histogram.record(100 * 1000L);
+		}
+		histogram.record(5000 * 1000L);
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(127, histogram.getPercentileMicros(50));
+		assertEquals(127, histogram.getPercentileMicros(99));
+		assertEquals(5000, histogram.getPercentileMicros(100));
+		assertEquals(5000, histogram.getMaxMicros());
+		assertEquals((99 * 100 + 5000) / 100, histogram.getMeanMicros());
+	}
+
+	@Test
+	public void snapshotDoesNotChange() {
+		histogram.record(1000);
+		LatencyHistogram snapshot = histogram.snapshot();
+		histogram.record(1000);
+		assertEquals(1, snapshot.getCount());
+		assertEquals(2, histogram.getCount());
+	}
+
+	@Test
+	public void emptyHistogramReportsZero() {
+		assertEquals(0, histogram.getPercentileMicros(99));
+		assertEquals(0, histogram.getMeanMicros());
+	}
+}
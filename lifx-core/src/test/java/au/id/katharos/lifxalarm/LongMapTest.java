@@ -0,0 +1,81 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class LongMapTest {
+
+	@Test
+	public void putsAndGets() {
+		LongMap<String> map = new LongMap<String>();
+		assertNull(map.put(0xd073d5000001L, "a"));
+		assertNull(map.put(0, "zero"));
+		assertEquals("a", map.put(0xd073d5000001L, "b"));
+
+		assertEquals("b", map.get(0xd073d5000001L));
+		assertEquals("zero", map.get(0));
+		assertNull(map.get(0xd073d5000002L));
+		assertEquals(2, map.size());
+	}
+
+	@Test
+	public void growsToThousandsOfKeys() {
+		LongMap<Long> map = new LongMap<Long>();
+		for (long mac = 0; mac < 5000; mac++) {
+			map.put(0xd073d5000000L + mac, mac);
+		}
+		assertEquals(5000, map.size());
+		assertEquals(5000, map.values().size());
+		for (long mac = 0; mac < 5000; mac++) {
+			assertEquals(Long.valueOf(mac), map.get(0xd073d5000000L + mac));
+		}
+	}
+
+	@Test
+	public void putIfAbsentKeepsTheFirst() {
+		LongMap<String> map = new LongMap<String>();
+		String first = "first";
+		assertNull(map.putIfAbsent(1, first));
+		assertSame(first, map.putIfAbsent(1, "second"));
+		assertSame(first, map.get(1));
+	}
+
+	@Test
+	public void readersNeverSeeAKeyDisappear() throws Exception {
+		final LongMap<Long> map = new LongMap<Long>();
+		final int keys = 20000;
+		final AtomicInteger missing = new AtomicInteger();
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (long key = 1; key <= keys; key++) {
+					map.put(key, key);
+				}
+			}
+		};
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				// Key 1 goes in first, so once it's there it must stay visible through every resize.
+				while (map.get(1) == null) {
+					Thread.yield();
+				}
+				while (map.size() < keys) {
+					if (map.get(1) == null) {
+						missing.incrementAndGet();
+					}
+				}
+			}
+		};
+		reader.start();
+		writer.start();
+		writer.join();
+		reader.join(5000);
+		assertEquals(0, missing.get());
+	}
+}
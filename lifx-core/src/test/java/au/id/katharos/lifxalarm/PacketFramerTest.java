@@ -0,0 +1,101 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PacketFramerTest {
+
+	private final PacketFramer framer = new PacketFramer();
+	private final List<LIFXPacket.Type> frames = new ArrayList<LIFXPacket.Type>();
+	private final PacketFramer.FrameHandler handler = new PacketFramer.FrameHandler() {
+		@Override
+		public void onFrame(LIFXPacketView frame) {
+			frames.add(frame.getType());
+		}
+	};
+	private Pipe pipe;
+
+	@Before
+	public void setUp() throws IOException {
+		pipe = Pipe.open();
+		pipe.source().configureBlocking(false);
+	}
+
+	private static byte[] packet(LIFXPacket.Type type, int payloadLength) {
+		LIFXPacket.Builder builder = new LIFXPacket.Builder(type);
+		if (payloadLength > 0) {
+			builder.setPayload(new RawPayload(new byte[payloadLength]));
+		}
+		return builder.build().getBytes();
+	}
+
+	private void write(byte[] bytes, int offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+		while (buffer.hasRemaining()) {
+			pipe.sink().write(buffer);
+		}
+	}
+
+	@Test
+	public void deliversSeveralPacketsFromOneRead() throws IOException {
+		byte[] one = packet(LIFXPacket.Type.GET_PAN_GATEWAY, 0);
+		byte[] two = packet(LIFXPacket.Type.GET_POWER_STATE, 0);
+		write(one, 0, one.length);
+		write(two, 0, two.length);
+
+		assertEquals(2, framer.readFrom(pipe.source(), handler));
+		assertEquals(LIFXPacket.Type.GET_PAN_GATEWAY, frames.get(0));
+		assertEquals(LIFXPacket.Type.GET_POWER_STATE, frames.get(1));
+		assertEquals(1, framer.getFramesPerReadHistogram()[2]);
+	}
+
+	@Test
+	public void keepsPartialPacketUntilTheRestArrives() throws IOException {
+		byte[] bytes = packet(LIFXPacket.Type.GET_PAN_GATEWAY, 0);
+		write(bytes, 0, 10);
+		assertEquals(0, framer.readFrom(pipe.source(), handler));
+		write(bytes, 10, bytes.length - 10);
+		assertEquals(1, framer.readFrom(pipe.source(), handler));
+		assertEquals(1, frames.size());
+	}
+
+	@Test
+	public void growsForPacketsBiggerThanTheBuffer() throws IOException {
+		byte[] big = packet(LIFXPacket.Type.WIFI_STATE, 6000);
+		int initialCapacity = framer.getBufferCapacity();
+		write(big, 0, initialCapacity);
+		assertEquals(0, framer.readFrom(pipe.source(), handler));
+		write(big, initialCapacity, big.length - initialCapacity);
+		assertEquals(1, framer.readFrom(pipe.source(), handler));
+		assertEquals(LIFXPacket.Type.WIFI_STATE, frames.get(0));
+	}
+
+	@Test
+	public void skipsWellFramedPacketsOfUnknownType() throws IOException {
+		byte[] bytes = packet(LIFXPacket.Type.GET_PAN_GATEWAY, 0);
+		bytes[32] = (byte) 0xFE;
+		write(bytes, 0, bytes.length);
+		assertEquals(0, framer.readFrom(pipe.source(), handler));
+		assertEquals(1, framer.getMalformedCount());
+	}
+
+	@Test(expected = IOException.class)
+	public void failsOnImpossibleSize() throws IOException {
+		write(new byte[] {4, 0, 0, 0}, 0, 4);
+		framer.readFrom(pipe.source(), handler);
+	}
+
+	@Test
+	public void reportsEndOfStream() throws IOException {
+		pipe.sink().close();
+		assertEquals(-1, framer.readFrom(pipe.source(), handler));
+	}
+}
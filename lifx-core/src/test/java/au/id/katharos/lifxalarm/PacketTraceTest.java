@@ -0,0 +1,50 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class PacketTraceTest {
+
+	private static ByteBuffer packet(LIFXPacket.Type type) {
+		return ByteBuffer.wrap(new LIFXPacket.Builder(type).build().getBytes());
+	}
+
+	@Test
+	public void dumpsPacketsOldestFirstAsHex() {
+		PacketTrace trace = new PacketTrace(4);
+		trace.record(true, packet(LIFXPacket.Type.GET_PAN_GATEWAY), 0, LIFXPacket.HEADER_LENGTH);
+		trace.record(false, packet(LIFXPacket.Type.GET_POWER_STATE), 0, LIFXPacket.HEADER_LENGTH);
+
+		String[] lines = trace.dump().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0], lines[0].matches("-\\d+ms > 36 24000034.*02000000"));
+		assertTrue(lines[1], lines[1].matches("-0ms < 36 24000034.*14000000"));
+	}
+
+	@Test
+	public void keepsOnlyTheNewestPackets() {
+		PacketTrace trace = new PacketTrace(2);
+		trace.record(true, packet(LIFXPacket.Type.GET_PAN_GATEWAY), 0, LIFXPacket.HEADER_LENGTH);
+		trace.record(true, packet(LIFXPacket.Type.GET_TIME), 0, LIFXPacket.HEADER_LENGTH);
+		trace.record(true, packet(LIFXPacket.Type.GET_POWER_STATE), 0, LIFXPacket.HEADER_LENGTH);
+
+		String[] lines = trace.dump().split("\n");
+		assertEquals(3, trace.getTotal());
+		assertEquals(2, lines.length);
+		assertTrue(lines[0], lines[0].endsWith("04000000"));
+		assertTrue(lines[1], lines[1].endsWith("14000000"));
+	}
+
+	@Test
+	public void truncatesLongPackets() {
+		PacketTrace trace = new PacketTrace(1);
+		trace.record(true, ByteBuffer.allocate(300), 0, 300);
+		String line = trace.dump().trim();
+		assertTrue(line, line.endsWith("00.."));
+		assertEquals("-0ms > 300 ".length() + PacketTrace.SLOT_SIZE * 2 + 2, line.length());
+	}
+}
@@ -0,0 +1,181 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SendSchedulerTest {
+
+	private static final byte[] BULB = {(byte) 0xd0, 0x73, (byte) 0xd5, 0, 0, 1};
+	private static final int TIMEOUT_MS = 2000;
+
+	private LIFXTransport transport;
+	private RecordingConnection connection;
+
+	/**
+	 * Keeps what would have been sent, and when, instead of sending it.
+	 */
+	private static class RecordingConnection extends GatewayConnection {
+		final List<LIFXPacket> sent = new ArrayList<LIFXPacket>();
+		final List<Long> sentNanos = new ArrayList<Long>();
+
+		RecordingConnection(LIFXTransport transport) {
+			super(transport, new InetSocketAddress(InetAddress.getLoopbackAddress(), 56700));
+		}
+
+		@Override
+		public synchronized void send(LIFXPacket packet) throws IOException {
+			sent.add(packet);
+			sentNanos.add(System.nanoTime());
+			notifyAll();
+		}
+
+		synchronized void awaitSent(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+			while (sent.size() < count && System.currentTimeMillis() < deadline) {
+				wait(TIMEOUT_MS);
+			}
+			assertEquals(count, sent.size());
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		transport = new LIFXTransport(0);
+		transport.start();
+		connection = new RecordingConnection(transport);
+	}
+
+	@After
+	public void tearDown() {
+		transport.shutdown();
+	}
+
+	private static LIFXPacket power(boolean on) {
+		return new LIFXPacket.Builder(LIFXPacket.Type.SET_POWER_STATE)
+			.setGlobeMac(BULB)
+			.setPayload(new PowerStatePayload(on))
+			.build();
+	}
+
+	private static LIFXPacket color(int hue) {
+		return new LIFXPacket.Builder(LIFXPacket.Type.SET_LIGHT_COLOR)
+			.setGlobeMac(BULB)
+			.setPayload(new SetLightColorPayload(hue, 100, 100, 3500, 0))
+			.build();
+	}
+
+	private static int hue(LIFXPacket packet) {
+		return ((SetLightColorPayload) packet.getPayload()).getHue();
+	}
+
+	@Test
+	public void aBurstGoesStraightAwayAndTheRestArePaced() throws Exception {
+		SendScheduler scheduler = new SendScheduler(connection, transport, 20, 4);
+		long start = System.nanoTime();
+		for (int i = 0; i < 8; i++) {
+			assertTrue(scheduler.submit(power(i % 2 == 0)));
+		}
+		synchronized (connection) {
+			assertEquals(4, connection.sent.size());
+		}
+		assertEquals(4, scheduler.getQueuedCount());
+
+		connection.awaitSent(8);
+		// The rest get a token every 50ms. A late wake up may catch up, but
+		// nothing goes before its token.
+		for (int i = 4; i < 8; i++) {
+			long sentMs = TimeUnit.NANOSECONDS.toMillis(connection.sentNanos.get(i) - start);
+			assertTrue("packet " + i + " sent after " + sentMs + "ms", sentMs >= (i - 3) * 50 - 1);
+		}
+		assertEquals(8, scheduler.getSentCount());
+		assertEquals(0, scheduler.getQueuedCount());
+	}
+
+	@Test
+	public void onlyTheLatestQueuedColourGoes() throws Exception {
+		SendScheduler scheduler = new SendScheduler(connection, transport, 20, 1);
+		scheduler.submit(color(10));
+		scheduler.submit(color(20));
+		scheduler.submit(color(30));
+		scheduler.submit(color(40));
+
+		connection.awaitSent(2);
+		Thread.sleep(100);
+		assertEquals(2, connection.sent.size());
+		assertEquals(10, hue(connection.sent.get(0)));
+		assertEquals(40, hue(connection.sent.get(1)));
+		assertEquals(2, scheduler.getCoalescedCount());
+	}
+
+	@Test
+	public void aColourQueuedAfterPowerStaysAfterIt() throws Exception {
+		SendScheduler scheduler = new SendScheduler(connection, transport, 20, 1);
+		scheduler.submit(power(false));
+		scheduler.submit(color(10));
+		scheduler.submit(power(true));
+		scheduler.submit(color(20));
+
+		connection.awaitSent(4);
+		assertFalse(((PowerStatePayload) connection.sent.get(0).getPayload()).isOn());
+		assertEquals(10, hue(connection.sent.get(1)));
+		assertTrue(((PowerStatePayload) connection.sent.get(2).getPayload()).isOn());
+		assertEquals(20, hue(connection.sent.get(3)));
+		assertEquals(0, scheduler.getCoalescedCount());
+	}
+
+	@Test
+	public void colourAndDimShareTheLatestStateSlot() throws Exception {
+		SendScheduler scheduler = new SendScheduler(connection, transport, 20, 1);
+		scheduler.submit(power(true));
+		scheduler.submit(color(10));
+		scheduler.submit(new LIFXPacket.Builder(LIFXPacket.Type.SET_DIM_ABSOLUTE)
+			.setGlobeMac(BULB)
+			.setPayload(new SetLightDimPayload(false, 0x1000, 0))
+			.build());
+		scheduler.submit(color(20));
+
+		connection.awaitSent(2);
+		Thread.sleep(100);
+		assertEquals(2, connection.sent.size());
+		assertEquals(20, hue(connection.sent.get(1)));
+		assertEquals(2, scheduler.getCoalescedCount());
+	}
+
+	@Test
+	public void powerIsNeverCoalesced() throws Exception {
+		SendScheduler scheduler = new SendScheduler(connection, transport, 50, 1);
+		for (int i = 0; i < 5; i++) {
+			scheduler.submit(power(i % 2 == 0));
+		}
+
+		connection.awaitSent(5);
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i % 2 == 0, ((PowerStatePayload) connection.sent.get(i).getPayload()).isOn());
+		}
+		assertEquals(0, scheduler.getCoalescedCount());
+	}
+
+	@Test
+	public void aFullQueueRefusesMore() {
+		SendScheduler scheduler = new SendScheduler(connection, transport, 1, 1);
+		assertTrue(scheduler.submit(power(true)));
+		for (int i = 0; i < 16; i++) {
+			assertTrue(scheduler.submit(power(i % 2 == 0)));
+		}
+		assertFalse(scheduler.submit(power(false)));
+		assertEquals(1, scheduler.getRejectedCount());
+		assertEquals(16, scheduler.getQueuedCount());
+	}
+}
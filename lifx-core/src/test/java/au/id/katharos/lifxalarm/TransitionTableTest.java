@@ -0,0 +1,71 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TransitionTableTest {
+
+	@Test
+	public void looksUpEachChannel() {
+		TransitionTable table = new TransitionProfile.Builder(10000)
+			.hue(0, 360, Curve.LINEAR)
+			.saturation(100, 0, Curve.LINEAR)
+			.brightness(0, 100, Curve.EASE_IN)
+			.kelvin(2500, 6500, Curve.LINEAR)
+			.build()
+			.compile(100);
+
+		assertEquals(101, table.size());
+		long middle = table.lookup(5000);
+		assertEquals(180, TransitionTable.getHue(middle));
+		assertEquals(50, TransitionTable.getSaturation(middle));
+		assertEquals(25, TransitionTable.getBrightness(middle));
+		assertEquals(4500, TransitionTable.getKelvin(middle));
+
+		long end = table.lookup(10000);
+		assertEquals(360, TransitionTable.getHue(end));
+		assertEquals(0, TransitionTable.getSaturation(end));
+		assertEquals(100, TransitionTable.getBrightness(end));
+		assertEquals(6500, TransitionTable.getKelvin(end));
+	}
+
+	@Test
+	public void usesTheStepAtOrBeforeTheTime() {
+		TransitionTable table = new TransitionProfile.Builder(1000)
+			.brightness(0, 100, Curve.LINEAR)
+			.build()
+			.compile(100);
+		assertEquals(20, TransitionTable.getBrightness(table.lookup(299)));
+		assertEquals(30, TransitionTable.getBrightness(table.lookup(300)));
+	}
+
+	@Test
+	public void clampsTimesOutsideTheTransition() {
+		TransitionTable table = new TransitionProfile.Builder(1000)
+			.brightness(10, 90, Curve.LINEAR)
+			.build()
+			.compile(300);
+		assertEquals(5, table.size());
+		assertEquals(10, TransitionTable.getBrightness(table.lookup(-50)));
+		assertEquals(90, TransitionTable.getBrightness(table.lookup(999999)));
+	}
+
+	@Test
+	public void sunriseGoesFromDimRedToBrightYellow() {
+		TransitionTable table = TransitionProfile.SUNRISE.compile(1000);
+		long start = table.lookup(0);
+		assertEquals(0, TransitionTable.getHue(start));
+		assertEquals(100, TransitionTable.getSaturation(start));
+		assertEquals(0, TransitionTable.getBrightness(start));
+		long end = table.lookup(table.getDurationMs());
+		assertEquals(60, TransitionTable.getHue(end));
+		assertEquals(20, TransitionTable.getSaturation(end));
+		assertEquals(100, TransitionTable.getBrightness(end));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOutOfRangeChannels() {
+		new TransitionProfile.Builder(1000).saturation(0, 150, Curve.LINEAR);
+	}
+}
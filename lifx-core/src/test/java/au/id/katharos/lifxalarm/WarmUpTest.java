@@ -0,0 +1,194 @@
+package au.id.katharos.lifxalarm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.id.katharos.lifxalarm.sim.LIFXSimulator;
+import au.id.katharos.lifxalarm.sim.SimulatedBulb;
+
+/**
+ * Warms up a simulated globe through a keeper of its own.
+ */
+public class WarmUpTest {
+
+	private static final int TIMEOUT_MS = 2000;
+
+	private final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+	private final WarmUp.Listener listener = new WarmUp.Listener() {
+		@Override
+		public void onPrepared(byte[] mac) {
+			events.add("prepared");
+		}
+
+		@Override
+		public void onReady(byte[] mac) {
+			events.add("ready");
+		}
+
+		@Override
+		public void onFailed(WarmUp.Stage stage) {
+			events.add("failed " + stage);
+		}
+	};
+
+	private final Runnable done = new Runnable() {
+		@Override
+		public void run() {
+			events.add("done");
+		}
+	};
+
+	private int port;
+	private LIFXSimulator simulator;
+	private LIFXConnectionKeeper keeper;
+	private ExecutorScheduler scheduler;
+
+	@Before
+	public void setUp() throws IOException {
+		// Gateways take UDP and TCP on the same port, so find one that's free for both.
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+		keeper = new LIFXConnectionKeeper(0, port);
+		scheduler = new ExecutorScheduler("warm up");
+	}
+
+	@After
+	public void tearDown() {
+		keeper.shutdown();
+		scheduler.shutdown();
+		if (simulator != null) {
+			simulator.stop();
+		}
+	}
+
+	/**
+	 * Start the simulator and tell the keeper where it is, as the device cache would.
+	 */
+	private SimulatedBulb startSimulator() throws IOException {
+		simulator = new LIFXSimulator(port, port, 1);
+		simulator.start();
+		SimulatedBulb gateway = simulator.getBulbs().get(0);
+		long mac = LIFXPacket.macToLong(gateway.getMac());
+		keeper.getRegistry().seen(mac, mac,
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port)).setGateway(true);
+		return gateway;
+	}
+
+	private String nextEvent() throws InterruptedException {
+		return events.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+	}
+
+	private void awaitFinished(WarmUp warmUp, WarmUp.Stage stage) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (warmUp.getFinishedNanos(stage) == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void stagesFinishInOrder() throws Exception {
+		SimulatedBulb gateway = startSimulator();
+		WarmUp warmUp = new WarmUp(keeper, scheduler, listener);
+		warmUp.start();
+
+		assertEquals("ready", nextEvent());
+		awaitFinished(warmUp, WarmUp.Stage.CONFIRM);
+		long last = 0;
+		for (WarmUp.Stage stage : WarmUp.Stage.values()) {
+			long finished = warmUp.getFinishedNanos(stage);
+			assertTrue(stage + " finished at " + finished, finished > 0 && finished >= last);
+			last = finished;
+		}
+		assertTrue(gateway.isOn());
+		assertArrayEquals(gateway.getMac(), keeper.getGatewayMac());
+		assertNull(events.poll());
+
+		// The dims and the power on went out together.
+		TransportMetrics metrics = keeper.getTransport().getMetrics();
+		assertEquals(2, metrics.getPacketsSent(LIFXPacket.Type.SET_LIGHT_COLOR));
+		assertEquals(1, metrics.getPacketsSent(LIFXPacket.Type.SET_POWER_STATE));
+		assertEquals(1, metrics.getWriteLatency().getCount());
+	}
+
+	@Test
+	public void prepareFindsTheLightAndItsState() throws Exception {
+		startSimulator();
+		WarmUp warmUp = new WarmUp(keeper, scheduler, listener);
+		warmUp.prepare(done);
+
+		assertEquals("prepared", nextEvent());
+		assertEquals("done", nextEvent());
+		assertTrue(keeper.isConnected());
+	}
+
+	@Test
+	public void prepareIsDoneWhenNothingAnswers() throws Exception {
+		WarmUp warmUp = new WarmUp(keeper, scheduler, listener);
+		warmUp.setTimeout(WarmUp.Stage.DISCOVER, 100);
+		warmUp.prepare(done);
+
+		assertEquals("done", nextEvent());
+		assertNull(events.poll());
+	}
+
+	@Test
+	public void failsAtDiscoverWhenNothingAnswers() throws Exception {
+		WarmUp warmUp = new WarmUp(keeper, scheduler, listener);
+		warmUp.setTimeout(WarmUp.Stage.DISCOVER, 100);
+		warmUp.start();
+
+		assertEquals("failed DISCOVER", nextEvent());
+		assertEquals(0, warmUp.getFinishedNanos(WarmUp.Stage.DISCOVER));
+		assertEquals(0, warmUp.getFinishedNanos(WarmUp.Stage.POWER_ON));
+	}
+
+	@Test
+	public void failsAtConfirmWhenTheLightDoesntReply() throws Exception {
+		startSimulator();
+		keeper.findGateway(TIMEOUT_MS);
+		assertTrue(keeper.isConnected());
+		simulator.setPacketLoss(1.0);
+
+		WarmUp warmUp = new WarmUp(keeper, scheduler, listener);
+		warmUp.setTimeout(WarmUp.Stage.CONFIRM, 100);
+		warmUp.start();
+
+		assertEquals("ready", nextEvent());
+		assertEquals("failed CONFIRM", nextEvent());
+		assertTrue(warmUp.getFinishedNanos(WarmUp.Stage.POWER_ON) > 0);
+		assertEquals(0, warmUp.getFinishedNanos(WarmUp.Stage.CONFIRM));
+	}
+
+	@Test
+	public void discoveryDoesntHoldUpTheScheduler() throws Exception {
+		WarmUp warmUp = new WarmUp(keeper, scheduler, listener);
+		warmUp.start();
+
+		// While the warm up is still looking, other work on its thread still runs.
+		final BlockingQueue<Boolean> ran = new LinkedBlockingQueue<Boolean>();
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				ran.add(true);
+			}
+		}, 50);
+		assertEquals(Boolean.TRUE, ran.poll(500, TimeUnit.MILLISECONDS));
+		assertNull(events.poll());
+		warmUp.cancel();
+	}
+}
@@ -1,7 +1,6 @@
 package au.id.katharos.lifxalarm;
 
 import android.app.Activity;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Handler.Callback;
@@ -19,7 +18,6 @@ import android.widget.ProgressBar;
  */
 public class AlarmActivity extends Activity {
 
-	private SunriseTask sunriseTask;
 	private SunriseCounter sunriseCounter;
 	
 	public void onCreate(Bundle savedInstanceState) {
@@ -42,9 +40,20 @@ public class AlarmActivity extends Activity {
 			}
 		};
 
-	    Handler handler = new Handler(callback);
-	    sunriseTask = new SunriseTask(handler);
-	    sunriseTask.execute();
+	    final Handler handler = new Handler(callback);
+	    // Sunrise ticks happen on the scheduler's thread, so hand progress over to the UI thread.
+	    SunriseCounter.ProgressListener progressListener = new SunriseCounter.ProgressListener() {
+			
+			@Override
+			public void onProgress(int progress) {
+				handler.sendMessage(Message.obtain(handler, 0, progress, 0));
+			}
+		};
+	    // Finding and warming up the light happens in the background, so this doesn't block.
+	    // Usually the pre-alarm has already done most of it.
+	    sunriseCounter = AlarmApplication.takeSunrise();
+	    sunriseCounter.setProgressListener(progressListener);
+	    sunriseCounter.start();
 	}
 	
     @Override
@@ -56,43 +65,6 @@ public class AlarmActivity extends Activity {
     
     public void dismiss(View view) {
     	Log.i("Alarm Activity", "Dissmissing alarm.");
-    	sunriseTask.cancel(true);
     	sunriseCounter.cancel();
     }
-    
-    private class SunriseTask extends AsyncTask<Void, Void, Void> {
-    	
-    	private Handler handler;
-    	private LIFXConnectionKeeper connKeeper;
-    	
-    	private SunriseTask(Handler handler) {
-			super();
-			this.handler = handler;
-		}
-    	
-    	@Override
-    	protected Void doInBackground(Void... steps) {
-    		Log.i("Background Thread", "Background LIFX Request started");
-        
-    		if (connKeeper == null) {
-    			connKeeper = LIFXConnectionKeeper.getInstance();
-    			connKeeper.findGateway();
-    			if (!connKeeper.isConnected()) {
-    				// For testing, we're going to assume that we connected fine, even though we probably didn't.
-    				// throw new RuntimeException("We didn't manage to connect! Everyone panic!");
-    				// TODO: Handle this better - with Toast... and a notification or something.
-    			}
-    		}
-    		return null;
-    	}
-
-    	@Override
-    	protected void onPostExecute(Void response) {
-    		if (sunriseCounter != null) {
-    			sunriseCounter.cancel();
-    		}
-    		sunriseCounter = new SunriseCounter(connKeeper, handler);
-    		sunriseCounter.start();
-    	}
-    }	
 }
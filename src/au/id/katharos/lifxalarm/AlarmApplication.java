@@ -0,0 +1,68 @@
+package au.id.katharos.lifxalarm;
+
+import java.io.File;
+
+import android.app.Application;
+
+/**
+ * Sets up the LIFX library before any activity uses it, and holds the
+ * sunrise between the pre-alarm and the alarm.
+ */
+public class AlarmApplication extends Application {
+
+	// Shared for the life of the process, so a sunrise outlives the activity like it used to.
+	static final ExecutorScheduler SCHEDULER = new ExecutorScheduler("Sunrise");
+	
+	// How often to look for gateways that have turned up since.
+	private static final long DISCOVERY_PERIOD_MS = 2 * 60 * 1000;
+	
+	private static SunriseCounter preparedSunrise;
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		LIFXLog.setSink(new AndroidLogSink());
+		// Keep log formatting off the threads that talk to the globes.
+		LIFXLog.setAsync(true);
+		
+		// Load the gateways we knew last time before anything looks for them, so they
+		// can be asked directly. Both run on the sunrise scheduler, off the UI thread.
+		final File cacheFile = new File(getFilesDir(), "devices.cache");
+		SCHEDULER.submit(new Runnable() {
+			@Override
+			public void run() {
+				LIFXConnectionKeeper.getInstance().setCacheFile(cacheFile);
+			}
+		});
+		LIFXConnectionKeeper.getInstance().startDiscovery(SCHEDULER, DISCOVERY_PERIOD_MS);
+		// Listeners only hand changes on to the UI thread, so they can share it too.
+		LIFXConnectionKeeper.getInstance().getRegistry().setEventScheduler(SCHEDULER);
+	}
+	
+	/**
+	 * Start getting a sunrise ready ahead of the alarm.
+	 *
+	 * @param done Run on the sunrise scheduler once it's ready or has given up
+	 *     looking for the light. May be null.
+	 */
+	static synchronized void prepareSunrise(Runnable done) {
+		if (preparedSunrise != null) {
+			preparedSunrise.cancel();
+		}
+		preparedSunrise = new SunriseCounter(LIFXConnectionKeeper.getInstance(), SCHEDULER, null);
+		preparedSunrise.prepare(done);
+	}
+	
+	/**
+	 * The sunrise prepared ahead of the alarm, or a new one if the pre-alarm
+	 * didn't run (say the alarm was set for less than the lead time away).
+	 */
+	static synchronized SunriseCounter takeSunrise() {
+		SunriseCounter sunrise = preparedSunrise;
+		preparedSunrise = null;
+		if (sunrise == null) {
+			sunrise = new SunriseCounter(LIFXConnectionKeeper.getInstance(), SCHEDULER, null);
+		}
+		return sunrise;
+	}
+}
@@ -0,0 +1,17 @@
+package au.id.katharos.lifxalarm;
+
+import android.util.Log;
+
+/**
+ * Sends the protocol library's logging to logcat.
+ */
+public class AndroidLogSink implements LogSink {
+
+	@Override
+	public void log(int priority, String tag, String message, Throwable throwable) {
+		if (throwable != null) {
+			message = message + '\n' + Log.getStackTraceString(throwable);
+		}
+		Log.println(priority, tag, message);
+	}
+}
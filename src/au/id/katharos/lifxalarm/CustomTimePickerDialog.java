@@ -52,6 +52,13 @@ public class CustomTimePickerDialog extends TimePickerDialog {
 		     // constants--in this case, AlarmManager.INTERVAL_DAY.
 		     alarmMgr.set(AlarmManager.RTC_WAKEUP, calendar.getTimeInMillis(), alarmIntent);
 		     
+		     // Find the light and get it ready a little beforehand. If that's already
+		     // passed, this fires straight away, which is still a head start.
+		     Intent preAlarm = new Intent(sourceActivity, PreAlarmReceiver.class);
+		     PendingIntent preAlarmIntent = PendingIntent.getBroadcast(sourceActivity, 0, preAlarm, 0);
+		     long leadMs = PreAlarmReceiver.getLeadMs(sourceActivity);
+		     alarmMgr.set(AlarmManager.RTC_WAKEUP, calendar.getTimeInMillis() - leadMs, preAlarmIntent);
+		     
 		     // Find difference between scheduled time and now
 		     long millis = calendar.getTimeInMillis() - System.currentTimeMillis();
 		     
@@ -1,5 +1,7 @@
 package au.id.katharos.lifxalarm;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Calendar;
 
 import android.app.TimePickerDialog;
@@ -22,12 +24,48 @@ public class MainActivity extends FragmentActivity {
 	private LIFXConnectionKeeper connKeeper;
 	private boolean powerState;
 	
+	// Keeps the power button right when the light is switched from somewhere else.
+	private final DeviceRegistry.Listener powerListener = new DeviceRegistry.Listener() {
+		@Override
+		public void onDeviceChanged(final Device device, int changes) {
+			if ((changes & POWER) == 0
+					|| !Arrays.equals(device.getMacBytes(), LIFXConnectionKeeper.getInstance().getGatewayMac())) {
+				return;
+			}
+			runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					showPower(device.getPower() == Device.POWER_ON);
+				}
+			});
+		}
+	};
+	
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // The registry keeps the light's last known power, so show it without asking.
+        LIFXConnectionKeeper keeper = LIFXConnectionKeeper.getInstance();
+        keeper.getRegistry().addListener(powerListener);
+        byte[] mac = keeper.getGatewayMac();
+        Device light = mac == null ? null : keeper.getRegistry().get(mac);
+        if (light != null && light.getPower() != Device.POWER_UNKNOWN) {
+        	showPower(light.getPower() == Device.POWER_ON);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        LIFXConnectionKeeper.getInstance().getRegistry().removeListener(powerListener);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -93,16 +131,17 @@ public class MainActivity extends FragmentActivity {
 				.setPayload(payload[0])
 				.build();
 
-				return connKeeper.sendPacket(setColor, false);
+				// Rate limited, so mashing the buttons only sends the latest colour.
+				connKeeper.schedulePacket(setColor);
 			}
 			return null;
 		}
     }
     
-    private class SetPowerTask extends AsyncTask<Boolean, Void, LIFXPacket> {
+    private class SetPowerTask extends AsyncTask<Boolean, Void, ResponseFuture> {
     	
     	@Override
-    	protected LIFXPacket doInBackground(Boolean... turnOn) {
+    	protected ResponseFuture doInBackground(Boolean... turnOn) {
     		if (connKeeper == null) {
     			connKeeper = LIFXConnectionKeeper.getInstance();
     			connKeeper.findGateway();
@@ -111,25 +150,63 @@ public class MainActivity extends FragmentActivity {
     		// In future, we'll need a better way of selecting the globe in the UI.
     		byte[] mac = connKeeper.getGatewayMac();
     		
-    		PowerStatePayload payload = new PowerStatePayload(!powerState);
+    		PowerStatePayload payload = new PowerStatePayload(turnOn[0]);
     		
     		LIFXPacket turnOff = new LIFXPacket.Builder(Type.SET_POWER_STATE)
     			.setGlobeMac(mac)
     			.setPayload(payload)
     			.build();
     		
-    		LIFXPacket result = connKeeper.sendPacket(turnOff, true);
-
-    		return result;
+    		// Don't wait for the reply here, the callback updates the button when it comes.
+    		return connKeeper.request(turnOff, new PowerStateCallback());
+    	}
+    	
+    	@Override
+    	protected void onPostExecute(ResponseFuture request) {
+    		if (request == null) {
+    			// Couldn't even send it, let them try again.
+    			findViewById(R.id.power_toggle).setEnabled(true);
+    		}
+    	}
+    }
+    
+    private void showPower(boolean on) {
+    	powerState = on;
+    	Button power_toggle = ((Button) findViewById(R.id.power_toggle));
+    	power_toggle.setText(powerState ? R.string.power_toggle_off : R.string.power_toggle_on);
+    }
+    
+    /**
+     * Updates the power button once the globe confirms its new state.
+     */
+    private class PowerStateCallback implements ResponseCallback {
+    	
+    	@Override
+    	public void onResponse(LIFXPacket reply) {
+    		// A short or garbled reply decodes to an empty payload.
+    		if (!(reply.getPayload() instanceof PowerStatePayload)) {
+    			onFailure(new IOException("Unreadable reply: " + reply));
+    			return;
+    		}
+    		final boolean on = ((PowerStatePayload) reply.getPayload()).isOn();
+    		runOnUiThread(new Runnable() {
+    			@Override
+    			public void run() {
+    				findViewById(R.id.power_toggle).setEnabled(true);
+    				showPower(on);
+    			}
+    		});
     	}
     	
     	@Override
-    	protected void onPostExecute(LIFXPacket response) {
-    		powerState = ((PowerStatePayload) response.getPayload()).isOn();
-    		findViewById(R.id.power_toggle).setEnabled(true);
-    		Button power_toggle = ((Button) findViewById(R.id.power_toggle));
-    		power_toggle.setText(powerState ? R.string.power_toggle_off : R.string.power_toggle_on);
+    	public void onFailure(Exception cause) {
+    		Log.e("Main Activity", "No reply to power toggle: " + cause.getMessage());
+    		runOnUiThread(new Runnable() {
+    			@Override
+    			public void run() {
+    				findViewById(R.id.power_toggle).setEnabled(true);
+    			}
+    		});
     	}
     }
 }
-    
\ No newline at end of file
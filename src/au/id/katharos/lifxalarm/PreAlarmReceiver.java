@@ -0,0 +1,53 @@
+package au.id.katharos.lifxalarm;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Fires a little before the alarm to find the light and get the sunrise
+ * ready, so that when the alarm goes off the light comes on straight away.
+ * 
+ * How long before is the "prewarm_lead_ms" preference.
+ */
+public class PreAlarmReceiver extends BroadcastReceiver {
+
+	static final String PREFERENCES = "alarm";
+	static final String PREF_LEAD_MS = "prewarm_lead_ms";
+	static final long DEFAULT_LEAD_MS = 2 * 60 * 1000;
+
+	/**
+	 * How long before the alarm to start getting ready.
+	 */
+	static long getLeadMs(Context context) {
+		return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE)
+				.getLong(PREF_LEAD_MS, DEFAULT_LEAD_MS);
+	}
+
+	// Longer than the warm up takes to give up on finding the light, and well
+	// inside the time a receiver is allowed to run.
+	static final long PREPARE_TIMEOUT_MS = 30 * 1000;
+
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		Log.i("Pre Alarm", "Getting the sunrise ready.");
+		// The alarm only keeps the phone awake until the broadcast is finished,
+		// so hold it open until the sunrise is ready or the timeout passes.
+		final PendingResult result = goAsync();
+		final AtomicBoolean finished = new AtomicBoolean();
+		Runnable finish = new Runnable() {
+			@Override
+			public void run() {
+				if (finished.compareAndSet(false, true)) {
+					result.finish();
+				}
+			}
+		};
+		AlarmApplication.SCHEDULER.schedule(finish, PREPARE_TIMEOUT_MS);
+		// Doesn't block; the work happens on the sunrise scheduler.
+		AlarmApplication.prepareSunrise(finish);
+	}
+}